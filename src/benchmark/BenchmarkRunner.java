@@ -0,0 +1,290 @@
+package benchmark;
+
+import converter.InfixToPostfixConverter;
+import converter.InfixToPrefixConverter;
+import evaluator.CompiledExpression;
+import evaluator.PostfixEvaluation;
+import evaluator.PrefixEvaluation;
+import utils.Checker;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * A self-contained benchmark harness for the public conversion, validation and evaluation entry points.
+ * Each benchmark runs over a pool of generated expressions for a number of warmup and measurement
+ * iterations and reports its throughput and the bytes it allocates per operation.
+ * Results can be saved as a baseline and later runs compared against it to spot regressions.
+ *
+ * <pre>
+ * java -cp bin benchmark.BenchmarkRunner [--output=FILE] [--baseline=FILE] [--threshold=PERCENT] [--filter=TEXT]
+ * </pre>
+ *
+ * Exits with status 1 if a comparison with the baseline finds a regression.
+ */
+public class BenchmarkRunner {
+
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASUREMENT_ITERATIONS = 5;
+	private static final long ITERATION_NANOS = 200_000_000L;
+	private static final int EXPRESSIONS_PER_POOL = 64;
+
+	// Expression shapes every benchmark runs against
+	private static final ExpressionGenerator[] GENERATORS = {
+			new ExpressionGenerator(1, 3, "+-*/", 1, 1),
+			new ExpressionGenerator(2, 4, "+-*/", 3, 2),
+			new ExpressionGenerator(3, 5, "+-*/^", 2, 3),
+			new ExpressionGenerator(2, 8, "+*", 6, 4)
+	};
+
+	// Consumes benchmark results so the JIT cannot remove the measured work
+	private static volatile int sink;
+
+	/**
+	 * A measured result: throughput and allocation rate of one benchmark for one expression shape.
+	 *
+	 * @param name           The benchmark name.
+	 * @param parameters     The expression shape.
+	 * @param opsPerSecond   The number of operations per second.
+	 * @param bytesPerOp     The number of bytes allocated per operation.
+	 */
+	record Result(String name, String parameters, double opsPerSecond, double bytesPerOp) {
+
+		/**
+		 * @return The key identifying this result in a baseline file.
+		 */
+		String key() {
+			return name + "\t" + parameters;
+		}
+	}
+
+	/**
+	 * Runs the benchmarks.
+	 *
+	 * @param args The command-line arguments.
+	 * @throws IOException If the output or baseline file cannot be accessed.
+	 */
+	public static void main(String[] args) throws IOException {
+		Path output = null;
+		Path baseline = null;
+		double threshold = 10;
+		String filter = "";
+
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			String name = separator < 0 ? arg : arg.substring(0, separator);
+			String value = separator < 0 ? "" : arg.substring(separator + 1);
+			switch (name) {
+				case "--output" -> output = Path.of(value);
+				case "--baseline" -> baseline = Path.of(value);
+				case "--threshold" -> threshold = Double.parseDouble(value);
+				case "--filter" -> filter = value;
+				default -> throw new IllegalArgumentException("Unknown option: " + name);
+			}
+		}
+
+		List<Result> results = new ArrayList<>();
+		for (ExpressionGenerator generator : GENERATORS) {
+			String[] infix = generator.generate(EXPRESSIONS_PER_POOL);
+			Map<String, ToIntFunction<String>> benchmarks = benchmarks();
+			Map<String, String[]> inputs = inputs(infix);
+
+			for (Map.Entry<String, ToIntFunction<String>> benchmark : benchmarks.entrySet()) {
+				if (!benchmark.getKey().contains(filter)) {
+					continue;
+				}
+				String[] pool = inputs.get(benchmark.getKey().substring(0, benchmark.getKey().indexOf(':')));
+				Result result = run(benchmark.getKey(), generator.describe(), pool, benchmark.getValue());
+				System.out.println(format(result));
+				results.add(result);
+			}
+		}
+
+		if (output != null) {
+			write(output, results);
+		}
+		if (baseline != null && compare(baseline, results, threshold) > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Lists the benchmarks. Each name starts with the notation of the expressions it consumes.
+	 *
+	 * @return The benchmarks by name.
+	 */
+	private static Map<String, ToIntFunction<String>> benchmarks() {
+		Map<String, ToIntFunction<String>> benchmarks = new LinkedHashMap<>();
+		benchmarks.put("infix:InfixToPostfixConverter.convert", e -> InfixToPostfixConverter.convert(e).length());
+		benchmarks.put("infix:InfixToPrefixConverter.convert", e -> InfixToPrefixConverter.convert(e).length());
+		benchmarks.put("infix:CompiledExpression.fromInfix", e -> (int) CompiledExpression.fromInfix(e).evaluate());
+		benchmarks.put("infix:Checker.isValidCharacters", e -> {
+			Checker.isValidCharacters(e);
+			return 1;
+		});
+		benchmarks.put("infix:Checker.isBalancedParentheses", e -> {
+			Checker.isBalancedParentheses(e);
+			return 1;
+		});
+		benchmarks.put("infix:Checker.isValidInfix", e -> Checker.isValidInfix(e) ? 1 : 0);
+		benchmarks.put("postfix:PostfixEvaluation.evaluate", e -> (int) PostfixEvaluation.evaluate(e));
+		benchmarks.put("postfix:Checker.isValidPostfix", e -> Checker.isValidPostfix(e) ? 1 : 0);
+		benchmarks.put("prefix:PrefixEvaluation.evaluate", e -> (int) PrefixEvaluation.evaluate(e));
+		benchmarks.put("prefix:Checker.isValidPrefix", e -> Checker.isValidPrefix(e) ? 1 : 0);
+		return benchmarks;
+	}
+
+	/**
+	 * Prepares the expression pools in every notation from the generated infix expressions.
+	 *
+	 * @param infix The generated infix expressions.
+	 * @return The expression pools by notation.
+	 */
+	private static Map<String, String[]> inputs(String[] infix) {
+		String[] postfix = new String[infix.length];
+		String[] prefix = new String[infix.length];
+		for (int i = 0; i < infix.length; i++) {
+			postfix[i] = InfixToPostfixConverter.convert(infix[i]);
+			prefix[i] = InfixToPrefixConverter.convert(infix[i]);
+		}
+		return Map.of("infix", infix, "postfix", postfix, "prefix", prefix);
+	}
+
+	/**
+	 * Runs the warmup and measurement iterations of one benchmark.
+	 *
+	 * @param name       The benchmark name.
+	 * @param parameters The expression shape.
+	 * @param pool       The expressions to cycle through.
+	 * @param operation  The measured operation.
+	 * @return The measured result.
+	 */
+	private static Result run(String name, String parameters, String[] pool, ToIntFunction<String> operation) {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			iterate(pool, operation);
+		}
+
+		long operations = 0;
+		long nanos = 0;
+		long bytes = 0;
+		for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			operations += iterate(pool, operation);
+			nanos += System.nanoTime() - start;
+			bytes += allocatedBytes() - allocatedBefore;
+		}
+
+		return new Result(name.substring(name.indexOf(':') + 1), parameters,
+				operations * 1e9 / nanos, (double) bytes / operations);
+	}
+
+	/**
+	 * Runs the operation over the pool until one iteration's time is up.
+	 *
+	 * @param pool      The expressions to cycle through.
+	 * @param operation The measured operation.
+	 * @return The number of operations performed.
+	 */
+	private static long iterate(String[] pool, ToIntFunction<String> operation) {
+		long deadline = System.nanoTime() + ITERATION_NANOS;
+		long operations = 0;
+		int accumulator = 0;
+		do {
+			// Check the clock once per pass over the pool to keep timing overhead low
+			for (String expression : pool) {
+				accumulator += operation.applyAsInt(expression);
+			}
+			operations += pool.length;
+		} while (System.nanoTime() < deadline);
+		sink = accumulator;
+		return operations;
+	}
+
+	/**
+	 * @return The number of bytes the current thread has allocated so far.
+	 */
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+	}
+
+	/**
+	 * Formats a result as a tab-separated line.
+	 *
+	 * @param result The result to format.
+	 * @return The formatted line.
+	 */
+	private static String format(Result result) {
+		return String.format(Locale.ROOT, "%s\t%s\t%.0f\t%.1f", result.name(), result.parameters(), result.opsPerSecond(), result.bytesPerOp());
+	}
+
+	/**
+	 * Saves results as a baseline file.
+	 *
+	 * @param output  The file to write.
+	 * @param results The results to save.
+	 * @throws IOException If the file cannot be written.
+	 */
+	private static void write(Path output, List<Result> results) throws IOException {
+		List<String> lines = new ArrayList<>();
+		lines.add("# benchmark\tparameters\tops/s\tbytes/op");
+		lines.add("# java " + System.getProperty("java.version") + ", " + System.getProperty("os.name") + " "
+				+ System.getProperty("os.arch") + ", " + Runtime.getRuntime().availableProcessors() + " cpu(s)");
+		for (Result result : results) {
+			lines.add(format(result));
+		}
+		Files.write(output, lines, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compares results with a baseline file and reports throughput drops and allocation increases
+	 * beyond the threshold, and results the baseline has no entry for.
+	 *
+	 * @param baseline  The baseline file.
+	 * @param results   The results of this run.
+	 * @param threshold The tolerated change, in percent.
+	 * @return The number of regressions.
+	 * @throws IOException If the baseline cannot be read.
+	 */
+	private static int compare(Path baseline, List<Result> results, double threshold) throws IOException {
+		Map<String, double[]> expected = new LinkedHashMap<>();
+		for (String line : Files.readAllLines(baseline, StandardCharsets.UTF_8)) {
+			if (line.isBlank() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\t");
+			expected.put(fields[0] + "\t" + fields[1], new double[]{Double.parseDouble(fields[2]), Double.parseDouble(fields[3])});
+		}
+
+		int regressions = 0;
+		int missing = 0;
+		System.out.println();
+		for (Result result : results) {
+			double[] base = expected.get(result.key());
+			if (base == null) {
+				missing++;
+				System.out.println(String.format(Locale.ROOT, "%-10s %s\t%s\tnot in the baseline", "MISSING", result.name(), result.parameters()));
+				continue;
+			}
+			double throughputChange = (result.opsPerSecond() - base[0]) * 100 / base[0];
+			boolean slower = throughputChange < -threshold;
+			boolean heavier = result.bytesPerOp() > base[1] * (1 + threshold / 100) + 1;
+			if (slower || heavier) {
+				regressions++;
+			}
+			System.out.println(String.format(Locale.ROOT, "%-10s %s\t%s\tthroughput %+.1f%%, bytes/op %.1f -> %.1f",
+					slower || heavier ? "REGRESSION" : "ok", result.name(), result.parameters(), throughputChange, base[1], result.bytesPerOp()));
+		}
+		System.out.println(regressions + " regression(s) beyond " + threshold + "%, " + missing + " result(s) not in the baseline.");
+		return regressions;
+	}
+}
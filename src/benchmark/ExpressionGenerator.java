@@ -0,0 +1,118 @@
+package benchmark;
+
+import evaluator.CompiledExpression;
+
+import java.util.Random;
+
+/**
+ * Generates random, evaluable infix expressions for benchmarks.
+ * The shape of the expressions is controlled by four parameters:
+ * <ul>
+ *     <li>depth: how many levels of parenthesized groups are nested,</li>
+ *     <li>length: how many operands each group holds,</li>
+ *     <li>operators: which operators may appear,</li>
+ *     <li>number width: how many digits each number has.</li>
+ * </ul>
+ * Generation is seeded, so the same parameters always produce the same expressions.
+ */
+public class ExpressionGenerator {
+
+	private final int depth;
+	private final int length;
+	private final String operators;
+	private final int numberWidth;
+	private final Random random;
+
+	/**
+	 * Creates a generator.
+	 *
+	 * @param depth       The number of nested levels of parenthesized groups.
+	 * @param length      The number of operands in each group.
+	 * @param operators   The operators that may appear, e.g. "+-*^".
+	 * @param numberWidth The number of digits in each number.
+	 * @param seed        The random seed.
+	 */
+	public ExpressionGenerator(int depth, int length, String operators, int numberWidth, long seed) {
+		this.depth = depth;
+		this.length = length;
+		this.operators = operators;
+		this.numberWidth = numberWidth;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Generates a number of distinct infix expressions that evaluate without errors.
+	 *
+	 * @param count The number of expressions to generate.
+	 * @return The generated infix expressions.
+	 */
+	public String[] generate(int count) {
+		String[] expressions = new String[count];
+		for (int i = 0; i < count; i++) {
+			String expression;
+			do {
+				StringBuilder builder = new StringBuilder();
+				appendGroup(builder, depth);
+				expression = builder.toString();
+			} while (!isEvaluable(expression));
+			expressions[i] = expression;
+		}
+		return expressions;
+	}
+
+	/**
+	 * Appends a group of operands separated by operators.
+	 *
+	 * @param builder The builder to append to.
+	 * @param level   The number of nested levels still allowed below this group.
+	 */
+	private void appendGroup(StringBuilder builder, int level) {
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				builder.append(' ').append(operators.charAt(random.nextInt(operators.length()))).append(' ');
+			}
+			// Nest roughly half of the operands while levels remain
+			if (level > 0 && random.nextBoolean()) {
+				builder.append('(');
+				appendGroup(builder, level - 1);
+				builder.append(')');
+			} else {
+				appendNumber(builder);
+			}
+		}
+	}
+
+	/**
+	 * Appends a number with the configured width and no leading zero.
+	 *
+	 * @param builder The builder to append to.
+	 */
+	private void appendNumber(StringBuilder builder) {
+		builder.append((char) ('1' + random.nextInt(9)));
+		for (int i = 1; i < numberWidth; i++) {
+			builder.append((char) ('0' + random.nextInt(10)));
+		}
+	}
+
+	/**
+	 * Checks that an expression can be evaluated, so benchmarks never measure exception paths.
+	 *
+	 * @param expression The infix expression.
+	 * @return True if the expression evaluates without errors, otherwise false.
+	 */
+	private static boolean isEvaluable(String expression) {
+		try {
+			CompiledExpression.fromInfix(expression).evaluate();
+			return true;
+		} catch (ArithmeticException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return A short description of the parameters, used to label benchmark results.
+	 */
+	public String describe() {
+		return "depth=" + depth + ",length=" + length + ",ops=" + operators + ",width=" + numberWidth;
+	}
+}
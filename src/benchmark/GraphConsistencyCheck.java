@@ -0,0 +1,108 @@
+package benchmark;
+
+import evaluator.EvaluationGraph;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A runnable check that {@link EvaluationGraph} reads see every update that completed before them while
+ * other threads keep updating. Each writer thread owns one input and counts it upwards, publishing each
+ * value after {@code set} returns. The formula sums the inputs through a deep chain of shared nodes, so a
+ * read must return at least the sum of the values published before it started.
+ *
+ * <pre>
+ * java -cp bin benchmark.GraphConsistencyCheck [--seconds=N]
+ * </pre>
+ *
+ * Exits with status 1 if a read misses a completed update.
+ */
+public class GraphConsistencyCheck {
+
+	private static final int WRITERS = 4;
+	private static final int CHAIN_DEPTH = 64;
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args The command-line arguments.
+	 * @throws InterruptedException If interrupted while waiting for the writers.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		long seconds = 5;
+		for (String arg : args) {
+			if (arg.startsWith("--seconds=")) {
+				seconds = Long.parseLong(arg.substring("--seconds=".length()));
+			}
+		}
+
+		// Both formulas share the sum of the inputs, and the chain above it widens the window for racing updates
+		StringBuilder sum = new StringBuilder("(x0");
+		for (int i = 1; i < WRITERS; i++) {
+			sum.append(" + x").append(i);
+		}
+		sum.append(')');
+		StringBuilder chain = new StringBuilder(sum);
+		for (int i = 0; i < CHAIN_DEPTH; i++) {
+			chain.insert(0, '(').append(" + 0)");
+		}
+		EvaluationGraph graph = EvaluationGraph.of(chain.toString(), sum + " * 1");
+		String[] names = graph.variables();
+
+		AtomicLongArray published = new AtomicLongArray(WRITERS);
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		Thread[] writers = new Thread[WRITERS];
+		for (int w = 0; w < WRITERS; w++) {
+			int variable = indexOf(names, "x" + w);
+			int slot = w;
+			writers[w] = new Thread(() -> {
+				for (long value = 1; System.nanoTime() < deadline; value++) {
+					graph.set(variable, value);
+					published.set(slot, value);
+				}
+			});
+			writers[w].start();
+		}
+
+		long reads = 0;
+		long failures = 0;
+		while (System.nanoTime() < deadline) {
+			long expected = 0;
+			for (int w = 0; w < WRITERS; w++) {
+				expected += published.get(w);
+			}
+			double value = graph.get(reads % 2 == 0 ? 0 : 1);
+			if (value < expected) {
+				failures++;
+				if (failures <= 10) {
+					System.out.println("Read " + value + " after updates summing to " + expected + " had completed.");
+				}
+			}
+			reads++;
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		System.out.println(reads + " reads, " + failures + " missed a completed update.");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Finds a variable in the graph's input order.
+	 *
+	 * @param names The input names.
+	 * @param name  The name to find.
+	 * @return The index of the input.
+	 * @throws IllegalArgumentException If the name is not an input.
+	 */
+	private static int indexOf(String[] names, String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown variable '" + name + "'.");
+	}
+}
@@ -0,0 +1,201 @@
+package benchmark;
+
+import server.EvaluationServer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * A runnable check of the HTTP service over loopback. It starts a server on a free port and sends JSON and
+ * NDJSON batches, a malformed body and a request with the wrong method one after another over a single
+ * connection, so every answer after the first also shows that the connection was kept alive. Bodies over the
+ * limit, with and without a declared length, must be answered with 413 and the connection closed.
+ *
+ * <pre>
+ * java -cp bin benchmark.ServerCheck
+ * </pre>
+ *
+ * Exits with status 1 if an answer is wrong or a connection is not reused.
+ */
+public class ServerCheck {
+
+	private static final int MAX_BODY_BYTES = 1024;
+
+	/**
+	 * A parsed HTTP response.
+	 *
+	 * @param status  The status code.
+	 * @param headers The header lines, lower-cased, each ending in a line break.
+	 * @param body    The body.
+	 */
+	private record Response(int status, String headers, String body) {
+	}
+
+	private static int failures;
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args The command-line arguments; none are used.
+	 * @throws IOException If the server cannot be started.
+	 */
+	public static void main(String[] args) throws IOException {
+		EvaluationServer byPort = EvaluationServer.start(0);
+		expect("start(port) binds the loopback address", byPort.address().getAddress().isLoopbackAddress(), "" + byPort.address());
+		byPort.stop();
+
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		EvaluationServer server = EvaluationServer.start(new InetSocketAddress(loopback, 0), MAX_BODY_BYTES);
+		try {
+			try (Socket socket = new Socket(loopback, server.port())) {
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				OutputStream out = socket.getOutputStream();
+
+				check("JSON batch", send(in, out, "POST", "/convert/postfix", "application/json", "[\"(3 + 4) * 2\", \"1 +\"]"),
+						200, "[{\"result\":\"3 4 + 2 *\"},{\"error\":\"Invalid infix expression.\"}]");
+				check("NDJSON batch", send(in, out, "POST", "/evaluate/infix", "application/x-ndjson", "\"(3 + 4) * 2\"\n2 ^ 10\n\n1 / 0\n"),
+						200, "{\"result\":14.0}\n{\"result\":1024.0}\n{\"error\":\"Division by zero is not allowed.\"}\n");
+				check("single JSON string", send(in, out, "POST", "/evaluate/prefix", "application/json", "\"* + 3 4 2\""),
+						200, "[{\"result\":14.0}]");
+				check("malformed JSON", send(in, out, "POST", "/evaluate/postfix", "application/json", "[\"3 4 +\""), 400, null);
+				check("wrong method", send(in, out, "GET", "/evaluate/infix", null, null), 405, null);
+				check("body at the limit", send(in, out, "POST", "/evaluate/postfix", "text/plain", "1\n".repeat(MAX_BODY_BYTES / 2)),
+						200, "{\"result\":1.0}\n".repeat(MAX_BODY_BYTES / 2));
+
+				Response tooLarge = send(in, out, "POST", "/evaluate/infix", "text/plain", "1\n".repeat(MAX_BODY_BYTES));
+				check("declared body over the limit", tooLarge, 413, null);
+				expect("connection closed after 413", tooLarge.headers().contains("connection: close\r\n") && in.read() < 0, tooLarge.headers());
+			}
+
+			// A chunked body has no declared length, so the limit is found while reading it
+			try (Socket socket = new Socket(loopback, server.port())) {
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				OutputStream out = socket.getOutputStream();
+				String chunk = "1\n".repeat(256);
+				StringBuilder request = new StringBuilder("POST /evaluate/infix HTTP/1.1\r\nHost: localhost\r\n"
+						+ "Content-Type: text/plain\r\nTransfer-Encoding: chunked\r\n\r\n");
+				for (int i = 0; i < 4; i++) {
+					request.append(Integer.toHexString(chunk.length())).append("\r\n").append(chunk).append("\r\n");
+				}
+				out.write(request.append("0\r\n\r\n").toString().getBytes(StandardCharsets.UTF_8));
+				out.flush();
+				check("chunked body over the limit", read(in), 413, null);
+			}
+		} finally {
+			server.stop();
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " check(s) failed.");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Sends one request over an open connection and reads the response.
+	 *
+	 * @param in          The input of the connection.
+	 * @param out         The output of the connection.
+	 * @param method      The request method.
+	 * @param path        The request path.
+	 * @param contentType The content type of the body, or null for none.
+	 * @param body        The body, or null for none.
+	 * @return The response, or null if the connection was closed.
+	 * @throws IOException If the connection fails.
+	 */
+	private static Response send(InputStream in, OutputStream out, String method, String path, String contentType, String body) throws IOException {
+		byte[] bytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+		StringBuilder request = new StringBuilder(method).append(' ').append(path).append(" HTTP/1.1\r\nHost: localhost\r\n");
+		if (contentType != null) {
+			request.append("Content-Type: ").append(contentType).append("\r\n");
+		}
+		request.append("Content-Length: ").append(bytes.length).append("\r\n\r\n");
+		out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+		out.write(bytes);
+		out.flush();
+		return read(in);
+	}
+
+	/**
+	 * Reads one response with a declared length.
+	 *
+	 * @param in The input of the connection.
+	 * @return The response, or null if the connection was closed before a response arrived.
+	 * @throws IOException If the connection fails.
+	 */
+	private static Response read(InputStream in) throws IOException {
+		String statusLine = readLine(in);
+		if (statusLine == null) {
+			return null;
+		}
+		StringBuilder headers = new StringBuilder();
+		int length = 0;
+		for (String line; (line = readLine(in)) != null && !line.isEmpty(); ) {
+			String header = line.toLowerCase(Locale.ROOT);
+			headers.append(header).append("\r\n");
+			if (header.startsWith("content-length:")) {
+				length = Integer.parseInt(header.substring("content-length:".length()).strip());
+			}
+		}
+		String body = new String(in.readNBytes(length), StandardCharsets.UTF_8);
+		return new Response(Integer.parseInt(statusLine.split(" ")[1]), headers.toString(), body);
+	}
+
+	/**
+	 * Reads one line ending in CRLF.
+	 *
+	 * @param in The input of the connection.
+	 * @return The line without its ending, or null if the input ended first.
+	 * @throws IOException If the connection fails.
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		for (int b; (b = in.read()) != '\n'; ) {
+			if (b < 0) {
+				return null;
+			}
+			if (b != '\r') {
+				line.write(b);
+			}
+		}
+		return line.toString(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Checks a response.
+	 *
+	 * @param name     The name of the check.
+	 * @param response The response, or null if the connection was closed.
+	 * @param status   The expected status code.
+	 * @param body     The expected body, or null to accept any body.
+	 */
+	private static void check(String name, Response response, int status, String body) {
+		boolean passed = response != null && response.status() == status && (body == null || body.equals(response.body()));
+		expect(name, passed, response == null ? "connection closed" : response.status() + " " + response.body());
+	}
+
+	/**
+	 * Reports the outcome of a check.
+	 *
+	 * @param name   The name of the check.
+	 * @param passed Whether the check passed.
+	 * @param actual What was observed, shown if the check failed.
+	 */
+	private static void expect(String name, boolean passed, String actual) {
+		if (passed) {
+			System.out.println("ok      " + name);
+		} else {
+			failures++;
+			String shown = actual.length() > 200 ? actual.substring(0, 200) + "..." : actual;
+			System.out.println("FAILED  " + name + ": " + shown);
+		}
+	}
+}
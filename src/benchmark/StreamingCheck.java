@@ -0,0 +1,408 @@
+package benchmark;
+
+import converter.InfixToPostfixConverter;
+import evaluator.PostfixEvaluation;
+import evaluator.PrefixEvaluation;
+import utils.Notation;
+import utils.TokenReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A runnable check that the streaming converter and evaluators handle expressions much larger than the heap and
+ * nested far deeper than recursion would allow. Every input is generated as it is read and every output is compared
+ * as it is written, so nothing the size of the input is ever held in memory. Run it with a heap smaller than the
+ * inputs to check that memory follows nesting depth rather than length:
+ *
+ * <pre>
+ * java -Xmx64m -cp bin benchmark.StreamingCheck [--megabytes=N] [--depth=N]
+ * </pre>
+ *
+ * Exits with status 1 if a result is wrong or a case runs out of memory.
+ */
+public class StreamingCheck {
+
+	// Parentheses around each operand of the nested infix input
+	private static final int BLOCK_DEPTH = 64;
+
+	/**
+	 * A case that throws if its result is wrong.
+	 */
+	private interface Case {
+
+		/**
+		 * Runs the case.
+		 *
+		 * @throws IOException If reading or writing fails.
+		 */
+		void run() throws IOException;
+	}
+
+	private static int failures;
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args The command-line arguments.
+	 */
+	public static void main(String[] args) {
+		long megabytes = option(args, "--megabytes=", 100);
+		int depth = (int) option(args, "--depth=", 1_000_000);
+		long size = megabytes * 1_000_000;
+		long heap = Runtime.getRuntime().maxMemory();
+		System.out.printf(Locale.ROOT, "Inputs of %d MB, nesting depth %d, heap limit %d MB%n", megabytes, depth, heap / 1_000_000);
+		if (heap >= size) {
+			System.out.println("The heap can hold a whole input; run with a smaller -Xmx to check that memory does not grow with length.");
+		}
+
+		// Long inputs: a flat sum, and sums of operands nested in parentheses
+		long terms = size / 4;
+		check("infix sum to postfix", () -> convert(
+				new GeneratedText().then("1").repeat(" + 1", terms),
+				new GeneratedText().then("1").repeat(" 1 +", terms)));
+		String block = "(".repeat(BLOCK_DEPTH) + "1" + " + 1)".repeat(BLOCK_DEPTH);
+		String blockPostfix = "1" + " 1 +".repeat(BLOCK_DEPTH);
+		long blocks = size / (block.length() + 3);
+		check("infix nested blocks to postfix", () -> convert(
+				new GeneratedText().then(block).repeat(" + " + block, blocks),
+				new GeneratedText().then(blockPostfix).repeat(" " + blockPostfix + " +", blocks)));
+		check("postfix sum from a reader", () -> expect(
+				PostfixEvaluation.evaluate(new TextReader(new GeneratedText().then("1").repeat(" 1 +", terms))), terms + 1));
+		check("postfix sum from a character sequence", () -> expect(
+				PostfixEvaluation.evaluate(TokenReader.of(new GeneratedText().then("1").repeat(" 1 +", terms), Notation.POSTFIX)), terms + 1));
+		int height = 1;
+		while (BalancedPrefixReader.length(height) < size) {
+			height++;
+		}
+		int treeHeight = height;
+		check("prefix balanced sum", () -> expect(PrefixEvaluation.evaluate(new BalancedPrefixReader(treeHeight)), Math.pow(2, treeHeight)));
+
+		// Deep inputs: one chain of nested operations
+		check("infix left-nested to postfix", () -> convert(
+				new GeneratedText().repeat("(", depth).then("1").repeat(" + 1)", depth),
+				new GeneratedText().then("1").repeat(" 1 +", depth)));
+		check("infix right-nested to postfix", () -> convert(
+				new GeneratedText().then("1").repeat(" + (1", depth).repeat(")", depth),
+				new GeneratedText().then("1").repeat(" 1", depth).repeat(" +", depth)));
+		check("postfix deep stack", () -> expect(
+				PostfixEvaluation.evaluate(new TextReader(new GeneratedText().then("1").repeat(" 1", depth).repeat(" +", depth))), depth + 1));
+		check("prefix right-nested", () -> expect(
+				PrefixEvaluation.evaluate(new TextReader(new GeneratedText().repeat("+ 1 ", depth).then("1"))), depth + 1));
+
+		// A problem at the very end is still found
+		check("infix incomplete at the end", () -> {
+			try {
+				InfixToPostfixConverter.convert(new TextReader(new GeneratedText().then("1").repeat(" + 1", terms).then(" +")), new ExpectedText(null));
+			} catch (IllegalArgumentException e) {
+				return;
+			}
+			throw new IllegalStateException("The incomplete expression was accepted.");
+		});
+
+		if (failures > 0) {
+			System.out.println(failures + " case(s) failed.");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Reads a numeric command-line option.
+	 *
+	 * @param args         The command-line arguments.
+	 * @param prefix       The option name, including the '='.
+	 * @param defaultValue The value if the option is not given.
+	 * @return The value of the option.
+	 */
+	private static long option(String[] args, String prefix, long defaultValue) {
+		for (String arg : args) {
+			if (arg.startsWith(prefix)) {
+				return Long.parseLong(arg.substring(prefix.length()));
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Runs a case and reports its time and peak heap use.
+	 *
+	 * @param name The name of the case.
+	 * @param body The case.
+	 */
+	private static void check(String name, Case body) {
+		List<MemoryPoolMXBean> pools = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				pools.add(pool);
+			}
+		}
+		long start = System.nanoTime();
+		String outcome;
+		try {
+			body.run();
+			outcome = "ok";
+		} catch (IOException | RuntimeException | OutOfMemoryError e) {
+			failures++;
+			outcome = "FAILED: " + e;
+		}
+		long peak = 0;
+		for (MemoryPoolMXBean pool : pools) {
+			peak += pool.getPeakUsage().getUsed();
+		}
+		System.out.printf(Locale.ROOT, "%-40s %7.2f s  peak heap %4d MB  %s%n",
+				name, (System.nanoTime() - start) / 1e9, peak / 1_000_000, outcome);
+	}
+
+	/**
+	 * Converts an infix expression to postfix and compares the output with the expected text as it is written.
+	 *
+	 * @param infix    The infix expression.
+	 * @param expected The expected postfix expression.
+	 * @throws IOException If reading fails.
+	 */
+	private static void convert(CharSequence infix, CharSequence expected) throws IOException {
+		ExpectedText out = new ExpectedText(expected);
+		InfixToPostfixConverter.convert(new TextReader(infix), out);
+		out.finish();
+	}
+
+	/**
+	 * Compares a result with the expected value.
+	 *
+	 * @param actual   The result.
+	 * @param expected The expected value.
+	 * @throws IllegalStateException If they differ.
+	 */
+	private static void expect(double actual, double expected) {
+		if (actual != expected) {
+			throw new IllegalStateException("Expected " + expected + " but got " + actual + ".");
+		}
+	}
+
+	/**
+	 * Text made of repeated pieces, generated as its characters are read. Reading it in order is cheap;
+	 * the whole text is never built.
+	 */
+	private static final class GeneratedText implements CharSequence {
+
+		private final List<String> units = new ArrayList<>();
+		private final List<Long> counts = new ArrayList<>();
+		private long length;
+
+		// The piece the last character was read from, so reading in order does not search
+		private int piece;
+		private long pieceStart;
+
+		/**
+		 * Appends a piece once.
+		 *
+		 * @param unit The piece.
+		 * @return This text.
+		 */
+		GeneratedText then(String unit) {
+			return repeat(unit, 1);
+		}
+
+		/**
+		 * Appends a piece repeated a number of times.
+		 *
+		 * @param unit  The piece.
+		 * @param count How many times it is repeated.
+		 * @return This text.
+		 * @throws IllegalArgumentException If the text would be too long for a character sequence.
+		 */
+		GeneratedText repeat(String unit, long count) {
+			length += unit.length() * count;
+			if (length > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Generated text is too long.");
+			}
+			units.add(unit);
+			counts.add(count);
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return (int) length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < pieceStart) {
+				piece = 0;
+				pieceStart = 0;
+			}
+			while (index >= pieceStart + units.get(piece).length() * counts.get(piece)) {
+				pieceStart += units.get(piece).length() * counts.get(piece);
+				piece++;
+			}
+			String unit = units.get(piece);
+			return unit.charAt((int) ((index - pieceStart) % unit.length()));
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			StringBuilder builder = new StringBuilder(end - start);
+			for (int i = start; i < end; i++) {
+				builder.append(charAt(i));
+			}
+			return builder;
+		}
+
+		@Override
+		public String toString() {
+			return "generated text of " + length + " characters";
+		}
+	}
+
+	/**
+	 * A reader over a character sequence that copies characters as they are read.
+	 */
+	private static final class TextReader extends Reader {
+
+		private final CharSequence text;
+		private int position;
+
+		/**
+		 * Creates a reader over a character sequence.
+		 *
+		 * @param text The characters to read.
+		 */
+		TextReader(CharSequence text) {
+			this.text = text;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) {
+			if (position == text.length()) {
+				return -1;
+			}
+			int count = Math.min(length, text.length() - position);
+			for (int i = 0; i < count; i++) {
+				buffer[offset + i] = text.charAt(position++);
+			}
+			return count;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Reads the prefix form of a perfect binary tree of additions whose leaves are all 1, such as
+	 * {@code + + 1 1 + 1 1}. It keeps the heights of the subtrees still to be written, so the text is generated
+	 * with memory proportional to the height of the tree.
+	 */
+	private static final class BalancedPrefixReader extends Reader {
+
+		private final int[] pending;
+		private int size;
+		private boolean space; // Whether a space comes before the next token
+
+		/**
+		 * Creates a reader for a tree of the given height.
+		 *
+		 * @param height The height of the tree; it has 2^height leaves.
+		 */
+		BalancedPrefixReader(int height) {
+			pending = new int[height + 1];
+			pending[size++] = height;
+		}
+
+		/**
+		 * @param height The height of a tree.
+		 * @return The number of characters in the prefix form of the tree.
+		 */
+		static long length(int height) {
+			return 2 * ((2L << height) - 1) - 1; // One character per token, separated by spaces
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) {
+			if (size == 0) {
+				return -1;
+			}
+			int count = 0;
+			while (count < length && size > 0) {
+				if (space) {
+					buffer[offset + count++] = ' ';
+					space = false;
+					continue;
+				}
+				int height = pending[--size];
+				if (height == 0) {
+					buffer[offset + count++] = '1';
+				} else {
+					buffer[offset + count++] = '+';
+					pending[size++] = height - 1;
+					pending[size++] = height - 1;
+				}
+				space = true;
+			}
+			return count;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * An output that compares what is written with the expected text and keeps nothing else.
+	 */
+	private static final class ExpectedText implements Appendable {
+
+		private final CharSequence expected;
+		private int position;
+
+		/**
+		 * Creates an output that expects the given text.
+		 *
+		 * @param expected The expected text, or null to accept and discard anything.
+		 */
+		ExpectedText(CharSequence expected) {
+			this.expected = expected;
+		}
+
+		@Override
+		public Appendable append(CharSequence text) {
+			return append(text, 0, text.length());
+		}
+
+		@Override
+		public Appendable append(CharSequence text, int start, int end) {
+			for (int i = start; i < end; i++) {
+				append(text.charAt(i));
+			}
+			return this;
+		}
+
+		@Override
+		public Appendable append(char ch) {
+			if (expected != null && (position >= expected.length() || expected.charAt(position) != ch)) {
+				throw new IllegalStateException("Output differs from the expected text at index " + position + ".");
+			}
+			position++;
+			return this;
+		}
+
+		/**
+		 * Checks that the whole expected text was written.
+		 *
+		 * @throws IllegalStateException If the output stopped early.
+		 */
+		void finish() {
+			if (expected != null && position != expected.length()) {
+				throw new IllegalStateException("Output ended at index " + position + " of " + expected.length() + ".");
+			}
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package converter;
+
+import utils.Notation;
+import utils.OperatorRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A size-bounded, thread-safe cache of conversion results.
+ * Expressions are keyed on the target notation and a whitespace-insensitive normal form, so "(3 + 4) * 2" and "(3+4)*2"
+ * share one entry. A cache hit skips validation and conversion entirely.
+ * Install a cache with {@link InfixToPostfixConverter#setCache} or {@link InfixToPrefixConverter#setCache};
+ * one instance can serve both. Registering an operator or function can change how an expression is read,
+ * so the cache empties itself the next time it is used after a registration.
+ */
+public final class ConversionCache {
+
+	/**
+	 * The order in which entries are evicted once the cache is full.
+	 */
+	public enum EvictionPolicy {
+
+		/**
+		 * Evicts the entry that was used least recently.
+		 */
+		LRU,
+
+		/**
+		 * Evicts the entry that was added first, regardless of how often it is used.
+		 */
+		FIFO
+	}
+
+	private final int capacity;
+	private final EvictionPolicy policy;
+	private final LinkedHashMap<String, String> entries;
+	private int registrySize; // The size of the operator registry the entries were converted with, guarded by entries
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity The maximum number of entries the cache holds.
+	 * @param policy   The order in which entries are evicted once the cache is full.
+	 * @throws IllegalArgumentException If the capacity is not positive.
+	 */
+	public ConversionCache(int capacity, EvictionPolicy policy) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Cache capacity must be positive.");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.entries = new LinkedHashMap<>(16, 0.75f, policy == EvictionPolicy.LRU) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				if (size() > ConversionCache.this.capacity) {
+					evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached conversion of an expression, converting and caching it on a miss.
+	 * Expressions that fail to convert are not cached.
+	 *
+	 * @param expression The expression to convert.
+	 * @param target     The notation the expression is converted to.
+	 * @param converter  The conversion to run on a miss.
+	 * @return The converted expression.
+	 */
+	public String get(String expression, Notation target, Function<String, String> converter) {
+		if (expression == null) {
+			return converter.apply(null);
+		}
+
+		String key = target.name() + '\0' + normalize(expression);
+		int size = OperatorRegistry.size();
+		String result;
+		synchronized (entries) {
+			if (size != registrySize) {
+				entries.clear();
+				registrySize = size;
+			}
+			result = entries.get(key);
+		}
+		if (result != null) {
+			hits.increment();
+			return result;
+		}
+
+		// Convert outside the lock so slow conversions do not block hits on other threads
+		misses.increment();
+		result = converter.apply(expression);
+		synchronized (entries) {
+			// A result converted with an older registry is returned but not kept
+			if (size == registrySize) {
+				entries.put(key, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reduces an expression to a whitespace-insensitive normal form. Whitespace is dropped,
+	 * except a single space is kept where dropping it could merge two tokens into one: between two
+	 * word characters, as in two numbers, and between two symbols, as in {@code < =} and {@code <=}.
+	 * Parentheses and commas never merge with a neighbour.
+	 *
+	 * @param expression The expression to normalize.
+	 * @return The normalized expression.
+	 */
+	static String normalize(String expression) {
+		int length = expression.length();
+		StringBuilder normalized = new StringBuilder(length);
+		boolean pendingSpace = false;
+
+		for (int i = 0; i < length; i++) {
+			char ch = expression.charAt(i);
+			if (Character.isWhitespace(ch)) {
+				pendingSpace = true;
+				continue;
+			}
+			if (pendingSpace && !normalized.isEmpty() && mayMerge(normalized.charAt(normalized.length() - 1), ch)) {
+				normalized.append(' ');
+			}
+			pendingSpace = false;
+			normalized.append(ch);
+		}
+
+		return normalized.toString();
+	}
+
+	/**
+	 * Checks if two characters separated by whitespace could read as one token once the whitespace is dropped.
+	 *
+	 * @param previous The character before the whitespace.
+	 * @param next     The character after the whitespace.
+	 * @return True if neither is a parenthesis or comma and both are word characters or both are not.
+	 */
+	private static boolean mayMerge(char previous, char next) {
+		if (isDelimiter(previous) || isDelimiter(next)) {
+			return false;
+		}
+		return isWordCharacter(previous) == isWordCharacter(next);
+	}
+
+	/**
+	 * Checks if a character is always a token of its own.
+	 *
+	 * @param ch The character to check.
+	 * @return True if the character is a parenthesis or a comma, otherwise false.
+	 */
+	private static boolean isDelimiter(char ch) {
+		return ch == '(' || ch == ')' || ch == ',';
+	}
+
+	/**
+	 * Checks if a character can be part of a multi-character token such as a number.
+	 *
+	 * @param ch The character to check.
+	 * @return True if the character is a letter, a digit, '.' or '_', otherwise false.
+	 */
+	private static boolean isWordCharacter(char ch) {
+		return Character.isLetterOrDigit(ch) || ch == '.' || ch == '_';
+	}
+
+	/**
+	 * Removes all entries. The hit, miss and eviction counters are kept.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * @return The number of entries currently cached.
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return The maximum number of entries the cache holds.
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The order in which entries are evicted once the cache is full.
+	 */
+	public EvictionPolicy policy() {
+		return policy;
+	}
+
+	/**
+	 * @return The number of lookups answered from the cache.
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of lookups that had to run the conversion.
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return The number of entries removed to stay within the capacity.
+	 */
+	public long evictions() {
+		return evictions.sum();
+	}
+}
@@ -1,17 +1,32 @@
 package converter;
 
-import utils.Checker;
-import utils.ExpressionUtils;
+import metrics.EvaluatorMetrics;
+import metrics.Operation;
+import utils.Notation;
+import utils.OperatorRegistry;
+import utils.TokenStream;
+import utils.IntStack;
+import utils.TokenReader;
+import utils.Tokenizer;
 
-import java.util.Stack;
+import java.io.IOException;
+import java.io.Reader;
+
+import java.util.Arrays;
 
 /**
  * A utility class for converting infix expressions to postfix notation.
- * This class provides methods to handle digits, operators, and parentheses
- * during the conversion process.
+ * This class runs the shunting-yard algorithm over the token stream produced by the {@link Tokenizer}
+ * and provides methods to handle operands, operators, function calls, and parentheses during the conversion process.
+ * Precedence and associativity come from the {@link OperatorRegistry}, so {@code 2 ^ 3 ^ 2} groups from the right.
+ * A function is output after its arguments, so {@code max(a, b)} becomes {@code a b max}, and a unary minus
+ * is output as {@code neg}, so {@code -x ^ 2} becomes {@code x 2 ^ neg}.
  */
 public class InfixToPostfixConverter {
 
+	// Optional cache of conversion results, shared by all threads
+	private static volatile ConversionCache cache;
+
 	/**
 	 * Converts an infix expression to postfix notation.
 	 *
@@ -21,101 +36,306 @@ public class InfixToPostfixConverter {
 	 *                                  or has mismatched parentheses.
 	 */
 	public static String convert(String expression) {
-		// Validate the expression
-		Checker.isNullOrEmpty(expression);
-		Checker.isBalancedParentheses(expression);
-		Checker.isValidCharacters(expression);
-
-		Stack<Character> stack = new Stack<>();
-		StringBuilder postfix = new StringBuilder();
-		StringBuilder currentNumber = new StringBuilder();
-
-		// Process each character in the expression
-		for (int i = 0; i < expression.length(); i++) {
-			char ch = expression.charAt(i);
-
-			if (Character.isDigit(ch)) {
-				handleDigit(ch, i, expression, currentNumber, postfix);
-			} else if (ch == '(') {
-				stack.push(ch);
-			} else if (ch == ')') {
-				handleClosingParenthesis(stack, postfix);
-			} else if (ExpressionUtils.isOperator(ch)) {
-				handleOperator(ch, stack, postfix);
-			}
+		if (!EvaluatorMetrics.enabled()) {
+			return convertCached(expression);
 		}
+		long start = System.nanoTime();
+		try {
+			String postfix = convertCached(expression);
+			EvaluatorMetrics.success(Operation.INFIX_TO_POSTFIX, start);
+			return postfix;
+		} catch (RuntimeException e) {
+			EvaluatorMetrics.failure(Operation.INFIX_TO_POSTFIX, start, e);
+			throw e;
+		}
+	}
 
-		// Append any remaining operators in the stack to the postfix expression
-		appendRemainingOperators(stack, postfix);
-
-		return postfix.toString().trim();
+	/**
+	 * Converts an infix expression to postfix notation through the cache, if one is installed.
+	 *
+	 * @param expression The infix expression to convert.
+	 * @return The postfix expression as a String.
+	 */
+	private static String convertCached(String expression) {
+		ConversionCache cache = InfixToPostfixConverter.cache;
+		if (cache != null) {
+			return cache.get(expression, Notation.POSTFIX, InfixToPostfixConverter::convertUncached);
+		}
+		return convertUncached(expression);
 	}
 
 	/**
-	 * Handles digits in the expression by appending them to the current number
-	 * and adding the complete number to the postfix expression.
+	 * Converts an infix expression to postfix notation without consulting the cache.
 	 *
-	 * @param ch            The current character (digit).
-	 * @param currentIndex  The current index in the expression.
-	 * @param expression    The full infix expression.
-	 * @param currentNumber A StringBuilder to accumulate multi-digit numbers.
-	 * @param postfix       The StringBuilder for the postfix expression.
-	 */
-	private static void handleDigit(char ch, int currentIndex, String expression, StringBuilder currentNumber, StringBuilder postfix) {
-		currentNumber.append(ch);
-		if (currentIndex == expression.length() - 1 || !Character.isDigit(expression.charAt(currentIndex + 1))) {
-			postfix.append(currentNumber).append(" ");
-			currentNumber.setLength(0); // Reset for the next number
+	 * @param expression The infix expression to convert.
+	 * @return The postfix expression as a String.
+	 */
+	private static String convertUncached(String expression) {
+		TokenStream tokens = Tokenizer.tokenize(expression, Notation.INFIX);
+		if (EvaluatorMetrics.enabled()) {
+			EvaluatorMetrics.tokens(Operation.INFIX_TO_POSTFIX, tokens.size());
 		}
+		return convert(tokens);
 	}
 
 	/**
-	 * Handles closing parentheses by popping operators from the stack
-	 * to the postfix expression until an opening parenthesis is found.
+	 * Installs a cache in front of {@link #convert(String)}, or removes it when given null.
+	 *
+	 * @param cache The cache to use, or null to convert every expression.
+	 */
+	public static void setCache(ConversionCache cache) {
+		InfixToPostfixConverter.cache = cache;
+	}
+
+	/**
+	 * @return The cache in front of {@link #convert(String)}, or null if there is none.
+	 */
+	public static ConversionCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Converts a tokenized infix expression to postfix notation.
 	 *
-	 * @param stack   The stack containing operators and parentheses.
-	 * @param postfix The StringBuilder for the postfix expression.
-	 * @throws IllegalArgumentException If there are mismatched parentheses.
+	 * @param tokens The infix token stream to convert.
+	 * @return The postfix expression as a String.
+	 * @throws IllegalArgumentException If the token stream is not an infix expression.
 	 */
-	private static void handleClosingParenthesis(Stack<Character> stack, StringBuilder postfix) {
-		while (!stack.isEmpty() && stack.peek() != '(') {
-			postfix.append(stack.pop()).append(" ");
+	public static String convert(TokenStream tokens) {
+		int[] order = postfixOrder(tokens);
+		StringBuilder postfix = new StringBuilder(tokens.source().length());
+
+		// Join the tokens in postfix order, separated by single spaces
+		for (int index : order) {
+			if (!postfix.isEmpty()) {
+				postfix.append(' ');
+			}
+			appendToken(tokens, index, postfix);
 		}
-		if (!stack.isEmpty() && stack.peek() == '(') {
-			stack.pop(); // Remove the opening parenthesis
+
+		return postfix.toString();
+	}
+
+	/**
+	 * Appends the postfix or prefix form of a token: its source text, or the function name of a unary minus,
+	 * since a bare '-' would read as subtraction.
+	 *
+	 * @param tokens  The token stream.
+	 * @param index   The token index.
+	 * @param builder The builder to append to.
+	 */
+	static void appendToken(TokenStream tokens, int index, StringBuilder builder) {
+		if (tokens.kind(index) == TokenStream.UNARY_MINUS) {
+			builder.append(OperatorRegistry.name(tokens.operator(index)));
 		} else {
-			throw new IllegalArgumentException("Mismatched parentheses in the expression.");
+			tokens.appendText(index, builder);
 		}
 	}
 
 	/**
-	 * Handles operators by comparing their precedence with operators in the stack
-	 * and pushing them to the stack or popping higher precedence operators to the postfix expression.
+	 * Converts an infix expression read from a reader to postfix notation, writing the result as it goes.
+	 * Memory use is bounded by the nesting depth of the expression rather than its length.
 	 *
-	 * @param operator The current operator.
-	 * @param stack    The stack containing operators and parentheses.
-	 * @param postfix  The StringBuilder for the postfix expression.
+	 * @param in  The reader holding the infix expression. It is not closed.
+	 * @param out Where the postfix expression is written.
+	 * @throws IOException              If reading or writing fails.
+	 * @throws IllegalArgumentException If the expression is not a valid infix expression. Output written
+	 *                                  before the problem was found is not taken back.
 	 */
-	private static void handleOperator(char operator, Stack<Character> stack, StringBuilder postfix) {
-		while (!stack.isEmpty() && stack.peek() != '(' && ExpressionUtils.priority(stack.peek()) >= ExpressionUtils.priority(operator)) {
-			postfix.append(stack.pop()).append(" ");
-		}
-		stack.push(operator);
+	public static void convert(Reader in, Appendable out) throws IOException {
+		convert(TokenReader.of(in, Notation.INFIX), out);
 	}
 
 	/**
-	 * Appends any remaining operators in the stack to the postfix expression.
+	 * Converts the infix expression of a token reader to postfix notation, writing the result as it goes.
+	 * Only the pending operators and open parentheses are kept, so memory use is bounded by nesting depth.
 	 *
-	 * @param stack   The stack containing remaining operators.
-	 * @param postfix The StringBuilder for the postfix expression.
-	 * @throws IllegalArgumentException If there are mismatched parentheses.
+	 * @param tokens The infix token reader.
+	 * @param out    Where the postfix expression is written.
+	 * @throws IOException              If reading or writing fails.
+	 * @throws IllegalArgumentException If the expression is not a valid infix expression.
 	 */
-	private static void appendRemainingOperators(Stack<Character> stack, StringBuilder postfix) {
+	public static void convert(TokenReader tokens, Appendable out) throws IOException {
+		tokens.requireNotation(Notation.INFIX);
+
+		// Pending operators and functions, stored as their registry ids (negated for a unary minus, which has
+		// no left operand), and open parentheses, stored as 0
+		IntStack stack = new IntStack(16);
+		boolean first = true;
+
+		int kind;
+		while ((kind = tokens.next()) != TokenReader.END) {
+			if (kind == TokenStream.NUMBER || kind == TokenStream.VARIABLE) {
+				first = write(out, tokens.text(), first);
+			} else if (kind == TokenStream.FUNCTION) {
+				stack.push(tokens.operator());
+			} else if (kind == TokenStream.UNARY_MINUS) {
+				stack.push(-tokens.operator()); // Nothing is output first: a prefix operator has no left operand
+			} else if (kind == TokenStream.LEFT_PARENTHESIS) {
+				stack.push(0);
+			} else if (kind == TokenStream.RIGHT_PARENTHESIS || kind == TokenStream.COMMA) {
+				while (stack.peek() != 0) {
+					first = write(out, stack.pop(), first);
+				}
+				if (kind == TokenStream.RIGHT_PARENTHESIS) {
+					stack.pop(); // Remove the opening parenthesis
+					if (!stack.isEmpty() && stack.peek() > 0 && OperatorRegistry.isFunction(stack.peek())) {
+						first = write(out, stack.pop(), first); // The call is complete
+					}
+				}
+			} else {
+				int operator = tokens.operator();
+				while (!stack.isEmpty() && stack.peek() != 0 && precedes(Math.abs(stack.peek()), operator)) {
+					first = write(out, stack.pop(), first);
+				}
+				stack.push(operator);
+			}
+		}
+
+		// Append any remaining operators in the stack to the output
 		while (!stack.isEmpty()) {
-			if (stack.peek() == '(') {
-				throw new IllegalArgumentException("Mismatched parentheses in the expression.");
+			first = write(out, stack.pop(), first);
+		}
+	}
+
+	/**
+	 * Writes one token of a streamed conversion, separated from the previous one by a space.
+	 *
+	 * @param out   Where the token is written.
+	 * @param token The token text.
+	 * @param first Whether this is the first token written.
+	 * @return False, as the next token is never the first.
+	 * @throws IOException If writing fails.
+	 */
+	private static boolean write(Appendable out, CharSequence token, boolean first) throws IOException {
+		if (!first) {
+			out.append(' ');
+		}
+		out.append(token);
+		return false;
+	}
+
+	/**
+	 * Writes one operator or function name of a streamed conversion, separated from the previous token by a space.
+	 *
+	 * @param out      Where the operator is written.
+	 * @param operator The registry id of the operator or function, negated for a unary minus.
+	 * @param first    Whether this is the first token written.
+	 * @return False, as the next token is never the first.
+	 * @throws IOException If writing fails.
+	 */
+	private static boolean write(Appendable out, int operator, boolean first) throws IOException {
+		return write(out, OperatorRegistry.name(Math.abs(operator)), first);
+	}
+
+	/**
+	 * Checks whether a pending operator has to be output before a new operator is pushed: it binds tighter,
+	 * or it binds equally and the new operator groups from the left.
+	 *
+	 * @param pending  The registry id of the operator on top of the stack.
+	 * @param operator The registry id of the new operator.
+	 * @return True if the pending operator is output first, otherwise false.
+	 */
+	private static boolean precedes(int pending, int operator) {
+		int difference = OperatorRegistry.precedence(pending) - OperatorRegistry.precedence(operator);
+		return difference > 0 || difference == 0 && !OperatorRegistry.isRightAssociative(operator);
+	}
+
+	/**
+	 * Computes the postfix order of a tokenized infix expression.
+	 *
+	 * @param tokens The infix token stream.
+	 * @return The indices of the operand, operator and function tokens, in postfix order.
+	 * @throws IllegalArgumentException If the token stream is not an infix expression.
+	 */
+	public static int[] postfixOrder(TokenStream tokens) {
+		tokens.requireNotation(Notation.INFIX);
+
+		int size = tokens.size();
+		IntStack stack = new IntStack(16);
+		int[] order = new int[size];
+		int length = 0;
+
+		// Process each token in the expression
+		for (int index = 0; index < size; index++) {
+			byte kind = tokens.kind(index);
+
+			if (kind == TokenStream.NUMBER || kind == TokenStream.VARIABLE) {
+				order[length++] = index;
+			} else if (kind == TokenStream.LEFT_PARENTHESIS || kind == TokenStream.FUNCTION || kind == TokenStream.UNARY_MINUS) {
+				stack.push(index); // A unary minus has no left operand, so nothing is popped for it
+			} else if (kind == TokenStream.RIGHT_PARENTHESIS) {
+				length = handleClosingParenthesis(tokens, stack, order, length);
+			} else if (kind == TokenStream.COMMA) {
+				length = handleComma(tokens, stack, order, length);
+			} else {
+				length = handleOperator(index, tokens, stack, order, length);
 			}
-			postfix.append(stack.pop()).append(" ");
 		}
+
+		// Append any remaining operators in the stack to the output
+		while (!stack.isEmpty()) {
+			order[length++] = stack.pop();
+		}
+
+		return length == size ? order : Arrays.copyOf(order, length);
+	}
+
+	/**
+	 * Handles closing parentheses by popping operators from the stack
+	 * to the output until the matching opening parenthesis is found.
+	 * If the parenthesis closes a function call, the function follows its arguments to the output.
+	 *
+	 * @param tokens The token stream.
+	 * @param stack  The stack containing operator, function and parenthesis token indices.
+	 * @param order  The output token indices.
+	 * @param length The number of indices already written to the output.
+	 * @return The new number of indices in the output.
+	 */
+	private static int handleClosingParenthesis(TokenStream tokens, IntStack stack, int[] order, int length) {
+		length = handleComma(tokens, stack, order, length);
+		stack.pop(); // Remove the opening parenthesis
+		if (!stack.isEmpty() && tokens.kind(stack.peek()) == TokenStream.FUNCTION) {
+			order[length++] = stack.pop();
+		}
+		return length;
+	}
+
+	/**
+	 * Handles commas between function arguments by popping the operators of the finished argument
+	 * to the output, leaving the opening parenthesis of the call on the stack.
+	 *
+	 * @param tokens The token stream.
+	 * @param stack  The stack containing operator, function and parenthesis token indices.
+	 * @param order  The output token indices.
+	 * @param length The number of indices already written to the output.
+	 * @return The new number of indices in the output.
+	 */
+	private static int handleComma(TokenStream tokens, IntStack stack, int[] order, int length) {
+		while (tokens.isOperator(stack.peek())) {
+			order[length++] = stack.pop();
+		}
+		return length;
+	}
+
+	/**
+	 * Handles operators by comparing their precedence and associativity with operators in the stack
+	 * and pushing them to the stack or popping operators that bind tighter to the output.
+	 *
+	 * @param index  The token index of the current operator.
+	 * @param tokens The token stream.
+	 * @param stack  The stack containing operator and parenthesis token indices.
+	 * @param order  The output token indices.
+	 * @param length The number of indices already written to the output.
+	 * @return The new number of indices in the output.
+	 */
+	private static int handleOperator(int index, TokenStream tokens, IntStack stack, int[] order, int length) {
+		int operator = tokens.operator(index);
+		while (!stack.isEmpty() && tokens.isOperator(stack.peek())
+				&& precedes(tokens.operator(stack.peek()), operator)) {
+			order[length++] = stack.pop();
+		}
+		stack.push(index);
+		return length;
 	}
-}
\ No newline at end of file
+}
@@ -1,14 +1,26 @@
 package converter;
 
-import utils.Checker;
+import metrics.EvaluatorMetrics;
+import metrics.Operation;
+import utils.IntStack;
+import utils.Notation;
+import utils.OperatorRegistry;
+import utils.TokenStream;
+import utils.Tokenizer;
 
 /**
  * A utility class for converting infix expressions to prefix notation.
- * This class provides methods to reverse the expression, convert it to postfix,
- * and then reverse the result to obtain the prefix notation.
+ * This class orders the tokens with the same shunting-yard pass as the postfix converter
+ * and then emits each operator ahead of its operands, keeping every token's text intact.
+ * There is no streaming variant: the first prefix token is the operator applied last, which may be the
+ * last token of the input, so the whole expression has to be read before anything can be written.
+ * Use {@link InfixToPostfixConverter#convert(java.io.Reader, Appendable)} for inputs that do not fit in memory.
  */
 public class InfixToPrefixConverter {
 
+	// Optional cache of conversion results, shared by all threads
+	private static volatile ConversionCache cache;
+
 	/**
 	 * Converts an infix expression to prefix notation.
 	 *
@@ -18,33 +30,124 @@ public class InfixToPrefixConverter {
 	 *                                  or has mismatched parentheses.
 	 */
 	public static String convert(String expression) {
-		// Validate the expression
-		Checker.isNullOrEmpty(expression);
-		Checker.isBalancedParentheses(expression);
-		Checker.isValidCharacters(expression);
+		if (!EvaluatorMetrics.enabled()) {
+			return convertCached(expression);
+		}
+		long start = System.nanoTime();
+		try {
+			String prefix = convertCached(expression);
+			EvaluatorMetrics.success(Operation.INFIX_TO_PREFIX, start);
+			return prefix;
+		} catch (RuntimeException e) {
+			EvaluatorMetrics.failure(Operation.INFIX_TO_PREFIX, start, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Converts an infix expression to prefix notation through the cache, if one is installed.
+	 *
+	 * @param expression The infix expression to convert.
+	 * @return The prefix expression as a String.
+	 */
+	private static String convertCached(String expression) {
+		ConversionCache cache = InfixToPrefixConverter.cache;
+		if (cache != null) {
+			return cache.get(expression, Notation.PREFIX, InfixToPrefixConverter::convertUncached);
+		}
+		return convertUncached(expression);
+	}
+
+	/**
+	 * Converts an infix expression to prefix notation without consulting the cache.
+	 *
+	 * @param expression The infix expression to convert.
+	 * @return The prefix expression as a String.
+	 */
+	private static String convertUncached(String expression) {
+		TokenStream tokens = Tokenizer.tokenize(expression, Notation.INFIX);
+		if (EvaluatorMetrics.enabled()) {
+			EvaluatorMetrics.tokens(Operation.INFIX_TO_PREFIX, tokens.size());
+		}
+		return convert(tokens);
+	}
+
+	/**
+	 * Installs a cache in front of {@link #convert(String)}, or removes it when given null.
+	 *
+	 * @param cache The cache to use, or null to convert every expression.
+	 */
+	public static void setCache(ConversionCache cache) {
+		InfixToPrefixConverter.cache = cache;
+	}
+
+	/**
+	 * @return The cache in front of {@link #convert(String)}, or null if there is none.
+	 */
+	public static ConversionCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Converts a tokenized infix expression to prefix notation.
+	 *
+	 * @param tokens The infix token stream to convert.
+	 * @return The prefix expression as a String.
+	 * @throws IllegalArgumentException If the token stream is not an infix expression.
+	 */
+	public static String convert(TokenStream tokens) {
+		int[] order = InfixToPostfixConverter.postfixOrder(tokens);
+		int[] subtreeStarts = subtreeStarts(tokens, order);
+		StringBuilder prefix = new StringBuilder(tokens.source().length());
+
+		// Walk the expression tree in pre-order, starting from the root (the last postfix token)
+		IntStack pending = new IntStack(16);
+		pending.push(order.length - 1);
+		while (!pending.isEmpty()) {
+			int position = pending.pop();
+			int index = order[position];
 
-		// Reverse the expression for processing
-		String reversedExpression = reverseExpression(expression);
+			if (!prefix.isEmpty()) {
+				prefix.append(' ');
+			}
+			InfixToPostfixConverter.appendToken(tokens, index, prefix);
 
-		// Convert the reversed expression to postfix
-		String postfix = InfixToPostfixConverter.convert(reversedExpression);
+			// The last operand ends just before the operator or function and each earlier operand just before
+			// the next one starts; push the last operand first so the first operand is emitted first
+			if (!tokens.isOperand(index)) {
+				int operand = position - 1;
+				pending.push(operand);
+				for (int i = OperatorRegistry.arity(tokens.operator(index)); i > 1; i--) {
+					operand = subtreeStarts[operand] - 1;
+					pending.push(operand);
+				}
+			}
+		}
 
-		// Reverse the postfix result to get the prefix expression
-		return new StringBuilder(postfix).reverse().toString();
+		return prefix.toString();
 	}
 
 	/**
-	 * Reverses the given expression and swaps parentheses to handle the conversion correctly.
+	 * Computes, for every position in the postfix order, where the sub-expression ending there begins.
 	 *
-	 * @param expression The original infix expression.
-	 * @return The reversed expression with swapped parentheses.
+	 * @param tokens The infix token stream.
+	 * @param order  The token indices in postfix order.
+	 * @return The start position of the sub-expression ending at each position.
 	 */
-	private static String reverseExpression(String expression) {
-		return new StringBuilder(expression)
-				.reverse()
-				.toString()
-				.replace('(', '#')  // Temporarily replace '(' with '#' to avoid conflicts
-				.replace(')', '(')  // Replace ')' with '('
-				.replace('#', ')'); // Replace '#' with ')'
+	private static int[] subtreeStarts(TokenStream tokens, int[] order) {
+		int[] starts = new int[order.length];
+		for (int position = 0; position < order.length; position++) {
+			if (tokens.isOperand(order[position])) {
+				starts[position] = position;
+			} else {
+				// An operator's sub-expression begins where its first operand begins
+				int start = starts[position - 1];
+				for (int i = OperatorRegistry.arity(tokens.operator(order[position])); i > 1; i--) {
+					start = starts[start - 1];
+				}
+				starts[position] = start;
+			}
+		}
+		return starts;
 	}
 }
\ No newline at end of file
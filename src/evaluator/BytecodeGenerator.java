@@ -0,0 +1,528 @@
+package evaluator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates a hidden class with a straight-line {@code double evaluate(double[] values)} method
+ * for a compiled expression. Every instruction of the RPN program maps directly to JVM bytecode
+ * (constants become {@code ldc2_w}, variables {@code daload}, operators {@code dadd}/{@code dsub}/...),
+ * so HotSpot can inline and optimize the arithmetic as though it were handwritten Java.
+ * Jumps become {@code dcmpl} followed by {@code ifeq}, {@code ifne} or {@code goto}, and each jump target gets
+ * a full stack map frame: the locals never change, and the operand stack holds as many doubles as the program
+ * has values there.
+ */
+final class BytecodeGenerator {
+
+	// Class file constants
+	private static final int MAGIC = 0xCAFEBABE;
+	private static final int JAVA_8_VERSION = 52;
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+	private static final int MAX_CODE_LENGTH = 65535;
+	private static final int MAX_BRANCH_OFFSET = Short.MAX_VALUE;
+
+	// Bytecode instructions
+	private static final int ICONST_0 = 0x03;
+	private static final int DCONST_0 = 0x0e;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int LDC2_W = 0x14;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int DALOAD = 0x31;
+	private static final int POP2 = 0x58;
+	private static final int DUP2 = 0x5c;
+	private static final int DADD = 0x63;
+	private static final int DSUB = 0x67;
+	private static final int DMUL = 0x6b;
+	private static final int DCMPL = 0x97;
+	private static final int IFEQ = 0x99;
+	private static final int IFNE = 0x9a;
+	private static final int GOTO = 0xa7;
+	private static final int DRETURN = 0xaf;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+
+	// Constant pool tags
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	// Stack map frame and verification type tags
+	private static final int FULL_FRAME = 255;
+	private static final int ITEM_DOUBLE = 3;
+	private static final int ITEM_OBJECT = 7;
+
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final Map<Object, Integer> poolIndices = new HashMap<>();
+	private int poolCount = 1; // Constant pool indices start at 1
+	private byte[] stackMapTable; // Set by evaluateCode for programs with jumps
+
+	private BytecodeGenerator() {
+	}
+
+	/**
+	 * Generates and loads a hidden class evaluating the given expression.
+	 *
+	 * @param expression The compiled expression.
+	 * @return The generated function, or null if the program is too large for a single method.
+	 */
+	static ExpressionFunction generate(CompiledExpression expression) {
+		byte[] classBytes;
+		try {
+			classBytes = new BytecodeGenerator().generateClass(expression);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not generate bytecode.", e);
+		}
+		if (classBytes == null) {
+			return null;
+		}
+
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+			return (ExpressionFunction) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+		} catch (Throwable e) {
+			throw new IllegalStateException("Could not load generated bytecode.", e);
+		}
+	}
+
+	/**
+	 * Writes the class file.
+	 *
+	 * @param expression The compiled expression.
+	 * @return The class file bytes, or null if the program is too large for a single method.
+	 * @throws IOException Never, since all output goes to memory.
+	 */
+	private byte[] generateClass(CompiledExpression expression) throws IOException {
+		int thisClass = classEntry("evaluator/GeneratedExpression");
+		int superClass = classEntry("java/lang/Object");
+		int functionInterface = classEntry("evaluator/ExpressionFunction");
+		int objectInit = methodEntry("java/lang/Object", "<init>", "()V");
+		int codeName = utf8Entry("Code");
+		int initName = utf8Entry("<init>");
+		int initType = utf8Entry("()V");
+		int evaluateName = utf8Entry("evaluate");
+		int evaluateType = utf8Entry("([D)D");
+
+		byte[] evaluateCode = evaluateCode(expression);
+		if (evaluateCode == null) {
+			return null;
+		}
+		int stackMapName = stackMapTable != null ? utf8Entry("StackMapTable") : 0;
+
+		ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(classBytes);
+		out.writeInt(MAGIC);
+		out.writeShort(0);
+		out.writeShort(JAVA_8_VERSION);
+		out.writeShort(poolCount);
+		poolBytes.writeTo(out);
+		out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(functionInterface);
+		out.writeShort(0); // No fields
+		out.writeShort(2); // Constructor and evaluate
+
+		// public GeneratedExpression() { super(); }
+		byte[] initCode = {(byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN};
+		writeMethod(out, initName, initType, codeName, 1, 1, initCode, 0, null);
+
+		// public double evaluate(double[] values) { ... }
+		writeMethod(out, evaluateName, evaluateType, codeName, maxStack(expression.code), 2, evaluateCode,
+				stackMapName, stackMapTable);
+
+		out.writeShort(0); // No class attributes
+		return classBytes.toByteArray();
+	}
+
+	/**
+	 * Translates the RPN program into the body of the evaluate method.
+	 *
+	 * @param expression The compiled expression.
+	 * @return The bytecode, or null if it exceeds the maximum method size.
+	 * @throws IOException Never, since all output goes to memory.
+	 */
+	private byte[] evaluateCode(CompiledExpression expression) throws IOException {
+		ByteArrayOutputStream codeBytes = new ByteArrayOutputStream(expression.code.length * 4);
+		DataOutputStream code = new DataOutputStream(codeBytes);
+		int divide = methodEntry("utils/ExpressionUtils", "divide", "(DD)D");
+		int power = methodEntry("java/lang/Math", "pow", "(DD)D");
+		int call1 = methodEntry("utils/OperatorRegistry", "call", "(DI)D");
+		int call2 = methodEntry("utils/OperatorRegistry", "call", "(DDI)D");
+
+		int[] program = expression.code;
+		int[] offsets = expression.branching ? new int[program.length + 1] : null; // Where each instruction starts
+		int[] branches = expression.branching ? new int[program.length] : null;    // Where each jump's branch is
+
+		for (int i = 0; i < program.length; i++) {
+			int instruction = program[i];
+			int operand = instruction >>> CompiledExpression.OPERAND_SHIFT;
+			if (offsets != null) {
+				offsets[i] = code.size();
+			}
+			switch (instruction & CompiledExpression.OPCODE_MASK) {
+				case CompiledExpression.PUSH -> {
+					code.writeByte(LDC2_W);
+					code.writeShort(doubleEntry(expression.constants[operand]));
+				}
+				case CompiledExpression.LOAD -> {
+					code.writeByte(ALOAD_1);
+					pushInt(code, operand);
+					code.writeByte(DALOAD);
+				}
+				case CompiledExpression.DUPLICATE -> code.writeByte(DUP2);
+				case CompiledExpression.ADD -> code.writeByte(DADD);
+				case CompiledExpression.SUBTRACT -> code.writeByte(DSUB);
+				case CompiledExpression.MULTIPLY -> code.writeByte(DMUL);
+				case CompiledExpression.DIVIDE -> {
+					code.writeByte(INVOKESTATIC);
+					code.writeShort(divide);
+				}
+				case CompiledExpression.POWER -> {
+					code.writeByte(INVOKESTATIC);
+					code.writeShort(power);
+				}
+				case CompiledExpression.CALL1, CompiledExpression.CALL2 -> {
+					// The registry id follows the operands, so no stack shuffling is needed
+					pushInt(code, operand);
+					code.writeByte(INVOKESTATIC);
+					code.writeShort((instruction & CompiledExpression.OPCODE_MASK) == CompiledExpression.CALL1 ? call1 : call2);
+				}
+				case CompiledExpression.JUMP -> branches[i] = branch(code, GOTO);
+				case CompiledExpression.JUMP_IF_FALSE -> {
+					code.writeByte(DCONST_0);
+					code.writeByte(DCMPL);
+					branches[i] = branch(code, IFEQ);
+				}
+				case CompiledExpression.JUMP_IF_FALSE_OR_POP, CompiledExpression.JUMP_IF_TRUE_OR_POP -> {
+					// Test a copy, so the value is still there if the jump is taken
+					code.writeByte(DUP2);
+					code.writeByte(DCONST_0);
+					code.writeByte(DCMPL);
+					branches[i] = branch(code, (instruction & CompiledExpression.OPCODE_MASK)
+							== CompiledExpression.JUMP_IF_FALSE_OR_POP ? IFEQ : IFNE);
+					code.writeByte(POP2);
+				}
+				default -> throw new IllegalStateException("Unknown opcode: " + (instruction & CompiledExpression.OPCODE_MASK));
+			}
+		}
+		if (offsets != null) {
+			offsets[program.length] = code.size();
+		}
+		code.writeByte(DRETURN);
+
+		// Branch offsets are signed 16-bit values
+		int limit = offsets != null ? MAX_BRANCH_OFFSET : MAX_CODE_LENGTH;
+		if (codeBytes.size() > limit || poolCount > 0xFFFF) {
+			return null;
+		}
+		byte[] bytes = codeBytes.toByteArray();
+		if (offsets != null) {
+			for (int i = 0; i < program.length; i++) {
+				if (CompiledExpression.isJump(program[i] & CompiledExpression.OPCODE_MASK)) {
+					int offset = offsets[program[i] >>> CompiledExpression.OPERAND_SHIFT] - branches[i];
+					bytes[branches[i] + 1] = (byte) (offset >> 8);
+					bytes[branches[i] + 2] = (byte) offset;
+				}
+			}
+			stackMapTable = stackMapTable(program, offsets);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes a branch instruction whose offset is patched once every instruction has been placed.
+	 *
+	 * @param code   The bytecode being written.
+	 * @param opcode The branch instruction.
+	 * @return The position of the branch instruction.
+	 * @throws IOException Never, since all output goes to memory.
+	 */
+	private static int branch(DataOutputStream code, int opcode) throws IOException {
+		int position = code.size();
+		code.writeByte(opcode);
+		code.writeShort(0);
+		return position;
+	}
+
+	/**
+	 * Builds the StackMapTable attribute of the evaluate method, with a full frame at every jump target.
+	 *
+	 * @param program The RPN program.
+	 * @param offsets The bytecode position of each instruction, and of the return after the last one.
+	 * @return The attribute body.
+	 * @throws IOException Never, since all output goes to memory.
+	 */
+	private byte[] stackMapTable(int[] program, int[] offsets) throws IOException {
+		boolean[] targets = new boolean[program.length + 1];
+		int frames = 0;
+		for (int instruction : program) {
+			int target = instruction >>> CompiledExpression.OPERAND_SHIFT;
+			if (CompiledExpression.isJump(instruction & CompiledExpression.OPCODE_MASK) && !targets[target]) {
+				targets[target] = true;
+				frames++;
+			}
+		}
+		int thisClass = classEntry("evaluator/GeneratedExpression");
+		int values = classEntry("[D");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeShort(frames);
+		int depth = 0;
+		int previous = -1;
+		for (int i = 0; i <= program.length; i++) {
+			if (targets[i]) {
+				// Offsets are stored as the distance from the previous frame, less one
+				out.writeByte(FULL_FRAME);
+				out.writeShort(offsets[i] - previous - 1);
+				previous = offsets[i];
+				out.writeShort(2); // this and values
+				out.writeByte(ITEM_OBJECT);
+				out.writeShort(thisClass);
+				out.writeByte(ITEM_OBJECT);
+				out.writeShort(values);
+				out.writeShort(depth);
+				for (int k = 0; k < depth; k++) {
+					out.writeByte(ITEM_DOUBLE);
+				}
+			}
+			if (i < program.length) {
+				// A jump carries its value to the target, so counting it as a pop gives the depth at every target
+				int opcode = program[i] & CompiledExpression.OPCODE_MASK;
+				if (opcode == CompiledExpression.PUSH || opcode == CompiledExpression.LOAD || opcode == CompiledExpression.DUPLICATE) {
+					depth++;
+				} else if (opcode != CompiledExpression.CALL1) {
+					depth--;
+				}
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a public method with a Code attribute and an empty exception table.
+	 *
+	 * @param out          The class file being written.
+	 * @param name         The constant pool index of the method name.
+	 * @param type         The constant pool index of the method descriptor.
+	 * @param codeName     The constant pool index of the "Code" attribute name.
+	 * @param maxStack     The maximum operand stack size, in slots.
+	 * @param maxLocals    The number of local variable slots, including "this".
+	 * @param code         The bytecode of the method.
+	 * @param stackMapName The constant pool index of the "StackMapTable" attribute name, if there is a table.
+	 * @param stackMap     The body of the StackMapTable attribute, or null if the method has no branches.
+	 * @throws IOException Never, since all output goes to memory.
+	 */
+	private static void writeMethod(DataOutputStream out, int name, int type, int codeName,
+									int maxStack, int maxLocals, byte[] code, int stackMapName, byte[] stackMap) throws IOException {
+		int attributesLength = stackMap != null ? 6 + stackMap.length : 0;
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1); // One attribute: Code
+		out.writeShort(codeName);
+		out.writeInt(12 + code.length + attributesLength);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); // No exception handlers
+		if (stackMap == null) {
+			out.writeShort(0); // No code attributes
+			return;
+		}
+		out.writeShort(1);
+		out.writeShort(stackMapName);
+		out.writeInt(stackMap.length);
+		out.write(stackMap);
+	}
+
+	/**
+	 * Writes the shortest instruction pushing an int constant.
+	 *
+	 * @param code  The bytecode being written.
+	 * @param value The constant to push.
+	 * @throws IOException Never, since all output goes to memory.
+	 */
+	private void pushInt(DataOutputStream code, int value) throws IOException {
+		if (value <= 5) {
+			code.writeByte(ICONST_0 + value);
+		} else if (value <= Byte.MAX_VALUE) {
+			code.writeByte(BIPUSH);
+			code.writeByte(value);
+		} else if (value <= Short.MAX_VALUE) {
+			code.writeByte(SIPUSH);
+			code.writeShort(value);
+		} else {
+			code.writeByte(LDC_W);
+			code.writeShort(intEntry(value));
+		}
+	}
+
+	/**
+	 * Computes the maximum JVM operand stack size, in slots, of the evaluate method.
+	 * Each double takes two slots, loading a variable briefly needs an array reference and an index,
+	 * a call briefly needs the registry id, and a jump briefly needs a copy of its value and a zero to compare.
+	 *
+	 * @param program The RPN program.
+	 * @return The maximum stack size.
+	 */
+	private static int maxStack(int[] program) {
+		int depth = 0;
+		int max = 2;
+		for (int instruction : program) {
+			int opcode = instruction & CompiledExpression.OPCODE_MASK;
+			if (opcode == CompiledExpression.LOAD) {
+				max = Math.max(max, depth * 2 + 2);
+				depth++;
+			} else if (opcode == CompiledExpression.PUSH || opcode == CompiledExpression.DUPLICATE) {
+				depth++;
+			} else if (opcode == CompiledExpression.CALL1) {
+				max = Math.max(max, depth * 2 + 1);
+			} else if (opcode == CompiledExpression.JUMP_IF_FALSE_OR_POP || opcode == CompiledExpression.JUMP_IF_TRUE_OR_POP) {
+				max = Math.max(max, depth * 2 + 4);
+				depth--;
+			} else if (opcode == CompiledExpression.JUMP_IF_FALSE) {
+				max = Math.max(max, depth * 2 + 2);
+				depth--;
+			} else {
+				if (opcode == CompiledExpression.CALL2) {
+					max = Math.max(max, depth * 2 + 1);
+				}
+				depth--;
+			}
+			max = Math.max(max, depth * 2);
+		}
+		return max;
+	}
+
+	/**
+	 * Adds a UTF-8 constant pool entry, or reuses an existing one.
+	 *
+	 * @param value The string.
+	 * @return The index of the entry.
+	 * @throws IOException Never, since all output goes to memory.
+	 */
+	private int utf8Entry(String value) throws IOException {
+		Integer index = poolIndices.get(value);
+		if (index != null) {
+			return index;
+		}
+		pool.writeByte(CONSTANT_UTF8);
+		pool.writeUTF(value);
+		return register(value, 1);
+	}
+
+	/**
+	 * Adds a class constant pool entry, or reuses an existing one.
+	 *
+	 * @param internalName The internal name of the class, e.g. "java/lang/Object".
+	 * @return The index of the entry.
+	 * @throws IOException Never, since all output goes to memory.
+	 */
+	private int classEntry(String internalName) throws IOException {
+		String key = "class:" + internalName;
+		Integer index = poolIndices.get(key);
+		if (index != null) {
+			return index;
+		}
+		int name = utf8Entry(internalName);
+		pool.writeByte(CONSTANT_CLASS);
+		pool.writeShort(name);
+		return register(key, 1);
+	}
+
+	/**
+	 * Adds a method reference constant pool entry, or reuses an existing one.
+	 *
+	 * @param owner      The internal name of the class declaring the method.
+	 * @param name       The method name.
+	 * @param descriptor The method descriptor.
+	 * @return The index of the entry.
+	 * @throws IOException Never, since all output goes to memory.
+	 */
+	private int methodEntry(String owner, String name, String descriptor) throws IOException {
+		String key = "method:" + owner + "." + name + descriptor;
+		Integer index = poolIndices.get(key);
+		if (index != null) {
+			return index;
+		}
+		int ownerClass = classEntry(owner);
+		int methodName = utf8Entry(name);
+		int methodType = utf8Entry(descriptor);
+		pool.writeByte(CONSTANT_NAME_AND_TYPE);
+		pool.writeShort(methodName);
+		pool.writeShort(methodType);
+		int nameAndType = register("nameAndType:" + name + descriptor + ":" + poolCount, 1);
+		pool.writeByte(CONSTANT_METHODREF);
+		pool.writeShort(ownerClass);
+		pool.writeShort(nameAndType);
+		return register(key, 1);
+	}
+
+	/**
+	 * Adds a double constant pool entry, or reuses an existing one.
+	 *
+	 * @param value The constant.
+	 * @return The index of the entry.
+	 * @throws IOException Never, since all output goes to memory.
+	 */
+	private int doubleEntry(double value) throws IOException {
+		// Key on the raw bits so that -0.0 and NaN get their own entries
+		Long key = Double.doubleToRawLongBits(value);
+		Integer index = poolIndices.get(key);
+		if (index != null) {
+			return index;
+		}
+		pool.writeByte(CONSTANT_DOUBLE);
+		pool.writeDouble(value);
+		return register(key, 2); // Doubles take two constant pool slots
+	}
+
+	/**
+	 * Adds an int constant pool entry, or reuses an existing one.
+	 *
+	 * @param value The constant.
+	 * @return The index of the entry.
+	 * @throws IOException Never, since all output goes to memory.
+	 */
+	private int intEntry(int value) throws IOException {
+		Integer index = poolIndices.get(value);
+		if (index != null) {
+			return index;
+		}
+		pool.writeByte(CONSTANT_INTEGER);
+		pool.writeInt(value);
+		return register(value, 1);
+	}
+
+	/**
+	 * Records a new constant pool entry.
+	 *
+	 * @param key   The key used to deduplicate the entry.
+	 * @param slots The number of constant pool slots the entry takes.
+	 * @return The index of the entry.
+	 */
+	private int register(Object key, int slots) {
+		int index = poolCount;
+		poolIndices.put(key, index);
+		poolCount += slots;
+		return index;
+	}
+}
@@ -0,0 +1,616 @@
+package evaluator;
+
+import converter.InfixToPostfixConverter;
+import utils.ExpressionUtils;
+import utils.Notation;
+import utils.OperatorRegistry;
+import utils.TokenStream;
+import utils.Tokenizer;
+import utils.UnboundVariableException;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An expression compiled once into a flat program that can be evaluated many times.
+ * The program is an array of instructions in postfix (RPN) order backed by a constant pool of doubles.
+ * Evaluation runs over a preallocated operand stack and allocates nothing, so repeated evaluation
+ * only costs the arithmetic.
+ *
+ * <p>The five arithmetic operators have their own opcodes. Every other entry of the {@link OperatorRegistry}
+ * compiles to a CALL1 or CALL2 instruction carrying its id, which dispatches through the registry's tables,
+ * except the lazy {@code and}, {@code or} and {@code if}: they compile to forward jumps over the operand that is
+ * not needed, so {@code if(x > 0, sqrt(x), 0)} never computes {@code sqrt(x)} for a negative x and the untaken
+ * branches of a piecewise formula cost nothing.</p>
+ *
+ * <p>Named variables are bound to slots, numbered in the order given at compile time or, by default,
+ * in order of first appearance. Values are passed by slot, either one row at a time with
+ * {@link #evaluate(double[])} or for many rows at once with {@link #evaluateColumns(double[][], double[])}.</p>
+ *
+ * <p>Evaluation starts in an interpreter. Once an instance has been evaluated {@link #JIT_THRESHOLD} times,
+ * its program is turned into a hidden class with straight-line bytecode (see {@link BytecodeGenerator}),
+ * which HotSpot then optimizes like handwritten Java. The interpreter stays as the fallback for programs
+ * too large to fit in one method.</p>
+ *
+ * <p>Instances are not thread-safe because they own their operand stack; use {@link #copy()} to get
+ * an instance for another thread that shares the same program.</p>
+ */
+public final class CompiledExpression {
+
+	// Opcodes, stored in the low 8 bits of each instruction
+	static final int PUSH = 0;
+	static final int ADD = 1;
+	static final int SUBTRACT = 2;
+	static final int MULTIPLY = 3;
+	static final int DIVIDE = 4;
+	static final int POWER = 5;
+	static final int LOAD = 6;
+	static final int DUPLICATE = 7;
+	static final int CALL1 = 8;
+	static final int CALL2 = 9;
+
+	// Jumps, whose operand is the index of a later instruction. Zero is false and any other value true:
+	// JUMP_IF_FALSE pops the condition, and the _OR_POP forms keep the value if they jump and pop it otherwise
+	static final int JUMP = 10;
+	static final int JUMP_IF_FALSE = 11;
+	static final int JUMP_IF_FALSE_OR_POP = 12;
+	static final int JUMP_IF_TRUE_OR_POP = 13;
+
+	// The operand of an instruction (the constant pool index for PUSH, the slot for LOAD, the registry id for
+	// CALL1 and CALL2, the target for jumps) is stored above the opcode
+	static final int OPERAND_SHIFT = 8;
+	static final int OPCODE_MASK = 0xFF;
+	static final int MAX_OPERAND = -1 >>> OPERAND_SHIFT;
+
+	/**
+	 * The number of evaluations after which the program is compiled to bytecode. It can be set with the
+	 * system property evaluator.jitThreshold; a negative value keeps every expression in the interpreter.
+	 */
+	public static final int JIT_THRESHOLD = Integer.getInteger("evaluator.jitThreshold", 10_000);
+
+	private static final double[] NO_VALUES = new double[0];
+
+	final int[] code;
+	final double[] constants;
+	final String[] variables;
+	final boolean branching;
+	private final double[] stack;
+	private ColumnarEvaluator columnar;
+
+	// Bytecode tier: evaluations counted so far, and the generated function once it exists
+	private int invocations;
+	private ExpressionFunction function;
+	private boolean interpretOnly = JIT_THRESHOLD < 0;
+
+	/**
+	 * Creates a compiled expression from its program.
+	 *
+	 * @param code      The instructions in postfix order.
+	 * @param constants The constant pool referenced by PUSH instructions.
+	 * @param variables The variable names, indexed by the slots referenced by LOAD instructions.
+	 * @param maxStack  The maximum operand stack depth the program reaches.
+	 */
+	CompiledExpression(int[] code, double[] constants, String[] variables, int maxStack) {
+		this.code = code;
+		this.constants = constants;
+		this.variables = variables;
+		this.branching = hasJumps(code);
+		this.stack = new double[maxStack];
+	}
+
+	/**
+	 * Compiles an infix expression.
+	 *
+	 * @param expression The infix expression to compile.
+	 * @param variables  The variable names in slot order; when none are given, slots follow first appearance.
+	 * @return The compiled expression.
+	 * @throws IllegalArgumentException If the expression is not a valid infix expression or uses an unlisted variable.
+	 */
+	public static CompiledExpression fromInfix(String expression, String... variables) {
+		return compile(Tokenizer.tokenize(expression, Notation.INFIX), variables);
+	}
+
+	/**
+	 * Compiles a postfix expression.
+	 *
+	 * @param expression The postfix expression to compile.
+	 * @param variables  The variable names in slot order; when none are given, slots follow first appearance.
+	 * @return The compiled expression.
+	 * @throws IllegalArgumentException If the expression is not a valid postfix expression or uses an unlisted variable.
+	 */
+	public static CompiledExpression fromPostfix(String expression, String... variables) {
+		return compile(Tokenizer.tokenize(expression, Notation.POSTFIX), variables);
+	}
+
+	/**
+	 * Compiles a prefix expression.
+	 *
+	 * @param expression The prefix expression to compile.
+	 * @param variables  The variable names in slot order; when none are given, slots follow first appearance.
+	 * @return The compiled expression.
+	 * @throws IllegalArgumentException If the expression is not a valid prefix expression or uses an unlisted variable.
+	 */
+	public static CompiledExpression fromPrefix(String expression, String... variables) {
+		return compile(Tokenizer.tokenize(expression, Notation.PREFIX), variables);
+	}
+
+	/**
+	 * Compiles a token stream in any notation.
+	 *
+	 * @param tokens    The token stream to compile.
+	 * @param variables The variable names in slot order; when none are given, slots follow first appearance.
+	 * @return The compiled expression.
+	 * @throws IllegalArgumentException If the expression uses a variable that is not listed, or has more constants,
+	 *                                  variables or instructions than an instruction operand can number.
+	 */
+	public static CompiledExpression compile(TokenStream tokens, String... variables) {
+		int[] order = postfixOrder(tokens);
+		int[] branches = tokens.hasLazyOperators() ? branches(tokens, order) : null;
+		int[] firstInstructions = branches != null ? new int[order.length] : null;
+
+		boolean fixedSlots = variables.length > 0;
+		Map<String, Integer> slots = new LinkedHashMap<>();
+		for (String variable : variables) {
+			slots.putIfAbsent(variable, slots.size());
+		}
+
+		int[] code = new int[branches != null ? order.length * 2 : order.length];
+		double[] constants = new double[order.length];
+		int constantCount = 0;
+		int length = 0;
+		int depth = 0;
+		int maxStack = 0;
+
+		// Emit one instruction per token, tracking the operand stack depth
+		for (int i = 0; i < order.length; i++) {
+			int index = order[i];
+			byte kind = tokens.kind(index);
+			if (firstInstructions != null) {
+				firstInstructions[i] = length;
+			}
+			if (kind == TokenStream.NUMBER) {
+				constants[constantCount] = tokens.value(index);
+				code[length++] = PUSH | (operand(constantCount) << OPERAND_SHIFT);
+				constantCount++;
+				maxStack = Math.max(maxStack, ++depth);
+			} else if (kind == TokenStream.VARIABLE) {
+				String name = tokens.text(index);
+				Integer slot = slots.get(name);
+				if (slot == null) {
+					if (fixedSlots) {
+						throw new IllegalArgumentException("Unknown variable '" + name + "' in expression.");
+					}
+					slot = slots.size();
+					slots.put(name, slot);
+				}
+				code[length++] = LOAD | (operand(slot) << OPERAND_SHIFT);
+				maxStack = Math.max(maxStack, ++depth);
+			} else {
+				// A lazy operator is nothing but the jumps around its operands
+				int operator = tokens.operator(index);
+				if (!OperatorRegistry.isLazy(operator)) {
+					code[length++] = instructionOf(operator);
+					depth -= OperatorRegistry.arity(operator) - 1;
+				}
+			}
+			if (branches != null && branches[i] != 0) {
+				code[length++] = branches[i];
+				depth--;
+			}
+		}
+
+		if (branches != null) {
+			// Jumps were emitted with the position of their target; point them at its first instruction.
+			// There are no more tokens than instructions, so neither kind of target can overflow once the length fits.
+			operand(length);
+			code = Arrays.copyOf(code, length);
+			for (int i = 0; i < length; i++) {
+				int opcode = code[i] & OPCODE_MASK;
+				if (isJump(opcode)) {
+					code[i] = opcode | (firstInstructions[code[i] >>> OPERAND_SHIFT] << OPERAND_SHIFT);
+				}
+			}
+		}
+
+		return new CompiledExpression(code, Arrays.copyOf(constants, constantCount),
+				slots.keySet().toArray(new String[0]), maxStack);
+	}
+
+	/**
+	 * Computes the postfix order of a token stream in any notation.
+	 *
+	 * @param tokens The token stream.
+	 * @return The indices of the operand, operator and function tokens, in postfix order.
+	 */
+	static int[] postfixOrder(TokenStream tokens) {
+		return switch (tokens.notation()) {
+			case INFIX -> InfixToPostfixConverter.postfixOrder(tokens);
+			case POSTFIX -> identityOrder(tokens.size());
+			case PREFIX -> prefixToPostfixOrder(tokens);
+		};
+	}
+
+	/**
+	 * Places the jumps of the lazy operators. {@code a and b} jumps from after {@code a} to its end when {@code a} is
+	 * false, {@code a or b} when it is true, and {@code if(c, a, b)} jumps from after {@code c} to {@code b} when
+	 * {@code c} is false and from after {@code a} to its end.
+	 *
+	 * @param tokens The token stream.
+	 * @param order  The token indices in postfix order.
+	 * @return For each position in the postfix order, the jump to emit after it, carrying the position of its
+	 * target, or 0.
+	 */
+	private static int[] branches(TokenStream tokens, int[] order) {
+		int[] branches = new int[order.length];
+		int[] starts = new int[order.length]; // Where the sub-expression ending at each position begins
+		int[] roots = new int[order.length];  // The last positions of the sub-expressions waiting for an operator
+		int top = -1;
+
+		for (int position = 0; position < order.length; position++) {
+			int index = order[position];
+			if (tokens.isOperand(index)) {
+				starts[position] = position;
+				roots[++top] = position;
+				continue;
+			}
+
+			int operator = tokens.operator(index);
+			top -= OperatorRegistry.arity(operator) - 1; // The operands are now roots[top] onwards
+			switch (operator) {
+				case OperatorRegistry.AND -> branches[roots[top]] = JUMP_IF_FALSE_OR_POP | (position << OPERAND_SHIFT);
+				case OperatorRegistry.OR -> branches[roots[top]] = JUMP_IF_TRUE_OR_POP | (position << OPERAND_SHIFT);
+				case OperatorRegistry.IF -> {
+					branches[roots[top]] = JUMP_IF_FALSE | (starts[roots[top + 2]] << OPERAND_SHIFT);
+					branches[roots[top + 1]] = JUMP | (position << OPERAND_SHIFT);
+				}
+				default -> {
+				}
+			}
+			starts[position] = starts[roots[top]];
+			roots[top] = position;
+		}
+
+		return branches;
+	}
+
+	/**
+	 * Evaluates a token stream in any notation that has no variables, as the text evaluators do when it uses
+	 * lazy operators.
+	 *
+	 * @param tokens The token stream.
+	 * @return The result of the evaluation.
+	 * @throws IllegalArgumentException If the expression has a variable.
+	 * @throws ArithmeticException      If division by zero is attempted.
+	 */
+	static double evaluateConstant(TokenStream tokens) {
+		CompiledExpression expression = compile(tokens);
+		if (expression.variables.length != 0) {
+			throw new UnboundVariableException(expression.variables[0]);
+		}
+		return expression.interpret(NO_VALUES);
+	}
+
+	/**
+	 * Evaluates the compiled program of an expression without variables.
+	 *
+	 * @return The result of the evaluation as a double.
+	 * @throws IllegalArgumentException If the expression has variables.
+	 * @throws ArithmeticException      If division by zero is attempted.
+	 */
+	public double evaluate() {
+		if (variables.length != 0) {
+			throw new IllegalArgumentException("Expression has variables " + Arrays.toString(variables) + "; bind them with evaluate(double[]).");
+		}
+		return run(NO_VALUES);
+	}
+
+	/**
+	 * Evaluates the compiled program with the given variable values.
+	 *
+	 * @param values The variable values, indexed by slot.
+	 * @return The result of the evaluation as a double.
+	 * @throws IllegalArgumentException If fewer values than variables are given.
+	 * @throws ArithmeticException      If division by zero is attempted.
+	 */
+	public double evaluate(double[] values) {
+		if (values.length < variables.length) {
+			throw new IllegalArgumentException("Expected " + variables.length + " variable values but got " + values.length + ".");
+		}
+		return run(values);
+	}
+
+	/**
+	 * Evaluates the compiled program once per row of columnar input, one operator at a time
+	 * across blocks of rows (see {@link ColumnarEvaluator}). Column i holds the values of the variable
+	 * in slot i, one per row.
+	 *
+	 * @param columns The variable columns, indexed by slot.
+	 * @param results The array receiving one result per row; its length sets the number of rows.
+	 * @throws IllegalArgumentException If a column is missing or shorter than the number of rows.
+	 * @throws ArithmeticException      If division by zero is attempted.
+	 */
+	public void evaluateColumns(double[][] columns, double[] results) {
+		if (columnar == null) {
+			columnar = new ColumnarEvaluator(this);
+		}
+		columnar.evaluate(columns, results);
+	}
+
+	/**
+	 * Evaluates the program with the generated bytecode once it exists, and with the interpreter until then.
+	 *
+	 * @param values The variable values, indexed by slot.
+	 * @return The result of the evaluation.
+	 */
+	private double run(double[] values) {
+		ExpressionFunction function = this.function;
+		if (function != null) {
+			return function.evaluate(values);
+		}
+		if (!interpretOnly && ++invocations >= JIT_THRESHOLD) {
+			compileToBytecode();
+		}
+		return interpret(values);
+	}
+
+	/**
+	 * Generates the bytecode tier for this program. Programs too large for one method stay interpreted.
+	 */
+	private void compileToBytecode() {
+		function = BytecodeGenerator.generate(this);
+		interpretOnly = function == null;
+	}
+
+	/**
+	 * Runs the program over the operand stack.
+	 *
+	 * @param values The variable values, indexed by slot.
+	 * @return The result of the evaluation.
+	 */
+	double interpret(double[] values) {
+		double[] stack = this.stack;
+		double[] constants = this.constants;
+		int[] code = this.code;
+		int top = -1;
+
+		for (int pc = 0; pc < code.length; pc++) {
+			int instruction = code[pc];
+			switch (instruction & OPCODE_MASK) {
+				case PUSH -> stack[++top] = constants[instruction >>> OPERAND_SHIFT];
+				case LOAD -> stack[++top] = values[instruction >>> OPERAND_SHIFT];
+				case DUPLICATE -> {
+					stack[top + 1] = stack[top];
+					top++;
+				}
+				case ADD -> {
+					top--;
+					stack[top] = stack[top] + stack[top + 1];
+				}
+				case SUBTRACT -> {
+					top--;
+					stack[top] = stack[top] - stack[top + 1];
+				}
+				case MULTIPLY -> {
+					top--;
+					stack[top] = stack[top] * stack[top + 1];
+				}
+				case DIVIDE -> {
+					top--;
+					stack[top] = ExpressionUtils.divide(stack[top], stack[top + 1]);
+				}
+				case POWER -> {
+					top--;
+					stack[top] = Math.pow(stack[top], stack[top + 1]);
+				}
+				case CALL1 -> stack[top] = OperatorRegistry.apply(instruction >>> OPERAND_SHIFT, stack[top]);
+				case CALL2 -> {
+					top--;
+					stack[top] = OperatorRegistry.apply(instruction >>> OPERAND_SHIFT, stack[top], stack[top + 1]);
+				}
+				// The loop increment moves on to the target
+				case JUMP -> pc = (instruction >>> OPERAND_SHIFT) - 1;
+				case JUMP_IF_FALSE -> {
+					if (stack[top--] == 0) {
+						pc = (instruction >>> OPERAND_SHIFT) - 1;
+					}
+				}
+				case JUMP_IF_FALSE_OR_POP -> {
+					if (stack[top] == 0) {
+						pc = (instruction >>> OPERAND_SHIFT) - 1;
+					} else {
+						top--;
+					}
+				}
+				case JUMP_IF_TRUE_OR_POP -> {
+					if (stack[top] != 0) {
+						pc = (instruction >>> OPERAND_SHIFT) - 1;
+					} else {
+						top--;
+					}
+				}
+				default -> throw new IllegalStateException("Unknown opcode: " + (instruction & OPCODE_MASK));
+			}
+		}
+
+		return stack[0];
+	}
+
+	/**
+	 * @return The variable names, indexed by slot.
+	 */
+	public String[] variables() {
+		return variables.clone();
+	}
+
+	/**
+	 * Looks up the slot of a variable.
+	 *
+	 * @param name The variable name.
+	 * @return The slot of the variable, or -1 if the expression has no such variable.
+	 */
+	public int slotOf(String name) {
+		for (int slot = 0; slot < variables.length; slot++) {
+			if (variables[slot].equals(name)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Creates an instance that shares this program but has its own operand stack,
+	 * so it can be evaluated on another thread.
+	 *
+	 * @return A new instance evaluating the same program.
+	 */
+	public CompiledExpression copy() {
+		return new CompiledExpression(code, constants, variables, stack.length);
+	}
+
+	/**
+	 * @return The maximum operand stack depth the program reaches.
+	 */
+	int maxStack() {
+		return stack.length;
+	}
+
+	/**
+	 * Checks that an operand fits in the bits of an instruction above its opcode.
+	 *
+	 * @param operand The constant pool index, slot or jump target.
+	 * @return The operand.
+	 * @throws IllegalArgumentException If the operand is too large.
+	 */
+	private static int operand(int operand) {
+		if (operand > MAX_OPERAND) {
+			throw new IllegalArgumentException("Expression is too long to compile: an instruction operand can be at most "
+					+ MAX_OPERAND + ".");
+		}
+		return operand;
+	}
+
+	/**
+	 * Computes the maximum operand stack depth a program reaches. A jump counts as removing the value it carries
+	 * to its target, where the value arrives at the same depth as the value of the path it skipped.
+	 *
+	 * @param code The program.
+	 * @return The maximum stack depth.
+	 */
+	static int maxStack(int[] code) {
+		int depth = 0;
+		int max = 0;
+		for (int instruction : code) {
+			int opcode = instruction & OPCODE_MASK;
+			if (opcode == PUSH || opcode == LOAD || opcode == DUPLICATE) {
+				max = Math.max(max, ++depth);
+			} else if (opcode != CALL1) {
+				depth--;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Checks whether an opcode transfers control.
+	 *
+	 * @param opcode An opcode.
+	 * @return True if the opcode is one of the jumps, otherwise false.
+	 */
+	static boolean isJump(int opcode) {
+		return opcode >= JUMP && opcode <= JUMP_IF_TRUE_OR_POP;
+	}
+
+	/**
+	 * Checks whether a program branches, which the consumers that evaluate every instruction must reject.
+	 *
+	 * @param code A program.
+	 * @return True if the program has a jump, otherwise false.
+	 */
+	static boolean hasJumps(int[] code) {
+		for (int instruction : code) {
+			if (isJump(instruction & OPCODE_MASK)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Maps an operator or function of the {@link OperatorRegistry} to its instruction. The built-in arithmetic
+	 * operators share their ids with their opcodes; every other entry becomes a call carrying its id.
+	 *
+	 * @param id The registry id.
+	 * @return The instruction.
+	 */
+	static int instructionOf(int id) {
+		if (id <= POWER) {
+			return id;
+		}
+		return (OperatorRegistry.arity(id) == 1 ? CALL1 : CALL2) | (id << OPERAND_SHIFT);
+	}
+
+	/**
+	 * Runs a CALL1 or CALL2 instruction on its operands.
+	 *
+	 * @param instruction The call instruction.
+	 * @param first       The first operand.
+	 * @param second      The second operand; ignored by CALL1.
+	 * @return The result.
+	 * @throws IllegalStateException If the instruction is not a call.
+	 */
+	static double call(int instruction, double first, double second) {
+		int id = instruction >>> OPERAND_SHIFT;
+		return switch (instruction & OPCODE_MASK) {
+			case CALL1 -> OperatorRegistry.apply(id, first);
+			case CALL2 -> OperatorRegistry.apply(id, first, second);
+			default -> throw new IllegalStateException("Unknown opcode: " + (instruction & OPCODE_MASK));
+		};
+	}
+
+	/**
+	 * Returns the token order of an expression that is already in postfix notation.
+	 *
+	 * @param size The number of tokens.
+	 * @return The indices 0 to size - 1.
+	 */
+	private static int[] identityOrder(int size) {
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		return order;
+	}
+
+	/**
+	 * Computes the postfix order of a prefix token stream in a single forward pass.
+	 * Operators and functions wait on a stack until all of their operands have been emitted.
+	 *
+	 * @param tokens The prefix token stream.
+	 * @return The token indices in postfix order.
+	 */
+	private static int[] prefixToPostfixOrder(TokenStream tokens) {
+		int size = tokens.size();
+		int[] order = new int[size];
+		int[] pending = new int[size];   // Operator and function token indices waiting for operands
+		int[] remaining = new int[size]; // Operands each pending operator still needs
+		int top = -1;
+		int length = 0;
+
+		for (int i = 0; i < size; i++) {
+			if (!tokens.isOperand(i)) {
+				pending[++top] = i;
+				remaining[top] = OperatorRegistry.arity(tokens.operator(i));
+				continue;
+			}
+
+			// An operand completes the innermost pending operators
+			order[length++] = i;
+			while (top >= 0 && --remaining[top] == 0) {
+				order[length++] = pending[top--];
+			}
+		}
+
+		return order;
+	}
+}
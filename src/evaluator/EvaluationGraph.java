@@ -0,0 +1,359 @@
+package evaluator;
+
+import utils.ExpressionUtils;
+import utils.IntStack;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A dependency-tracking evaluation graph over the nodes of an {@link ExpressionDag} that caches the value
+ * of every node. Updating an input only marks the nodes that depend on it as dirty, and reading a formula
+ * only recomputes its dirty nodes, so the cost of an update follows the size of the affected path rather
+ * than the size of the expressions.
+ *
+ * <p>Updates are lock-free and may come from several threads: an update stores the input and marks its
+ * dependents dirty with compare-and-set, stopping at nodes that are already dirty. A node can be dirty because
+ * another update is still marking the nodes above it, so a read trusts the dirty flags only when no update is
+ * in progress; otherwise it recomputes every node the formula depends on. Reads take a lock, so a read always
+ * sees every update that completed before it.</p>
+ */
+public final class EvaluationGraph {
+
+	private final String[] variableNames;
+
+	// Nodes, indexed locally; operands are local indices
+	private final int[] kinds;
+	private final int[] lefts;
+	private final int[] rights;
+	private final double[] values;
+
+	// Dependents of each node, stored as ranges of one array
+	private final int[] dependentStarts;
+	private final int[] dependents;
+
+	private final int[] rootNodes;
+	private final int[] variableNodes;
+
+	private final AtomicIntegerArray dirty;
+	private final AtomicLongArray inputs;
+	private long recomputed;
+
+	// Scratch space for reads that overlap an update, guarded by the read lock: the nodes below a root in
+	// post-order, and the read that last visited each node
+	private final int[] subtree;
+	private final int[] visits;
+	private int visit;
+
+	// Updates that have started and finished marking; a read that sees them differ cannot trust the dirty flags
+	private final AtomicLong updatesStarted = new AtomicLong();
+	private final AtomicLong updatesFinished = new AtomicLong();
+
+	/**
+	 * Creates a graph for the given formulas. Every input starts at 0.
+	 *
+	 * @param dag   The DAG holding the formulas.
+	 * @param roots The root node ids of the formulas.
+	 */
+	public EvaluationGraph(ExpressionDag dag, int... roots) {
+		this.variableNames = dag.variables();
+
+		// Collect the nodes reachable from the roots, operands before the nodes using them
+		int[] localOf = new int[dag.size()];
+		Arrays.fill(localOf, -1);
+		int[] order = new int[dag.size()];
+		int count = 0;
+		IntStack stack = new IntStack(16);
+		for (int root : roots) {
+			stack.push(root);
+			while (!stack.isEmpty()) {
+				int node = stack.peek();
+				if (localOf[node] >= 0) {
+					stack.pop();
+					continue;
+				}
+				if (dag.kind(node) >= 0) {
+					if (localOf[dag.left(node)] < 0) {
+						stack.push(dag.left(node));
+						continue;
+					}
+					if (localOf[dag.right(node)] < 0) {
+						stack.push(dag.right(node));
+						continue;
+					}
+				}
+				stack.pop();
+				localOf[node] = count;
+				order[count++] = node;
+			}
+		}
+
+		this.kinds = new int[count];
+		this.lefts = new int[count];
+		this.rights = new int[count];
+		this.values = new double[count];
+		this.variableNodes = new int[variableNames.length];
+		Arrays.fill(variableNodes, -1);
+
+		int[] dependentCounts = new int[count + 1];
+		for (int local = 0; local < count; local++) {
+			int node = order[local];
+			int kind = dag.kind(node);
+			kinds[local] = kind;
+			if (kind == ExpressionDag.CONSTANT) {
+				values[local] = dag.value(node);
+			} else if (kind == ExpressionDag.VARIABLE) {
+				lefts[local] = dag.left(node);
+				variableNodes[dag.left(node)] = local;
+			} else {
+				lefts[local] = localOf[dag.left(node)];
+				rights[local] = localOf[dag.right(node)];
+				dependentCounts[lefts[local]]++;
+				if (rights[local] != lefts[local]) {
+					dependentCounts[rights[local]]++;
+				}
+			}
+		}
+
+		// Build the dependent ranges from the counts
+		this.dependentStarts = new int[count + 1];
+		for (int local = 0; local < count; local++) {
+			dependentStarts[local + 1] = dependentStarts[local] + dependentCounts[local];
+		}
+		this.dependents = new int[dependentStarts[count]];
+		int[] next = Arrays.copyOf(dependentStarts, count);
+		for (int local = 0; local < count; local++) {
+			if (kinds[local] >= 0) {
+				dependents[next[lefts[local]]++] = local;
+				if (rights[local] != lefts[local]) {
+					dependents[next[rights[local]]++] = local;
+				}
+			}
+		}
+
+		this.rootNodes = new int[roots.length];
+		for (int i = 0; i < roots.length; i++) {
+			rootNodes[i] = localOf[roots[i]];
+		}
+
+		// Everything starts dirty so the first read computes it
+		this.dirty = new AtomicIntegerArray(count);
+		for (int local = 0; local < count; local++) {
+			dirty.set(local, 1);
+		}
+		this.inputs = new AtomicLongArray(variableNames.length);
+		this.subtree = new int[count];
+		this.visits = new int[count];
+	}
+
+	/**
+	 * Creates a graph for infix formulas sharing one DAG.
+	 *
+	 * @param formulas The infix formulas.
+	 * @return The graph; formula i is read with {@link #get(int)}.
+	 * @throws IllegalArgumentException If a formula is not a valid infix expression, or uses and, or or if.
+	 */
+	public static EvaluationGraph of(String... formulas) {
+		ExpressionDag dag = new ExpressionDag();
+		int[] roots = new int[formulas.length];
+		for (int i = 0; i < formulas.length; i++) {
+			roots[i] = dag.addInfix(formulas[i]);
+		}
+		return new EvaluationGraph(dag, roots);
+	}
+
+	/**
+	 * Updates an input by name.
+	 *
+	 * @param name  The variable name.
+	 * @param value The new value.
+	 * @throws IllegalArgumentException If no formula uses the variable.
+	 */
+	public void set(String name, double value) {
+		for (int variable = 0; variable < variableNames.length; variable++) {
+			if (variableNames[variable].equals(name)) {
+				set(variable, value);
+				return;
+			}
+		}
+		throw new IllegalArgumentException("Unknown variable '" + name + "'.");
+	}
+
+	/**
+	 * Updates an input and marks every node depending on it as dirty. This method does not block.
+	 *
+	 * @param variable The index of the variable, in the order of the DAG's variables.
+	 * @param value    The new value.
+	 */
+	public void set(int variable, double value) {
+		int node = variableNodes[variable];
+		if (node < 0) {
+			inputs.set(variable, Double.doubleToRawLongBits(value));
+			return;
+		}
+		updatesStarted.incrementAndGet();
+		try {
+			inputs.set(variable, Double.doubleToRawLongBits(value));
+			markDependents(node);
+		} finally {
+			updatesFinished.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Marks a variable node and every node depending on it as dirty. Nodes above a dirty node are dirty too,
+	 * or will be once the update that marked it finishes, so marking stops wherever it meets one.
+	 *
+	 * @param node The local index of the variable node.
+	 */
+	private void markDependents(int node) {
+		dirty.set(node, 1);
+		IntStack pending = new IntStack(16);
+		pending.push(node);
+		while (!pending.isEmpty()) {
+			int current = pending.pop();
+			for (int i = dependentStarts[current]; i < dependentStarts[current + 1]; i++) {
+				int dependent = dependents[i];
+				if (dirty.compareAndSet(dependent, 0, 1)) {
+					pending.push(dependent);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the value of a formula, recomputing only the nodes that changed since the last read.
+	 *
+	 * @param formula The index of the formula, in the order its root was given.
+	 * @return The value of the formula.
+	 * @throws ArithmeticException If division by zero is attempted.
+	 */
+	public synchronized double get(int formula) {
+		int root = rootNodes[formula];
+
+		// Finished is read first: if the counts match, every update that started before this read has finished
+		long finished = updatesFinished.get();
+		if (updatesStarted.get() != finished) {
+			recomputeSubtree(root);
+			return values[root];
+		}
+		if (dirty.get(root) == 0) {
+			return values[root];
+		}
+
+		// Post-order walk over dirty nodes; a negative entry means "compute this node now"
+		IntStack stack = new IntStack(16);
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			int entry = stack.pop();
+			if (entry < 0) {
+				compute(~entry);
+				continue;
+			}
+			// Clear the flag before reading operands, so an update racing with this read marks the node again
+			if (dirty.getAndSet(entry, 0) == 0) {
+				continue;
+			}
+			stack.push(~entry);
+			if (kinds[entry] >= 0) {
+				if (dirty.get(lefts[entry]) != 0) {
+					stack.push(lefts[entry]);
+				}
+				if (dirty.get(rights[entry]) != 0) {
+					stack.push(rights[entry]);
+				}
+			}
+		}
+		return values[root];
+	}
+
+	/**
+	 * Recomputes a node and every node below it without consulting the dirty flags, for reads that overlap
+	 * an update. The nodes are collected with the same post-order walk as an incremental read, so the cost follows
+	 * the size of the formula rather than the size of the graph.
+	 *
+	 * @param root The local index of the node.
+	 */
+	private void recomputeSubtree(int root) {
+		if (++visit == 0) {
+			Arrays.fill(visits, 0);
+			visit = 1;
+		}
+
+		// Post-order walk over every node below the root; a negative entry means "the operands are done"
+		int count = 0;
+		IntStack stack = new IntStack(16);
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			int entry = stack.pop();
+			if (entry < 0) {
+				subtree[count++] = ~entry;
+				continue;
+			}
+			if (visits[entry] == visit) {
+				continue;
+			}
+			visits[entry] = visit;
+			stack.push(~entry);
+			if (kinds[entry] >= 0) {
+				stack.push(lefts[entry]);
+				stack.push(rights[entry]);
+			}
+		}
+
+		// As in the incremental walk, flags are cleared above before below and all before any value is read,
+		// so an update racing with this read either is seen or finds a clean node and marks it again.
+		// Reverse post-order puts every node before its operands.
+		for (int i = count - 1; i >= 0; i--) {
+			dirty.set(subtree[i], 0);
+		}
+		for (int i = 0; i < count; i++) {
+			compute(subtree[i]);
+		}
+	}
+
+	/**
+	 * Computes one node from the cached values of its operands.
+	 *
+	 * @param node The local node index.
+	 */
+	private void compute(int node) {
+		recomputed++;
+		int kind = kinds[node];
+		if (kind == ExpressionDag.CONSTANT) {
+			return;
+		}
+		values[node] = switch (kind) {
+			case ExpressionDag.VARIABLE -> Double.longBitsToDouble(inputs.get(lefts[node]));
+			case CompiledExpression.ADD -> values[lefts[node]] + values[rights[node]];
+			case CompiledExpression.SUBTRACT -> values[lefts[node]] - values[rights[node]];
+			case CompiledExpression.MULTIPLY -> values[lefts[node]] * values[rights[node]];
+			case CompiledExpression.DIVIDE -> ExpressionUtils.divide(values[lefts[node]], values[rights[node]]);
+			case CompiledExpression.POWER -> Math.pow(values[lefts[node]], values[rights[node]]);
+			default -> CompiledExpression.call(kind, values[lefts[node]], values[rights[node]]);
+		};
+	}
+
+	/**
+	 * @return The names of the inputs, in the order used by {@link #set(int, double)}.
+	 */
+	public String[] variables() {
+		return variableNames.clone();
+	}
+
+	/**
+	 * @return The number of nodes in the graph.
+	 */
+	public int size() {
+		return kinds.length;
+	}
+
+	/**
+	 * @return The total number of node computations performed so far.
+	 */
+	public synchronized long recomputed() {
+		return recomputed;
+	}
+}
@@ -0,0 +1,570 @@
+package evaluator;
+
+import converter.InfixToPostfixConverter;
+import utils.DivisionByZeroException;
+import utils.Notation;
+import utils.OperatorRegistry;
+import utils.TokenStream;
+import utils.Tokenizer;
+import utils.UnboundVariableException;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/**
+ * A utility class for evaluating expressions exactly instead of in {@code double}.
+ * Every intermediate value is kept as a {@code long} while it is an integer that fits, so integer-only
+ * expressions run on primitive arithmetic. An operation that overflows or produces a fraction switches
+ * that value to {@link BigDecimal}, rounded with the given {@link MathContext}, and results that become
+ * integers again switch back.
+ *
+ * <p>Three cases are not exact: a power with a fractional exponent and a custom function registered with
+ * the {@link OperatorRegistry} are computed in {@code double} and then rounded, and a quotient or square root
+ * that does not terminate is rounded to the context's precision (with {@link MathContext#UNLIMITED} it throws
+ * an {@link ArithmeticException} instead).</p>
+ */
+public class ExactEvaluation {
+
+	// Integer literals with at most this many digits always fit in a long
+	private static final int MAX_LONG_DIGITS = 18;
+
+	// Largest exponent BigDecimal.pow accepts
+	private static final long MAX_EXPONENT = 999_999_999;
+
+	/**
+	 * Evaluates an infix expression exactly.
+	 *
+	 * @param expression The infix expression to evaluate.
+	 * @param context    The precision and rounding used once a value leaves the long fast path.
+	 * @return The result of the evaluation.
+	 * @throws IllegalArgumentException If the expression is null, empty, or invalid.
+	 * @throws ArithmeticException      If division by zero is attempted.
+	 */
+	public static BigDecimal evaluateInfix(String expression, MathContext context) {
+		return evaluate(Tokenizer.tokenize(expression, Notation.INFIX), context);
+	}
+
+	/**
+	 * Evaluates a postfix expression exactly.
+	 *
+	 * @param expression The postfix expression to evaluate.
+	 * @param context    The precision and rounding used once a value leaves the long fast path.
+	 * @return The result of the evaluation.
+	 * @throws IllegalArgumentException If the expression is null, empty, or invalid.
+	 * @throws ArithmeticException      If division by zero is attempted.
+	 */
+	public static BigDecimal evaluatePostfix(String expression, MathContext context) {
+		return evaluate(Tokenizer.tokenize(expression, Notation.POSTFIX), context);
+	}
+
+	/**
+	 * Evaluates a prefix expression exactly.
+	 *
+	 * @param expression The prefix expression to evaluate.
+	 * @param context    The precision and rounding used once a value leaves the long fast path.
+	 * @return The result of the evaluation.
+	 * @throws IllegalArgumentException If the expression is null, empty, or invalid.
+	 * @throws ArithmeticException      If division by zero is attempted.
+	 */
+	public static BigDecimal evaluatePrefix(String expression, MathContext context) {
+		return evaluate(Tokenizer.tokenize(expression, Notation.PREFIX), context);
+	}
+
+	/**
+	 * Evaluates a token stream exactly, in whatever notation it was tokenized.
+	 *
+	 * @param tokens  The token stream to evaluate.
+	 * @param context The precision and rounding used once a value leaves the long fast path.
+	 * @return The result of the evaluation.
+	 * @throws IllegalArgumentException If the expression contains variables.
+	 * @throws ArithmeticException      If division by zero is attempted.
+	 */
+	public static BigDecimal evaluate(TokenStream tokens, MathContext context) {
+		ExactStack stack = new ExactStack(16);
+
+		if (tokens.hasLazyOperators()) {
+			// Jumps skip the operands that and, or and if do not need
+			run(tokens, stack, context);
+		} else {
+			switch (tokens.notation()) {
+				case INFIX -> {
+					for (int index : InfixToPostfixConverter.postfixOrder(tokens)) {
+						postfixStep(tokens, index, stack, context);
+					}
+				}
+				case POSTFIX -> {
+					for (int index = 0; index < tokens.size(); index++) {
+						postfixStep(tokens, index, stack, context);
+					}
+				}
+				case PREFIX -> {
+					// Operands are read from the right, so the first operand is on top of the stack
+					for (int index = tokens.size() - 1; index >= 0; index--) {
+						if (tokens.isOperand(index)) {
+							pushLiteral(tokens, index, stack);
+						} else {
+							int operator = tokens.operator(index);
+							if (OperatorRegistry.arity(operator) == 2) {
+								stack.swap();
+							}
+							stack.apply(operator, context);
+						}
+					}
+				}
+			}
+		}
+
+		return stack.popDecimal();
+	}
+
+	/**
+	 * Runs the compiled program of an expression, whose jumps skip the operands the lazy operators do not need.
+	 * Each constant is pushed from the number literal it was compiled from, so it keeps its exact value.
+	 *
+	 * @param tokens  The token stream.
+	 * @param stack   The operand stack.
+	 * @param context The precision and rounding for decimal values.
+	 * @throws IllegalArgumentException If the expression contains variables.
+	 */
+	private static void run(TokenStream tokens, ExactStack stack, MathContext context) {
+		CompiledExpression expression = CompiledExpression.compile(tokens);
+		if (expression.variables.length != 0) {
+			throw new UnboundVariableException(expression.variables[0]);
+		}
+
+		// Constants are numbered in the postfix order of the literals
+		int[] literals = new int[expression.constants.length];
+		int count = 0;
+		for (int index : CompiledExpression.postfixOrder(tokens)) {
+			if (tokens.kind(index) == TokenStream.NUMBER) {
+				literals[count++] = index;
+			}
+		}
+
+		int[] code = expression.code;
+		for (int pc = 0; pc < code.length; pc++) {
+			int opcode = code[pc] & CompiledExpression.OPCODE_MASK;
+			int operand = code[pc] >>> CompiledExpression.OPERAND_SHIFT;
+			switch (opcode) {
+				case CompiledExpression.PUSH -> pushLiteral(tokens, literals[operand], stack);
+				case CompiledExpression.ADD, CompiledExpression.SUBTRACT, CompiledExpression.MULTIPLY,
+						CompiledExpression.DIVIDE, CompiledExpression.POWER -> stack.apply(opcode, context);
+				case CompiledExpression.CALL1, CompiledExpression.CALL2 -> stack.apply(operand, context);
+				// The loop increment moves on to the target
+				case CompiledExpression.JUMP -> pc = operand - 1;
+				case CompiledExpression.JUMP_IF_FALSE -> {
+					boolean zero = stack.isTopZero();
+					stack.drop();
+					if (zero) {
+						pc = operand - 1;
+					}
+				}
+				case CompiledExpression.JUMP_IF_FALSE_OR_POP, CompiledExpression.JUMP_IF_TRUE_OR_POP -> {
+					if (stack.isTopZero() == (opcode == CompiledExpression.JUMP_IF_FALSE_OR_POP)) {
+						pc = operand - 1;
+					} else {
+						stack.drop();
+					}
+				}
+				default -> throw new IllegalStateException("Unknown opcode: " + opcode);
+			}
+		}
+	}
+
+	/**
+	 * Processes one token in postfix order.
+	 *
+	 * @param tokens  The token stream.
+	 * @param index   The index of the token.
+	 * @param stack   The operand stack.
+	 * @param context The precision and rounding for decimal values.
+	 */
+	private static void postfixStep(TokenStream tokens, int index, ExactStack stack, MathContext context) {
+		if (tokens.isOperand(index)) {
+			pushLiteral(tokens, index, stack);
+		} else {
+			stack.apply(tokens.operator(index), context);
+		}
+	}
+
+	/**
+	 * Pushes a number literal, reading its exact value from the source text rather than its double value.
+	 *
+	 * @param tokens The token stream.
+	 * @param index  The index of the operand token.
+	 * @param stack  The operand stack.
+	 * @throws IllegalArgumentException If the operand is a variable.
+	 */
+	private static void pushLiteral(TokenStream tokens, int index, ExactStack stack) {
+		if (tokens.kind(index) == TokenStream.VARIABLE) {
+			throw new UnboundVariableException(tokens.text(index));
+		}
+
+		String source = tokens.source();
+		int start = tokens.start(index);
+		int end = tokens.end(index);
+		boolean negative = source.charAt(start) == '-';
+		int digitsStart = negative ? start + 1 : start;
+
+		// Short integer literals are parsed straight into a long
+		if (end - digitsStart <= MAX_LONG_DIGITS) {
+			long value = 0;
+			int i = digitsStart;
+			while (i < end && source.charAt(i) != '.') {
+				value = value * 10 + (source.charAt(i) - '0');
+				i++;
+			}
+			if (i == end) {
+				stack.push(negative ? -value : value);
+				return;
+			}
+		}
+		stack.push(new BigDecimal(tokens.text(index)));
+	}
+
+	/**
+	 * A stack of exact values. Each slot holds a long, or a BigDecimal when the value left the long range
+	 * or is not an integer; the BigDecimal slot is null for long values.
+	 */
+	private static final class ExactStack {
+
+		private long[] longs;
+		private BigDecimal[] decimals;
+		private int size;
+
+		/**
+		 * Creates an empty stack.
+		 *
+		 * @param capacity The initial capacity.
+		 */
+		ExactStack(int capacity) {
+			this.longs = new long[capacity];
+			this.decimals = new BigDecimal[capacity];
+		}
+
+		/**
+		 * Pushes an integer value.
+		 *
+		 * @param value The value.
+		 */
+		void push(long value) {
+			grow();
+			longs[size] = value;
+			decimals[size++] = null;
+		}
+
+		/**
+		 * Pushes a decimal value, switching back to a long when it is an integer that fits.
+		 *
+		 * @param value The value.
+		 */
+		void push(BigDecimal value) {
+			BigDecimal stripped = value.signum() == 0 ? BigDecimal.ZERO : value.stripTrailingZeros();
+			if (stripped.scale() <= 0 && stripped.precision() - stripped.scale() <= MAX_LONG_DIGITS) {
+				push(stripped.longValue());
+				return;
+			}
+			grow();
+			decimals[size++] = value;
+		}
+
+		/**
+		 * Pops the top value as a BigDecimal.
+		 *
+		 * @return The value.
+		 */
+		BigDecimal popDecimal() {
+			size--;
+			BigDecimal decimal = decimals[size];
+			decimals[size] = null;
+			return decimal != null ? decimal : BigDecimal.valueOf(longs[size]);
+		}
+
+		/**
+		 * Checks whether the top value is zero, which the lazy operators read as false.
+		 *
+		 * @return True if the top value is zero, otherwise false.
+		 */
+		boolean isTopZero() {
+			BigDecimal decimal = decimals[size - 1];
+			return decimal != null ? decimal.signum() == 0 : longs[size - 1] == 0;
+		}
+
+		/**
+		 * Removes the top value.
+		 */
+		void drop() {
+			decimals[--size] = null;
+		}
+
+		/**
+		 * Swaps the two top values.
+		 */
+		void swap() {
+			int top = size - 1;
+			long value = longs[top];
+			longs[top] = longs[top - 1];
+			longs[top - 1] = value;
+			BigDecimal decimal = decimals[top];
+			decimals[top] = decimals[top - 1];
+			decimals[top - 1] = decimal;
+		}
+
+		/**
+		 * Replaces the top values with the result of an operator or function. The first operand is below the second.
+		 *
+		 * @param operator The registry id of the operator or function to apply.
+		 * @param context  The precision and rounding for decimal values.
+		 * @throws ArithmeticException If division by zero is attempted or a result is not a finite number.
+		 */
+		void apply(int operator, MathContext context) {
+			if (OperatorRegistry.arity(operator) == 1) {
+				int top = size - 1;
+				if (decimals[top] == null && applyLong(operator, longs[top])) {
+					return;
+				}
+				push(applyDecimal(operator, popDecimal(), context));
+				return;
+			}
+			int second = size - 1;
+			int first = size - 2;
+			if (decimals[first] == null && decimals[second] == null && applyLong(operator, longs[first], longs[second])) {
+				return;
+			}
+			BigDecimal right = popDecimal();
+			BigDecimal left = popDecimal();
+			push(applyDecimal(operator, left, right, context));
+		}
+
+		/**
+		 * Tries to apply a one-argument function in long arithmetic, replacing the top value on success.
+		 *
+		 * @param operator The registry id of the function.
+		 * @param operand  The argument.
+		 * @return True if the result is an integer that fits in a long, otherwise false.
+		 */
+		private boolean applyLong(int operator, long operand) {
+			if (operator != OperatorRegistry.NEGATE || operand == Long.MIN_VALUE) {
+				return false;
+			}
+			longs[size - 1] = -operand;
+			return true;
+		}
+
+		/**
+		 * Tries to apply an operator or two-argument function in long arithmetic, replacing the two top values on success.
+		 *
+		 * @param operator The registry id of the operator or function.
+		 * @param first    The first operand.
+		 * @param second   The second operand.
+		 * @return True if the result is an integer that fits in a long, otherwise false.
+		 * @throws ArithmeticException If division by zero is attempted.
+		 */
+		private boolean applyLong(int operator, long first, long second) {
+			long result;
+			try {
+				switch (operator) {
+					case OperatorRegistry.ADD -> result = Math.addExact(first, second);
+					case OperatorRegistry.SUBTRACT -> result = Math.subtractExact(first, second);
+					case OperatorRegistry.MULTIPLY -> result = Math.multiplyExact(first, second);
+					case OperatorRegistry.DIVIDE -> {
+						if (second == 0) {
+							throw new DivisionByZeroException();
+						}
+						if (first % second != 0 || (first == Long.MIN_VALUE && second == -1)) {
+							return false;
+						}
+						result = first / second;
+					}
+					case OperatorRegistry.POWER -> {
+						if (second < 0 || second > Integer.MAX_VALUE) {
+							return false;
+						}
+						result = power(first, (int) second);
+					}
+					case OperatorRegistry.MODULO -> {
+						if (second == 0) {
+							throw new DivisionByZeroException();
+						}
+						result = first % second;
+					}
+					case OperatorRegistry.MIN -> result = Math.min(first, second);
+					case OperatorRegistry.MAX -> result = Math.max(first, second);
+					case OperatorRegistry.LESS, OperatorRegistry.LESS_EQUAL, OperatorRegistry.GREATER,
+							OperatorRegistry.GREATER_EQUAL, OperatorRegistry.EQUAL, OperatorRegistry.NOT_EQUAL ->
+							result = compare(operator, Long.compare(first, second));
+					default -> {
+						return false; // Custom entries are computed in double
+					}
+				}
+			} catch (ArithmeticException overflow) {
+				if (operator == OperatorRegistry.DIVIDE || operator == OperatorRegistry.MODULO) {
+					throw overflow;
+				}
+				return false;
+			}
+			size--;
+			longs[size - 1] = result;
+			return true;
+		}
+
+		/**
+		 * Applies a one-argument function in decimal arithmetic.
+		 *
+		 * @param operator The registry id of the function.
+		 * @param operand  The argument.
+		 * @param context  The precision and rounding.
+		 * @return The result.
+		 * @throws ArithmeticException If the result is not a finite number.
+		 */
+		private static BigDecimal applyDecimal(int operator, BigDecimal operand, MathContext context) {
+			return switch (operator) {
+				case OperatorRegistry.NEGATE -> operand.negate(context);
+				case OperatorRegistry.SQRT -> {
+					if (operand.signum() < 0) {
+						throw new ArithmeticException("Result of sqrt(" + operand + ") is not a finite number.");
+					}
+					yield operand.sqrt(context);
+				}
+				default -> round(OperatorRegistry.apply(operator, operand.doubleValue()), operator, context);
+			};
+		}
+
+		/**
+		 * Applies an operator or two-argument function in decimal arithmetic.
+		 *
+		 * @param operator The registry id of the operator or function.
+		 * @param first    The first operand.
+		 * @param second   The second operand.
+		 * @param context  The precision and rounding.
+		 * @return The result.
+		 * @throws ArithmeticException If division by zero is attempted or a result is not finite.
+		 */
+		private static BigDecimal applyDecimal(int operator, BigDecimal first, BigDecimal second, MathContext context) {
+			return switch (operator) {
+				case OperatorRegistry.ADD -> first.add(second, context);
+				case OperatorRegistry.SUBTRACT -> first.subtract(second, context);
+				case OperatorRegistry.MULTIPLY -> first.multiply(second, context);
+				case OperatorRegistry.DIVIDE, OperatorRegistry.MODULO -> {
+					if (second.signum() == 0) {
+						throw new DivisionByZeroException();
+					}
+					yield operator == OperatorRegistry.DIVIDE ? first.divide(second, context) : first.remainder(second, context);
+				}
+				case OperatorRegistry.POWER -> power(first, second, context);
+				case OperatorRegistry.MIN -> first.min(second);
+				case OperatorRegistry.MAX -> first.max(second);
+				case OperatorRegistry.LESS, OperatorRegistry.LESS_EQUAL, OperatorRegistry.GREATER,
+						OperatorRegistry.GREATER_EQUAL, OperatorRegistry.EQUAL, OperatorRegistry.NOT_EQUAL ->
+						BigDecimal.valueOf(compare(operator, first.compareTo(second)));
+				default -> round(OperatorRegistry.apply(operator, first.doubleValue(), second.doubleValue()), operator, context);
+			};
+		}
+
+		/**
+		 * Turns the ordering of two values into the result of a comparison. Values compare by magnitude,
+		 * so 2.0 == 2 holds whatever the scales.
+		 *
+		 * @param operator   The registry id of the comparison.
+		 * @param comparison Negative, zero or positive as the first operand is less than, equal to or greater
+		 *                   than the second.
+		 * @return 1 if the comparison holds, otherwise 0.
+		 */
+		private static long compare(int operator, int comparison) {
+			boolean holds = switch (operator) {
+				case OperatorRegistry.LESS -> comparison < 0;
+				case OperatorRegistry.LESS_EQUAL -> comparison <= 0;
+				case OperatorRegistry.GREATER -> comparison > 0;
+				case OperatorRegistry.GREATER_EQUAL -> comparison >= 0;
+				case OperatorRegistry.EQUAL -> comparison == 0;
+				default -> comparison != 0;
+			};
+			return holds ? 1 : 0;
+		}
+
+		/**
+		 * Converts the double result of a custom function to a decimal rounded to the context.
+		 *
+		 * @param result   The result.
+		 * @param operator The registry id of the function, for the error message.
+		 * @param context  The precision and rounding.
+		 * @return The rounded result.
+		 * @throws ArithmeticException If the result is not finite.
+		 */
+		private static BigDecimal round(double result, int operator, MathContext context) {
+			if (Double.isNaN(result) || Double.isInfinite(result)) {
+				throw new ArithmeticException("Result of " + OperatorRegistry.name(operator) + " is not a finite number.");
+			}
+			return BigDecimal.valueOf(result).round(context);
+		}
+
+		/**
+		 * Raises a long to a non-negative int power by repeated squaring.
+		 *
+		 * @param base     The base.
+		 * @param exponent The exponent.
+		 * @return The power.
+		 * @throws ArithmeticException If the power overflows a long.
+		 */
+		private static long power(long base, int exponent) {
+			if (base == 0 || base == 1) {
+				return exponent == 0 ? 1 : base;
+			}
+			if (base == -1) {
+				return (exponent & 1) == 0 ? 1 : -1;
+			}
+			long result = 1;
+			while (true) {
+				if ((exponent & 1) != 0) {
+					result = Math.multiplyExact(result, base);
+				}
+				exponent >>>= 1;
+				if (exponent == 0) {
+					return result;
+				}
+				base = Math.multiplyExact(base, base);
+			}
+		}
+
+		/**
+		 * Raises a decimal to a power. Integer exponents are exact up to the context's precision;
+		 * fractional exponents are computed in double and rounded to the context.
+		 *
+		 * @param base     The base.
+		 * @param exponent The exponent.
+		 * @param context  The precision and rounding.
+		 * @return The power.
+		 * @throws ArithmeticException If zero is raised to a negative power or the result is not finite.
+		 */
+		private static BigDecimal power(BigDecimal base, BigDecimal exponent, MathContext context) {
+			boolean integral = exponent.signum() == 0 || exponent.stripTrailingZeros().scale() <= 0;
+			if (integral && exponent.abs().compareTo(BigDecimal.valueOf(MAX_EXPONENT)) <= 0) {
+				if (base.signum() == 0 && exponent.signum() < 0) {
+					throw new DivisionByZeroException();
+				}
+				int n = exponent.intValue();
+				if (n < 0 && context.getPrecision() == 0) {
+					// BigDecimal.pow rejects negative exponents without a precision; a reciprocal terminates or throws like a quotient
+					return BigDecimal.ONE.divide(base.pow(-n), context);
+				}
+				return base.pow(n, context);
+			}
+			double result = Math.pow(base.doubleValue(), exponent.doubleValue());
+			if (Double.isNaN(result) || Double.isInfinite(result)) {
+				throw new ArithmeticException("Result of " + base + " ^ " + exponent + " is not a finite number.");
+			}
+			return BigDecimal.valueOf(result).round(context);
+		}
+
+		/**
+		 * Grows the backing arrays when the stack is full.
+		 */
+		private void grow() {
+			if (size == longs.length) {
+				longs = Arrays.copyOf(longs, size * 2);
+				decimals = Arrays.copyOf(decimals, size * 2);
+			}
+		}
+	}
+}
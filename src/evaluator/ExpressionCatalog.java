@@ -0,0 +1,695 @@
+package evaluator;
+
+import utils.DoubleStack;
+import utils.ExpressionUtils;
+import utils.Notation;
+import utils.OperatorRegistry;
+import utils.Tokenizer;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * A compact, deduplicating store for large numbers of expressions, such as a formula catalog.
+ * Each expression is compiled once and packed into a shared memory segment; the caller keeps an int handle.
+ * Expressions that compile to the same program, whatever their notation or spacing, get the same handle.
+ *
+ * <p>A packed expression holds its variable count and name ids, its instruction count, and one opcode byte per
+ * instruction followed, for PUSH, LOAD, CALL1, CALL2 and the jumps, by a varint operand. Constants and variable names are
+ * kept once per catalog in shared pools and referenced by index, so a constant such as 0.5 that appears in a
+ * hundred thousand formulas is stored once.</p>
+ *
+ * <p>No text is kept. {@link #text(int, Notation)} regenerates any notation on demand, in a canonical form with
+ * single spaces and, for infix, only the parentheses that are needed. {@link #evaluate(int, double...)} runs
+ * straight from the packed bytes; {@link #compile(int)} unpacks an expression for repeated evaluation.</p>
+ *
+ * <p>The segment can live off the heap, which keeps large catalogs out of garbage collection entirely; it is freed
+ * once the catalog is no longer reachable.
+ * Adding is not thread-safe; once adding has finished, any number of threads can read.</p>
+ */
+public final class ExpressionCatalog {
+
+	private static final int INITIAL_CAPACITY = 1 << 12;
+
+	// 10^309, the smallest power of ten above Double.MAX_VALUE
+	private static final String INFINITE_LITERAL = "1" + "0".repeat(309);
+
+	// Packed expressions, back to back; offsets[handle] is where each one starts
+	private final boolean offHeap;
+	private MemorySegment storage;
+	private int used;
+	private int[] offsets = new int[16];
+	private int size;
+
+	// Shared pools. The open-addressing tables hold index + 1, with 0 for an empty slot
+	private double[] constants = new double[16];
+	private int constantCount;
+	private int[] constantTable = new int[32];
+	private String[] names = new String[16];
+	private int nameCount;
+	private int[] nameTable = new int[32];
+	private int[] expressionTable = new int[32];
+
+	/**
+	 * Creates an empty catalog stored on the heap.
+	 */
+	public ExpressionCatalog() {
+		this(false);
+	}
+
+	/**
+	 * Creates an empty catalog.
+	 *
+	 * @param offHeap True to keep the packed expressions in native (off-heap) memory, false to keep them on the heap.
+	 */
+	public ExpressionCatalog(boolean offHeap) {
+		this.offHeap = offHeap;
+		this.storage = allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Adds an infix expression.
+	 *
+	 * @param expression The infix expression.
+	 * @return The handle of the expression.
+	 * @throws IllegalArgumentException If the expression is not a valid infix expression.
+	 */
+	public int add(String expression) {
+		return add(expression, Notation.INFIX);
+	}
+
+	/**
+	 * Adds an expression in any notation.
+	 *
+	 * @param expression The expression.
+	 * @param notation   The notation of the expression.
+	 * @return The handle of the expression; the same as an earlier handle if an equivalent expression was added.
+	 * @throws IllegalArgumentException If the expression is not valid in the notation.
+	 */
+	public int add(String expression, Notation notation) {
+		return add(CompiledExpression.compile(Tokenizer.tokenize(expression, notation)));
+	}
+
+	/**
+	 * Adds a compiled expression.
+	 *
+	 * @param expression The compiled expression.
+	 * @return The handle of the expression; the same as an earlier handle if the same program was added.
+	 * @throws IllegalArgumentException If the program has a NaN constant, which no literal can write.
+	 * @throws IllegalStateException    If the program has an unknown opcode.
+	 */
+	public int add(CompiledExpression expression) {
+		int[] code = expression.code;
+		String[] variables = expression.variables;
+		for (double constant : expression.constants) {
+			if (Double.isNaN(constant)) {
+				throw new IllegalArgumentException("Expression has a constant that is not a number.");
+			}
+		}
+
+		// Pack past the end of the stored expressions; the bytes only count as stored if the expression is new
+		ensureCapacity(2 * 5 + variables.length * 5 + code.length * 6);
+		int position = putVarint(used, variables.length);
+		for (String variable : variables) {
+			position = putVarint(position, nameId(variable));
+		}
+		position = putVarint(position, code.length);
+		for (int instruction : code) {
+			int opcode = instruction & CompiledExpression.OPCODE_MASK;
+			int operand = instruction >>> CompiledExpression.OPERAND_SHIFT;
+			storage.set(ValueLayout.JAVA_BYTE, position++, (byte) opcode);
+			switch (opcode) {
+				case CompiledExpression.PUSH -> position = putVarint(position, constantId(expression.constants[operand]));
+				case CompiledExpression.LOAD, CompiledExpression.CALL1, CompiledExpression.CALL2, CompiledExpression.JUMP,
+				     CompiledExpression.JUMP_IF_FALSE, CompiledExpression.JUMP_IF_FALSE_OR_POP,
+				     CompiledExpression.JUMP_IF_TRUE_OR_POP -> position = putVarint(position, operand);
+				case CompiledExpression.ADD, CompiledExpression.SUBTRACT, CompiledExpression.MULTIPLY,
+				     CompiledExpression.DIVIDE, CompiledExpression.POWER, CompiledExpression.DUPLICATE -> {
+				}
+				default -> throw new IllegalStateException("Unknown opcode: " + opcode);
+			}
+		}
+
+		// Return the existing handle if the same bytes are already stored
+		int length = position - used;
+		int mask = expressionTable.length - 1;
+		int slot = hash(used, length) & mask;
+		for (int entry; (entry = expressionTable[slot]) != 0; slot = (slot + 1) & mask) {
+			if (length(entry - 1) == length && matches(offsets[entry - 1], used, length)) {
+				return entry - 1;
+			}
+		}
+
+		if (size == offsets.length) {
+			offsets = Arrays.copyOf(offsets, size * 2);
+		}
+		offsets[size] = used;
+		used = position;
+		expressionTable[slot] = ++size;
+		if (size * 4 > expressionTable.length * 3) {
+			rehashExpressions();
+		}
+		return size - 1;
+	}
+
+	/**
+	 * @return The number of distinct expressions in the catalog.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of distinct constants shared by the expressions.
+	 */
+	public int constantCount() {
+		return constantCount;
+	}
+
+	/**
+	 * @return The number of bytes taken by the packed expressions, not counting the shared pools.
+	 */
+	public long storedBytes() {
+		return used;
+	}
+
+	/**
+	 * @param handle The handle of an expression.
+	 * @return The variable names of the expression, in slot order.
+	 * @throws IllegalArgumentException If the handle is unknown.
+	 */
+	public String[] variables(int handle) {
+		int position = offsets[check(handle)];
+		long read = readVarint(position);
+		String[] variables = new String[(int) read];
+		position = (int) (read >>> 32);
+		for (int slot = 0; slot < variables.length; slot++) {
+			read = readVarint(position);
+			variables[slot] = names[(int) read];
+			position = (int) (read >>> 32);
+		}
+		return variables;
+	}
+
+	/**
+	 * Unpacks an expression for repeated evaluation. Each call returns a new instance.
+	 *
+	 * @param handle The handle of an expression.
+	 * @return The compiled expression.
+	 * @throws IllegalArgumentException If the handle is unknown.
+	 */
+	public CompiledExpression compile(int handle) {
+		String[] variables = variables(handle);
+		int position = skipVariables(offsets[handle]);
+		long read = readVarint(position);
+		int[] code = new int[(int) read];
+		double[] local = new double[code.length];
+		int localCount = 0;
+		position = (int) (read >>> 32);
+
+		for (int i = 0; i < code.length; i++) {
+			int opcode = storage.get(ValueLayout.JAVA_BYTE, position++);
+			int operand = 0;
+			if (hasOperand(opcode)) {
+				read = readVarint(position);
+				operand = (int) read;
+				position = (int) (read >>> 32);
+			}
+			if (opcode == CompiledExpression.PUSH) {
+				local[localCount] = constants[operand];
+				operand = localCount++;
+			}
+			code[i] = opcode | (operand << CompiledExpression.OPERAND_SHIFT);
+		}
+		return new CompiledExpression(code, Arrays.copyOf(local, localCount), variables,
+				CompiledExpression.maxStack(code));
+	}
+
+	/**
+	 * Evaluates an expression directly from its packed bytes.
+	 *
+	 * @param handle The handle of an expression.
+	 * @param values The variable values, indexed by slot.
+	 * @return The result of the evaluation as a double.
+	 * @throws IllegalArgumentException If the handle is unknown or fewer values than variables are given.
+	 * @throws ArithmeticException      If division by zero is attempted.
+	 */
+	public double evaluate(int handle, double... values) {
+		int position = offsets[check(handle)];
+		int variableCount = (int) readVarint(position);
+		if (values.length < variableCount) {
+			throw new IllegalArgumentException("Expected " + variableCount + " variable values but got " + values.length + ".");
+		}
+		position = skipVariables(position);
+		long read = readVarint(position);
+		int count = (int) read;
+		position = (int) (read >>> 32);
+
+		DoubleStack stack = new DoubleStack(16);
+		int resume = 0; // Instructions before this one were jumped over
+		for (int i = 0; i < count; i++) {
+			int opcode = storage.get(ValueLayout.JAVA_BYTE, position++);
+			int operand = 0;
+			if (hasOperand(opcode)) {
+				read = readVarint(position);
+				operand = (int) read;
+				position = (int) (read >>> 32);
+			}
+			if (i < resume) {
+				continue;
+			}
+			switch (opcode) {
+				case CompiledExpression.PUSH -> stack.push(constants[operand]);
+				case CompiledExpression.LOAD -> stack.push(values[operand]);
+				case CompiledExpression.DUPLICATE -> stack.push(stack.peek());
+				case CompiledExpression.CALL1 -> stack.push(OperatorRegistry.apply(operand, stack.pop()));
+				case CompiledExpression.JUMP -> resume = operand;
+				case CompiledExpression.JUMP_IF_FALSE -> {
+					if (stack.pop() == 0) {
+						resume = operand;
+					}
+				}
+				case CompiledExpression.JUMP_IF_FALSE_OR_POP, CompiledExpression.JUMP_IF_TRUE_OR_POP -> {
+					if ((stack.peek() == 0) == (opcode == CompiledExpression.JUMP_IF_FALSE_OR_POP)) {
+						resume = operand;
+					} else {
+						stack.pop();
+					}
+				}
+				default -> {
+					double second = stack.pop();
+					double first = stack.pop();
+					stack.push(switch (opcode) {
+						case CompiledExpression.ADD -> first + second;
+						case CompiledExpression.SUBTRACT -> first - second;
+						case CompiledExpression.MULTIPLY -> first * second;
+						case CompiledExpression.DIVIDE -> ExpressionUtils.divide(first, second);
+						case CompiledExpression.POWER -> Math.pow(first, second);
+						default -> OperatorRegistry.apply(operand, first, second);
+					});
+				}
+			}
+		}
+		return stack.pop();
+	}
+
+	/**
+	 * Regenerates the text of an expression in canonical form: tokens separated by single spaces, numbers
+	 * without trailing zeros, a unary minus as {@code -} in infix and {@code neg} otherwise, and in infix only
+	 * the parentheses that precedence and associativity require.
+	 *
+	 * @param handle   The handle of an expression.
+	 * @param notation The notation to write.
+	 * @return The expression text.
+	 * @throws IllegalArgumentException If the handle is unknown.
+	 */
+	public String text(int handle, Notation notation) {
+		String[] variables = variables(handle);
+		int position = skipVariables(offsets[handle]);
+		long read = readVarint(position);
+		int count = (int) read;
+		position = (int) (read >>> 32);
+
+		// Build the text bottom-up on a stack, keeping the precedence of each infix part
+		String[] parts = new String[count];
+		int[] precedences = new int[count];
+		int depth = 0;
+
+		// Lazy operators waiting for the jump past their last operand to land: its target, and the operator
+		int[] joinTargets = new int[count];
+		int[] joinIds = new int[count];
+		int joins = 0;
+
+		for (int i = 0; i < count; i++) {
+			while (joins > 0 && joinTargets[joins - 1] == i) {
+				depth = apply(joinIds[--joins], notation, parts, precedences, depth);
+			}
+			int opcode = storage.get(ValueLayout.JAVA_BYTE, position++);
+			int operand = 0;
+			if (hasOperand(opcode)) {
+				read = readVarint(position);
+				operand = (int) read;
+				position = (int) (read >>> 32);
+			}
+			switch (opcode) {
+				case CompiledExpression.PUSH -> {
+					double value = constants[operand];
+					parts[depth] = literal(value);
+					precedences[depth++] = notation == Notation.INFIX && parts[depth - 1].startsWith("-")
+							? OperatorRegistry.precedence(OperatorRegistry.NEGATE) : Integer.MAX_VALUE;
+				}
+				case CompiledExpression.LOAD -> {
+					parts[depth] = variables[operand];
+					precedences[depth++] = Integer.MAX_VALUE;
+				}
+				case CompiledExpression.DUPLICATE -> {
+					parts[depth] = parts[depth - 1];
+					precedences[depth] = precedences[depth - 1];
+					depth++;
+				}
+				// The operands of a lazy operator stay on the stack until it is complete
+				case CompiledExpression.JUMP_IF_FALSE -> {
+				}
+				case CompiledExpression.JUMP -> {
+					joinTargets[joins] = operand;
+					joinIds[joins++] = OperatorRegistry.IF;
+				}
+				case CompiledExpression.JUMP_IF_FALSE_OR_POP, CompiledExpression.JUMP_IF_TRUE_OR_POP -> {
+					joinTargets[joins] = operand;
+					joinIds[joins++] = opcode == CompiledExpression.JUMP_IF_FALSE_OR_POP ? OperatorRegistry.AND : OperatorRegistry.OR;
+				}
+				default -> depth = apply(opcode <= CompiledExpression.POWER ? opcode : operand, notation, parts, precedences, depth);
+			}
+		}
+		while (joins > 0) {
+			depth = apply(joinIds[--joins], notation, parts, precedences, depth);
+		}
+		return parts[0];
+	}
+
+	/**
+	 * Replaces the operand texts on top of the text stack with the text of an operator or function applied to them.
+	 *
+	 * @param id          The registry id of the operator or function.
+	 * @param notation    The notation to write.
+	 * @param parts       The text stack.
+	 * @param precedences The precedences of the texts.
+	 * @param depth       The number of texts on the stack.
+	 * @return The number of texts on the stack afterwards.
+	 */
+	private static int apply(int id, Notation notation, String[] parts, int[] precedences, int depth) {
+		int arity = OperatorRegistry.arity(id);
+		depth -= arity;
+		parts[depth] = switch (notation) {
+			case INFIX -> infix(id, parts, precedences, depth);
+			case POSTFIX -> join(parts, depth, arity, " ") + " " + OperatorRegistry.name(id);
+			case PREFIX -> OperatorRegistry.name(id) + " " + join(parts, depth, arity, " ");
+		};
+		precedences[depth] = id == OperatorRegistry.NEGATE || !OperatorRegistry.isFunction(id)
+				? OperatorRegistry.precedence(id) : Integer.MAX_VALUE;
+		return depth + 1;
+	}
+
+	/**
+	 * Joins consecutive texts of the text stack.
+	 *
+	 * @param parts     The text stack.
+	 * @param first     The index of the first text.
+	 * @param count     The number of texts.
+	 * @param separator The separator between texts.
+	 * @return The joined text.
+	 */
+	private static String join(String[] parts, int first, int count, String separator) {
+		StringBuilder text = new StringBuilder(parts[first]);
+		for (int i = first + 1; i < first + count; i++) {
+			text.append(separator).append(parts[i]);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Writes one operator or function application in infix, parenthesizing operands that would otherwise
+	 * bind differently when read back.
+	 *
+	 * @param id          The registry id of the operator or function.
+	 * @param parts       The operand texts.
+	 * @param precedences The precedences of the operand texts.
+	 * @param first       The index of the first operand.
+	 * @return The infix text.
+	 */
+	private static String infix(int id, String[] parts, int[] precedences, int first) {
+		if (id == OperatorRegistry.NEGATE) {
+			int precedence = OperatorRegistry.precedence(id);
+			return "-" + (precedences[first] < precedence ? "(" + parts[first] + ")" : parts[first]);
+		}
+		if (OperatorRegistry.isFunction(id)) {
+			return OperatorRegistry.name(id) + "(" + join(parts, first, OperatorRegistry.arity(id), ", ") + ")";
+		}
+
+		int precedence = OperatorRegistry.precedence(id);
+		boolean right = OperatorRegistry.isRightAssociative(id);
+		int leftPrecedence = precedences[first];
+		int rightPrecedence = precedences[first + 1];
+		String left = leftPrecedence < precedence || leftPrecedence == precedence && right
+				? "(" + parts[first] + ")" : parts[first];
+		String rightText = rightPrecedence < precedence || rightPrecedence == precedence && !right
+				? "(" + parts[first + 1] + ")" : parts[first + 1];
+		return left + " " + OperatorRegistry.name(id) + " " + rightText;
+	}
+
+	/**
+	 * Writes a constant as a plain decimal literal without trailing zeros. An infinite constant, which comes from
+	 * a literal too large for a double, is written as the shortest such literal, so it reads back as infinite.
+	 *
+	 * @param value The constant, which is not NaN.
+	 * @return The literal.
+	 */
+	private static String literal(double value) {
+		String digits = Double.isInfinite(value) ? INFINITE_LITERAL
+				: BigDecimal.valueOf(Math.abs(value)).stripTrailingZeros().toPlainString();
+		return Double.doubleToRawLongBits(value) < 0 ? "-" + digits : digits;
+	}
+
+	/**
+	 * @param opcode An opcode.
+	 * @return True if the opcode is followed by a varint operand, otherwise false.
+	 */
+	private static boolean hasOperand(int opcode) {
+		return opcode == CompiledExpression.PUSH || opcode == CompiledExpression.LOAD
+				|| opcode == CompiledExpression.CALL1 || opcode == CompiledExpression.CALL2 || CompiledExpression.isJump(opcode);
+	}
+
+	/**
+	 * Checks that a handle belongs to this catalog.
+	 *
+	 * @param handle The handle.
+	 * @return The handle.
+	 * @throws IllegalArgumentException If the handle is unknown.
+	 */
+	private int check(int handle) {
+		if (handle < 0 || handle >= size) {
+			throw new IllegalArgumentException("Unknown expression handle " + handle + ".");
+		}
+		return handle;
+	}
+
+	/**
+	 * @param handle The handle of an expression.
+	 * @return The number of bytes the expression takes.
+	 */
+	private int length(int handle) {
+		return (handle + 1 < size ? offsets[handle + 1] : used) - offsets[handle];
+	}
+
+	/**
+	 * Skips the variable count and name ids at the start of a packed expression.
+	 *
+	 * @param position The position of the expression.
+	 * @return The position of its instruction count.
+	 */
+	private int skipVariables(int position) {
+		long read = readVarint(position);
+		int count = (int) read;
+		position = (int) (read >>> 32);
+		for (int i = 0; i < count; i++) {
+			while (storage.get(ValueLayout.JAVA_BYTE, position++) < 0) {
+				// Continuation bytes have the high bit set
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Writes an unsigned LEB128 varint: 7 bits per byte, least significant first, with the high bit set on
+	 * every byte but the last.
+	 *
+	 * @param position The position to write at.
+	 * @param value    The value to write.
+	 * @return The position after the varint.
+	 */
+	private int putVarint(int position, int value) {
+		while ((value & ~0x7F) != 0) {
+			storage.set(ValueLayout.JAVA_BYTE, position++, (byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		storage.set(ValueLayout.JAVA_BYTE, position++, (byte) value);
+		return position;
+	}
+
+	/**
+	 * Reads an unsigned LEB128 varint.
+	 *
+	 * @param position The position to read at.
+	 * @return The position after the varint in the high 32 bits and the value in the low 32 bits.
+	 */
+	private long readVarint(int position) {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte next = storage.get(ValueLayout.JAVA_BYTE, position++);
+			value |= (next & 0x7F) << shift;
+			if (next >= 0) {
+				return (long) position << 32 | (value & 0xFFFFFFFFL);
+			}
+		}
+	}
+
+	/**
+	 * Makes room for at least the given number of bytes after the stored expressions.
+	 *
+	 * @param extra The number of bytes needed.
+	 */
+	private void ensureCapacity(int extra) {
+		if (storage.byteSize() - used >= extra) {
+			return;
+		}
+		int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(2 * storage.byteSize(), (long) used + extra));
+		if (capacity - used < extra) {
+			throw new IllegalStateException("Expression catalog is full.");
+		}
+		MemorySegment grown = allocate(capacity);
+		MemorySegment.copy(storage, 0, grown, 0, used);
+		storage = grown;
+	}
+
+	/**
+	 * @param capacity The capacity in bytes.
+	 * @return A new segment, backed by native memory if the catalog is off the heap and by a byte array otherwise.
+	 */
+	private MemorySegment allocate(int capacity) {
+		// Each segment gets its own automatic arena, so a segment outgrown by the catalog is freed on its own
+		return offHeap ? Arena.ofAuto().allocate(capacity) : MemorySegment.ofArray(new byte[capacity]);
+	}
+
+	/**
+	 * Hashes a range of stored bytes.
+	 *
+	 * @param position The start of the range.
+	 * @param length   The length of the range.
+	 * @return The hash.
+	 */
+	private int hash(int position, int length) {
+		int hash = 1;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + storage.get(ValueLayout.JAVA_BYTE, position + i);
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Compares two ranges of stored bytes of the same length.
+	 *
+	 * @param first  The start of the first range.
+	 * @param second The start of the second range.
+	 * @param length The length of both ranges.
+	 * @return True if the bytes are equal, otherwise false.
+	 */
+	private boolean matches(int first, int second, int length) {
+		for (int i = 0; i < length; i++) {
+			if (storage.get(ValueLayout.JAVA_BYTE, first + i) != storage.get(ValueLayout.JAVA_BYTE, second + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Spreads the bits of a hash so that nearby values land in different table slots.
+	 *
+	 * @param hash The hash.
+	 * @return The mixed hash.
+	 */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Doubles the expression table and reinserts every stored expression.
+	 */
+	private void rehashExpressions() {
+		int[] table = new int[expressionTable.length * 2];
+		int mask = table.length - 1;
+		for (int handle = 0; handle < size; handle++) {
+			int slot = hash(offsets[handle], length(handle)) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = handle + 1;
+		}
+		expressionTable = table;
+	}
+
+	/**
+	 * Finds or adds a constant in the shared pool. Constants are compared by their bits, so 0.0 and -0.0 stay apart.
+	 *
+	 * @param value The constant.
+	 * @return The index of the constant.
+	 */
+	private int constantId(double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		int mask = constantTable.length - 1;
+		int slot = mix(Long.hashCode(bits)) & mask;
+		for (int entry; (entry = constantTable[slot]) != 0; slot = (slot + 1) & mask) {
+			if (Double.doubleToRawLongBits(constants[entry - 1]) == bits) {
+				return entry - 1;
+			}
+		}
+
+		if (constantCount == constants.length) {
+			constants = Arrays.copyOf(constants, constantCount * 2);
+		}
+		constants[constantCount] = value;
+		constantTable[slot] = ++constantCount;
+		if (constantCount * 4 > constantTable.length * 3) {
+			int[] table = new int[constantTable.length * 2];
+			mask = table.length - 1;
+			for (int index = 0; index < constantCount; index++) {
+				int next = mix(Long.hashCode(Double.doubleToRawLongBits(constants[index]))) & mask;
+				while (table[next] != 0) {
+					next = (next + 1) & mask;
+				}
+				table[next] = index + 1;
+			}
+			constantTable = table;
+		}
+		return constantCount - 1;
+	}
+
+	/**
+	 * Finds or adds a variable name in the shared pool.
+	 *
+	 * @param name The variable name.
+	 * @return The index of the name.
+	 */
+	private int nameId(String name) {
+		int mask = nameTable.length - 1;
+		int slot = mix(name.hashCode()) & mask;
+		for (int entry; (entry = nameTable[slot]) != 0; slot = (slot + 1) & mask) {
+			if (names[entry - 1].equals(name)) {
+				return entry - 1;
+			}
+		}
+
+		if (nameCount == names.length) {
+			names = Arrays.copyOf(names, nameCount * 2);
+		}
+		names[nameCount] = name;
+		nameTable[slot] = ++nameCount;
+		if (nameCount * 4 > nameTable.length * 3) {
+			int[] table = new int[nameTable.length * 2];
+			mask = table.length - 1;
+			for (int index = 0; index < nameCount; index++) {
+				int next = mix(names[index].hashCode()) & mask;
+				while (table[next] != 0) {
+					next = (next + 1) & mask;
+				}
+				table[next] = index + 1;
+			}
+			nameTable = table;
+		}
+		return nameCount - 1;
+	}
+}
@@ -0,0 +1,751 @@
+package evaluator;
+
+import utils.DoubleStack;
+import utils.ExpressionUtils;
+import utils.OperatorRegistry;
+import utils.UnboundVariableException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of {@link CompiledExpression}s, read and written through {@link ByteBuffer}s
+ * so that encoded expressions can be sent between services, persisted or memory-mapped and then
+ * evaluated without any text parsing. The encoding holds the compiled instructions rather than tokens,
+ * so it does not depend on the notation the expression was written in.
+ *
+ * <p>Layout, with multi-byte numbers in big-endian order:</p>
+ * <pre>
+ * magic        4 bytes   'M' 'X' 'E' 'C'
+ * version      1 byte    2
+ * variables    varint count, then per name: varint byte length and UTF-8 bytes
+ * functions    varint count, then per operator or function name: varint byte length and UTF-8 bytes
+ * constants    varint float count, varint double count, then the 4-byte IEEE-754 floats and the 8-byte doubles
+ * instructions varint count, then per instruction: varint (opcode | operand &lt;&lt; 8)
+ * </pre>
+ *
+ * <p>Constants are deduplicated, and those a float represents exactly are stored in 4 bytes.
+ * A PUSH operand indexes the floats first and then the doubles.</p>
+ *
+ * <p>A jump operand is the index of a later instruction, or the instruction count to jump to the end. Decoding
+ * checks that every jump target is reached with the same number of values on the stack, so a decoded program
+ * is as safe to run, and to translate to bytecode, as a compiled one.</p>
+ *
+ * <p>CALL1 and CALL2 operands index the table of the operators and functions the expression calls, which
+ * decoding maps back to {@link OperatorRegistry} ids by name. Custom functions are numbered in registration order,
+ * so this lets a process decode them as long as it has registered functions of the same names and arities,
+ * in any order.</p>
+ */
+public class ExpressionCodec {
+
+	public static final int MAGIC = 'M' << 24 | 'X' << 16 | 'E' << 8 | 'C';
+	public static final byte VERSION = 2;
+
+	/**
+	 * Encodes a compiled expression into a new buffer.
+	 *
+	 * @param expression The expression to encode.
+	 * @return A heap buffer holding the encoding, positioned at its start.
+	 */
+	public static ByteBuffer encode(CompiledExpression expression) {
+		Pools pool = new Pools(expression);
+		ByteBuffer buffer = ByteBuffer.allocate(encodedSize(expression, pool));
+		encode(expression, pool, buffer);
+		return buffer.flip();
+	}
+
+	/**
+	 * Writes the encoding of a compiled expression at the buffer's position and advances it.
+	 *
+	 * @param expression The expression to encode.
+	 * @param buffer     The buffer to write to.
+	 * @throws java.nio.BufferOverflowException If the buffer has less than {@link #encodedSize} bytes remaining.
+	 */
+	public static void encode(CompiledExpression expression, ByteBuffer buffer) {
+		encode(expression, new Pools(expression), buffer);
+	}
+
+	/**
+	 * Computes the number of bytes {@link #encode(CompiledExpression, ByteBuffer)} writes.
+	 *
+	 * @param expression The expression to encode.
+	 * @return The size of the encoding in bytes.
+	 */
+	public static int encodedSize(CompiledExpression expression) {
+		return encodedSize(expression, new Pools(expression));
+	}
+
+	/**
+	 * Writes the encoding of a compiled expression using its prepared pools.
+	 *
+	 * @param expression The expression to encode.
+	 * @param pool       The constants and functions of the expression.
+	 * @param buffer     The buffer to write to.
+	 */
+	private static void encode(CompiledExpression expression, Pools pool, ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+
+		buffer.putInt(MAGIC);
+		buffer.put(VERSION);
+
+		putVarint(buffer, expression.variables.length);
+		for (String name : expression.variables) {
+			putName(buffer, name);
+		}
+		putVarint(buffer, pool.functions.length);
+		for (String name : pool.functions) {
+			putName(buffer, name);
+		}
+
+		putVarint(buffer, pool.floatCount);
+		putVarint(buffer, pool.doubleCount);
+		for (int i = 0; i < pool.floatCount; i++) {
+			buffer.putFloat((float) pool.values[i]);
+		}
+		for (int i = pool.floatCount; i < pool.values.length; i++) {
+			buffer.putDouble(pool.values[i]);
+		}
+
+		putVarint(buffer, expression.code.length);
+		for (int instruction : expression.code) {
+			putVarint(buffer, pool.remap(instruction));
+		}
+
+		buffer.order(order);
+	}
+
+	/**
+	 * Computes the size of an encoding using the expression's prepared pools.
+	 *
+	 * @param expression The expression to encode.
+	 * @param pool       The constants and functions of the expression.
+	 * @return The size of the encoding in bytes.
+	 */
+	private static int encodedSize(CompiledExpression expression, Pools pool) {
+		int size = Integer.BYTES + 1;
+		size += varintSize(expression.variables.length);
+		for (String name : expression.variables) {
+			size += nameSize(name);
+		}
+		size += varintSize(pool.functions.length);
+		for (String name : pool.functions) {
+			size += nameSize(name);
+		}
+		size += varintSize(pool.floatCount) + varintSize(pool.doubleCount);
+		size += pool.floatCount * Float.BYTES + pool.doubleCount * Double.BYTES;
+		size += varintSize(expression.code.length);
+		for (int instruction : expression.code) {
+			size += varintSize(pool.remap(instruction));
+		}
+		return size;
+	}
+
+	/**
+	 * Reads an encoded expression at the buffer's position and advances past it.
+	 *
+	 * @param buffer The buffer to read from.
+	 * @return The decoded expression.
+	 * @throws IllegalArgumentException If the buffer does not hold a valid encoded expression.
+	 */
+	public static CompiledExpression decode(ByteBuffer buffer) {
+		ByteBuffer in = view(buffer);
+		readHeader(in);
+
+		String[] variables = new String[readCount(in)];
+		for (int slot = 0; slot < variables.length; slot++) {
+			variables[slot] = readName(in);
+		}
+		int[] functions = readFunctions(in);
+
+		int floatCount = readVarint(in);
+		int doubleCount = readVarint(in);
+		checkConstants(in, floatCount, doubleCount);
+		double[] constants = new double[floatCount + doubleCount];
+		for (int i = 0; i < floatCount; i++) {
+			constants[i] = in.getFloat();
+		}
+		for (int i = floatCount; i < constants.length; i++) {
+			constants[i] = in.getDouble();
+		}
+
+		int[] code = new int[readCount(in)];
+		int[] joins = null; // The stack depth plus one at each jump target, once there is a jump
+		int depth = 0;
+		int maxStack = 0;
+		for (int i = 0; i < code.length; i++) {
+			arrive(joins, i, depth, i == 0 || (code[i - 1] & CompiledExpression.OPCODE_MASK) != CompiledExpression.JUMP);
+			int instruction = readVarint(in);
+			int operand = instruction >>> CompiledExpression.OPERAND_SHIFT;
+			switch (instruction & CompiledExpression.OPCODE_MASK) {
+				case CompiledExpression.PUSH -> depth = push(depth, operand < constants.length);
+				case CompiledExpression.LOAD -> depth = push(depth, operand < variables.length);
+				case CompiledExpression.DUPLICATE -> depth = push(depth, depth >= 1);
+				case CompiledExpression.ADD, CompiledExpression.SUBTRACT, CompiledExpression.MULTIPLY,
+				     CompiledExpression.DIVIDE, CompiledExpression.POWER -> depth = pop(depth);
+				case CompiledExpression.CALL1, CompiledExpression.CALL2 -> {
+					int id = function(functions, operand, instruction & CompiledExpression.OPCODE_MASK);
+					depth = call(depth, id, OperatorRegistry.arity(id));
+					instruction = id << CompiledExpression.OPERAND_SHIFT | instruction & CompiledExpression.OPCODE_MASK;
+				}
+				case CompiledExpression.JUMP, CompiledExpression.JUMP_IF_FALSE, CompiledExpression.JUMP_IF_FALSE_OR_POP,
+				     CompiledExpression.JUMP_IF_TRUE_OR_POP -> {
+					joins = jump(joins, code.length, i, instruction, depth);
+					depth--;
+				}
+				default -> throw invalid("unknown opcode " + (instruction & CompiledExpression.OPCODE_MASK));
+			}
+			maxStack = Math.max(maxStack, depth);
+			code[i] = instruction;
+		}
+		if (code.length > 0) {
+			arrive(joins, code.length, depth, (code[code.length - 1] & CompiledExpression.OPCODE_MASK) != CompiledExpression.JUMP);
+		}
+		if (depth != 1) {
+			throw invalid("instructions leave " + depth + " values on the stack");
+		}
+
+		buffer.position(in.position());
+		return new CompiledExpression(code, constants, variables, maxStack);
+	}
+
+	/**
+	 * Evaluates an encoded expression straight from the buffer, without creating a {@link CompiledExpression},
+	 * and advances the buffer's position past it.
+	 *
+	 * @param buffer The buffer to read from.
+	 * @return The result of the evaluation as a double.
+	 * @throws IllegalArgumentException If the buffer does not hold a valid encoded expression,
+	 *                                  or the expression uses a variable.
+	 * @throws ArithmeticException      If division by zero is attempted.
+	 */
+	public static double evaluate(ByteBuffer buffer) {
+		ByteBuffer in = view(buffer);
+		readHeader(in);
+
+		// Skip the names; they are only needed to report a variable without a value
+		int variablesStart = in.position();
+		int variableCount = readCount(in);
+		for (int slot = 0; slot < variableCount; slot++) {
+			int length = readCount(in);
+			in.position(in.position() + length);
+		}
+		int[] functions = readFunctions(in);
+
+		// Constants are read in place when pushed
+		int floatCount = readVarint(in);
+		int doubleCount = readVarint(in);
+		checkConstants(in, floatCount, doubleCount);
+		int floatsStart = in.position();
+		int doublesStart = floatsStart + floatCount * Float.BYTES;
+		in.position(doublesStart + doubleCount * Double.BYTES);
+
+		DoubleStack stack = new DoubleStack(16);
+		int count = readCount(in);
+		int resume = 0; // Instructions before this one were jumped over
+		for (int i = 0; i < count; i++) {
+			int instruction = readVarint(in);
+			int operand = instruction >>> CompiledExpression.OPERAND_SHIFT;
+			int opcode = instruction & CompiledExpression.OPCODE_MASK;
+			if (i < resume) {
+				if (opcode > CompiledExpression.JUMP_IF_TRUE_OR_POP) {
+					throw invalid("unknown opcode " + opcode);
+				}
+				continue;
+			}
+			switch (opcode) {
+				case CompiledExpression.PUSH -> {
+					if (operand < floatCount) {
+						stack.push(in.getFloat(floatsStart + operand * Float.BYTES));
+					} else if (operand - floatCount < doubleCount) {
+						stack.push(in.getDouble(doublesStart + (operand - floatCount) * Double.BYTES));
+					} else {
+						throw invalid("constant " + operand + " out of range");
+					}
+				}
+				case CompiledExpression.LOAD -> throw new UnboundVariableException(variableName(in, variablesStart, operand));
+				case CompiledExpression.DUPLICATE -> {
+					requireDepth(stack, 1);
+					stack.push(stack.peek());
+				}
+				case CompiledExpression.ADD, CompiledExpression.SUBTRACT, CompiledExpression.MULTIPLY,
+				     CompiledExpression.DIVIDE, CompiledExpression.POWER -> {
+					requireDepth(stack, 2);
+					double second = stack.pop();
+					double first = stack.pop();
+					stack.push(switch (opcode) {
+						case CompiledExpression.ADD -> first + second;
+						case CompiledExpression.SUBTRACT -> first - second;
+						case CompiledExpression.MULTIPLY -> first * second;
+						case CompiledExpression.DIVIDE -> ExpressionUtils.divide(first, second);
+						default -> Math.pow(first, second);
+					});
+				}
+				case CompiledExpression.CALL1 -> {
+					int id = function(functions, operand, opcode);
+					call(stack.size(), id, 1);
+					stack.push(OperatorRegistry.apply(id, stack.pop()));
+				}
+				case CompiledExpression.CALL2 -> {
+					int id = function(functions, operand, opcode);
+					call(stack.size(), id, 2);
+					double second = stack.pop();
+					double first = stack.pop();
+					stack.push(OperatorRegistry.apply(id, first, second));
+				}
+				// The value a jump carries stays on the stack
+				case CompiledExpression.JUMP -> {
+					requireDepth(stack, 1);
+					resume = target(i, operand, count);
+				}
+				case CompiledExpression.JUMP_IF_FALSE -> {
+					requireDepth(stack, 1);
+					int target = target(i, operand, count);
+					if (stack.pop() == 0) {
+						resume = target;
+					}
+				}
+				case CompiledExpression.JUMP_IF_FALSE_OR_POP, CompiledExpression.JUMP_IF_TRUE_OR_POP -> {
+					requireDepth(stack, 1);
+					int target = target(i, operand, count);
+					if ((stack.peek() == 0) == (opcode == CompiledExpression.JUMP_IF_FALSE_OR_POP)) {
+						resume = target;
+					} else {
+						stack.pop();
+					}
+				}
+				default -> throw invalid("unknown opcode " + opcode);
+			}
+		}
+		if (stack.size() != 1) {
+			throw invalid("instructions leave " + stack.size() + " values on the stack");
+		}
+
+		buffer.position(in.position());
+		return stack.pop();
+	}
+
+	/**
+	 * Creates a big-endian view of the buffer starting at its position, leaving the buffer untouched.
+	 *
+	 * @param buffer The buffer.
+	 * @return The view.
+	 */
+	private static ByteBuffer view(ByteBuffer buffer) {
+		return buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Reads and checks the magic number and version.
+	 *
+	 * @param in The buffer to read from.
+	 * @throws IllegalArgumentException If the header is missing or has an unsupported version.
+	 */
+	private static void readHeader(ByteBuffer in) {
+		if (in.remaining() < Integer.BYTES + 1 || in.getInt() != MAGIC) {
+			throw invalid("missing header");
+		}
+		byte version = in.get();
+		if (version != VERSION) {
+			throw invalid("unsupported version " + version);
+		}
+	}
+
+	/**
+	 * Reads a count and checks that it cannot run past the end of the buffer.
+	 *
+	 * @param in The buffer to read from.
+	 * @return The count.
+	 * @throws IllegalArgumentException If the count is larger than the bytes remaining.
+	 */
+	private static int readCount(ByteBuffer in) {
+		int count = readVarint(in);
+		if (count < 0 || count > in.remaining()) {
+			throw invalid("count " + count + " exceeds the remaining " + in.remaining() + " bytes");
+		}
+		return count;
+	}
+
+	/**
+	 * Checks that the constants fit in the rest of the buffer.
+	 *
+	 * @param in          The buffer, positioned at the first constant.
+	 * @param floatCount  The number of 4-byte constants.
+	 * @param doubleCount The number of 8-byte constants.
+	 * @throws IllegalArgumentException If the constants would run past the end of the buffer.
+	 */
+	private static void checkConstants(ByteBuffer in, int floatCount, int doubleCount) {
+		long bytes = Integer.toUnsignedLong(floatCount) * Float.BYTES + Integer.toUnsignedLong(doubleCount) * Double.BYTES;
+		if (bytes > in.remaining()) {
+			throw invalid("constants exceed the remaining " + in.remaining() + " bytes");
+		}
+	}
+
+	/**
+	 * Writes a length-prefixed UTF-8 name.
+	 *
+	 * @param buffer The buffer to write to.
+	 * @param name   The name.
+	 */
+	private static void putName(ByteBuffer buffer, String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		putVarint(buffer, bytes.length);
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Computes the number of bytes a length-prefixed UTF-8 name takes.
+	 *
+	 * @param name The name.
+	 * @return The number of bytes.
+	 */
+	private static int nameSize(String name) {
+		int length = name.getBytes(StandardCharsets.UTF_8).length;
+		return varintSize(length) + length;
+	}
+
+	/**
+	 * Reads a length-prefixed UTF-8 variable, operator or function name.
+	 *
+	 * @param in The buffer to read from.
+	 * @return The name.
+	 */
+	private static String readName(ByteBuffer in) {
+		byte[] bytes = new byte[readCount(in)];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the function table and maps every name to its registry id.
+	 *
+	 * @param in The buffer to read from.
+	 * @return The registry id of each entry of the table.
+	 * @throws IllegalArgumentException If a name is not a registered operator or function.
+	 */
+	private static int[] readFunctions(ByteBuffer in) {
+		int[] ids = new int[readCount(in)];
+		for (int i = 0; i < ids.length; i++) {
+			String name = readName(in);
+			int id = OperatorRegistry.functionId(name, 0, name.length());
+			if (id == 0) {
+				id = OperatorRegistry.operatorId(name, 0, name.length());
+			}
+			if (id == 0) {
+				throw invalid("unknown function '" + name + "'");
+			}
+			ids[i] = id;
+		}
+		return ids;
+	}
+
+	/**
+	 * Looks up the function a CALL1 or CALL2 instruction calls.
+	 *
+	 * @param functions The registry ids of the function table.
+	 * @param operand   The operand of the instruction.
+	 * @param opcode    The opcode of the instruction.
+	 * @return The registry id of the function.
+	 * @throws IllegalArgumentException If the operand is out of range, or the function does not take the number
+	 *                                  of arguments the instruction passes.
+	 */
+	private static int function(int[] functions, int operand, int opcode) {
+		if (operand >= functions.length) {
+			throw invalid("function " + operand + " out of range");
+		}
+		int id = functions[operand];
+		if (OperatorRegistry.arity(id) != (opcode == CompiledExpression.CALL1 ? 1 : 2)) {
+			throw invalid("function '" + OperatorRegistry.name(id) + "' called with the wrong number of arguments");
+		}
+		return id;
+	}
+
+	/**
+	 * Reads the name of a variable slot from the start of the variable section.
+	 *
+	 * @param in             The buffer.
+	 * @param variablesStart The position of the variable count.
+	 * @param slot           The variable slot.
+	 * @return The name of the variable.
+	 * @throws IllegalArgumentException If the slot is out of range.
+	 */
+	private static String variableName(ByteBuffer in, int variablesStart, int slot) {
+		ByteBuffer names = in.duplicate().position(variablesStart);
+		int count = readCount(names);
+		if (slot >= count) {
+			throw invalid("variable " + slot + " out of range");
+		}
+		for (int i = 0; i < slot; i++) {
+			int length = readCount(names);
+			names.position(names.position() + length);
+		}
+		return readName(names);
+	}
+
+	/**
+	 * Accounts for an instruction that pushes one value.
+	 *
+	 * @param depth The stack depth before the instruction.
+	 * @param valid Whether the instruction's operand is valid.
+	 * @return The stack depth after the instruction.
+	 * @throws IllegalArgumentException If the operand is not valid.
+	 */
+	private static int push(int depth, boolean valid) {
+		if (!valid) {
+			throw invalid("operand out of range");
+		}
+		return depth + 1;
+	}
+
+	/**
+	 * Accounts for a binary operator.
+	 *
+	 * @param depth The stack depth before the instruction.
+	 * @return The stack depth after the instruction.
+	 * @throws IllegalArgumentException If fewer than two values are on the stack.
+	 */
+	private static int pop(int depth) {
+		if (depth < 2) {
+			throw invalid("operator without two operands");
+		}
+		return depth - 1;
+	}
+
+	/**
+	 * Accounts for a function call, checking that the function exists and takes that many arguments.
+	 *
+	 * @param depth The stack depth before the instruction.
+	 * @param id    The registry id of the function.
+	 * @param arity The number of arguments the instruction passes.
+	 * @return The stack depth after the instruction.
+	 * @throws IllegalArgumentException If the function is unknown, takes a different number of arguments,
+	 *                                  or fewer values than that are on the stack.
+	 */
+	private static int call(int depth, int id, int arity) {
+		if (!OperatorRegistry.isRegistered(id) || OperatorRegistry.arity(id) != arity) {
+			throw invalid("unknown function " + id);
+		}
+		if (depth < arity) {
+			throw invalid("instruction without operands");
+		}
+		return depth - arity + 1;
+	}
+
+	/**
+	 * Checks that a jump goes forward and stays within the program.
+	 *
+	 * @param index  The index of the jump.
+	 * @param target The index of the instruction it jumps to.
+	 * @param count  The number of instructions.
+	 * @return The target.
+	 * @throws IllegalArgumentException If the target is not after the jump or is past the end.
+	 */
+	private static int target(int index, int target, int count) {
+		if (target <= index || target > count) {
+			throw invalid("jump from " + index + " to " + target + " out of range");
+		}
+		return target;
+	}
+
+	/**
+	 * Accounts for a jump, recording the stack depth its target must be reached with. A jump carries one value
+	 * to its target; JUMP_IF_FALSE pops it first.
+	 *
+	 * @param joins       The stack depth plus one at each jump target, or null before the first jump.
+	 * @param count       The number of instructions.
+	 * @param index       The index of the jump.
+	 * @param instruction The jump instruction.
+	 * @param depth       The stack depth before the jump.
+	 * @return The join table.
+	 * @throws IllegalArgumentException If the jump is out of range, has no value, or reaches a target that
+	 *                                  another jump reaches with a different depth.
+	 */
+	private static int[] jump(int[] joins, int count, int index, int instruction, int depth) {
+		int target = target(index, instruction >>> CompiledExpression.OPERAND_SHIFT, count);
+		if (depth < 1) {
+			throw invalid("jump without a value");
+		}
+		if ((instruction & CompiledExpression.OPCODE_MASK) == CompiledExpression.JUMP_IF_FALSE) {
+			depth--;
+		}
+		if (joins == null) {
+			joins = new int[count + 1];
+		}
+		if (joins[target] != 0 && joins[target] != depth + 1) {
+			throw invalid("inconsistent stack depth at instruction " + target);
+		}
+		joins[target] = depth + 1;
+		return joins;
+	}
+
+	/**
+	 * Checks how an instruction, or the end of the program, is reached.
+	 *
+	 * @param joins        The stack depth plus one at each jump target, or null if there has been no jump.
+	 * @param index        The index of the instruction.
+	 * @param depth        The stack depth on falling through from the previous instruction.
+	 * @param fallsThrough Whether the previous instruction continues to this one, i.e. is not a JUMP.
+	 * @throws IllegalArgumentException If the instruction cannot be reached, or the jumps to it and the previous
+	 *                                  instruction leave different numbers of values on the stack.
+	 */
+	private static void arrive(int[] joins, int index, int depth, boolean fallsThrough) {
+		boolean target = joins != null && joins[index] != 0;
+		if (!fallsThrough && !target) {
+			throw invalid("unreachable instruction " + index);
+		}
+		if (target && joins[index] != depth + 1) {
+			throw invalid("inconsistent stack depth at instruction " + index);
+		}
+	}
+
+	/**
+	 * Checks that enough values are on the stack for an instruction.
+	 *
+	 * @param stack The operand stack.
+	 * @param depth The number of values the instruction needs.
+	 * @throws IllegalArgumentException If fewer values are on the stack.
+	 */
+	private static void requireDepth(DoubleStack stack, int depth) {
+		if (stack.size() < depth) {
+			throw invalid("instruction without operands");
+		}
+	}
+
+	/**
+	 * Writes an unsigned LEB128 varint: seven bits per byte, low bits first, high bit set on all but the last byte.
+	 *
+	 * @param buffer The buffer to write to.
+	 * @param value  The value, treated as unsigned.
+	 */
+	private static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads an unsigned LEB128 varint.
+	 *
+	 * @param in The buffer to read from.
+	 * @return The value.
+	 * @throws IllegalArgumentException If the varint is longer than five bytes or the buffer ends inside it.
+	 */
+	private static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (!in.hasRemaining()) {
+				throw invalid("truncated varint");
+			}
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw invalid("varint too long");
+	}
+
+	/**
+	 * Computes the number of bytes a varint takes.
+	 *
+	 * @param value The value, treated as unsigned.
+	 * @return The number of bytes.
+	 */
+	private static int varintSize(int value) {
+		int bits = Integer.SIZE - Integer.numberOfLeadingZeros(value | 1);
+		return (bits + 6) / 7;
+	}
+
+	/**
+	 * Creates the exception thrown for malformed encodings.
+	 *
+	 * @param reason What is wrong with the encoding.
+	 * @return The exception to throw.
+	 */
+	private static IllegalArgumentException invalid(String reason) {
+		return new IllegalArgumentException("Invalid encoded expression: " + reason + ".");
+	}
+
+	/**
+	 * The deduplicated constants of an expression as they are encoded: values a float represents exactly
+	 * first, then the rest, with the new index of every original constant. It also holds the names of the
+	 * operators and functions the expression calls, in order of first call.
+	 */
+	private static final class Pools {
+
+		private final double[] values;
+		private final int[] indices;
+		private final int floatCount;
+		private final int doubleCount;
+		private final String[] functions;
+		private final Map<Integer, Integer> functionIndices = new LinkedHashMap<>();
+
+		/**
+		 * Builds the pools from the constants the expression pushes and the functions it calls.
+		 *
+		 * @param expression The expression to encode.
+		 */
+		Pools(CompiledExpression expression) {
+			double[] constants = expression.constants;
+			boolean[] used = new boolean[constants.length];
+			for (int instruction : expression.code) {
+				int opcode = instruction & CompiledExpression.OPCODE_MASK;
+				int operand = instruction >>> CompiledExpression.OPERAND_SHIFT;
+				if (opcode == CompiledExpression.PUSH) {
+					used[operand] = true;
+				} else if (opcode == CompiledExpression.CALL1 || opcode == CompiledExpression.CALL2) {
+					functionIndices.putIfAbsent(operand, functionIndices.size());
+				}
+			}
+			this.functions = new String[functionIndices.size()];
+			functionIndices.forEach((id, index) -> functions[index] = OperatorRegistry.name(id));
+			// Order the distinct values, floats first, keyed by their raw bits so -0.0 and NaNs survive
+			Map<Long, Integer> floats = new LinkedHashMap<>();
+			Map<Long, Integer> doubles = new LinkedHashMap<>();
+			for (int i = 0; i < constants.length; i++) {
+				if (used[i]) {
+					long bits = Double.doubleToRawLongBits(constants[i]);
+					boolean exact = Double.doubleToRawLongBits((float) constants[i]) == bits;
+					(exact ? floats : doubles).putIfAbsent(bits, (exact ? floats : doubles).size());
+				}
+			}
+
+			this.floatCount = floats.size();
+			this.doubleCount = doubles.size();
+			this.values = new double[floatCount + doubleCount];
+			floats.forEach((bits, index) -> values[index] = Double.longBitsToDouble(bits));
+			doubles.forEach((bits, index) -> values[floatCount + index] = Double.longBitsToDouble(bits));
+
+			this.indices = new int[constants.length];
+			for (int i = 0; i < constants.length; i++) {
+				if (used[i]) {
+					long bits = Double.doubleToRawLongBits(constants[i]);
+					Integer index = floats.get(bits);
+					indices[i] = index != null ? index : floatCount + doubles.get(bits);
+				}
+			}
+		}
+
+		/**
+		 * Rewrites a PUSH instruction to use the constant pool's index, and a CALL1 or CALL2 instruction to use the
+		 * function table's index; other instructions are unchanged.
+		 *
+		 * @param instruction The original instruction.
+		 * @return The instruction as encoded.
+		 */
+		int remap(int instruction) {
+			int opcode = instruction & CompiledExpression.OPCODE_MASK;
+			int operand = instruction >>> CompiledExpression.OPERAND_SHIFT;
+			return switch (opcode) {
+				case CompiledExpression.PUSH -> indices[operand] << CompiledExpression.OPERAND_SHIFT | opcode;
+				case CompiledExpression.CALL1, CompiledExpression.CALL2 -> functionIndices.get(operand) << CompiledExpression.OPERAND_SHIFT | opcode;
+				default -> instruction;
+			};
+		}
+	}
+}
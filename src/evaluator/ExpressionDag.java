@@ -0,0 +1,370 @@
+package evaluator;
+
+import utils.ExpressionUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A hash-consed DAG of expression nodes. Every structurally identical subexpression is stored once:
+ * adding {@code (a+b)*(a+b) + (a+b)/2} creates a single {@code a+b} node that all three uses share,
+ * and adding further expressions reuses every node they have in common with expressions already added.
+ * Operands of the commutative operators + and * are put in a canonical order, so {@code a+b} and
+ * {@code b+a} share a node too.
+ *
+ * <p>Nodes are identified by int ids and stored in parallel primitive arrays. A {@link Schedule}
+ * evaluates the nodes reachable from a set of roots in dependency order, computing each shared node
+ * exactly once per evaluation.</p>
+ */
+public final class ExpressionDag {
+
+	// Node kinds; operator nodes use their instruction instead (the opcode, or a call carrying its registry id)
+	static final int CONSTANT = -1;
+	static final int VARIABLE = -2;
+
+	private int[] kinds = new int[64];
+	private int[] lefts = new int[64];
+	private int[] rights = new int[64];
+	private double[] values = new double[64];
+	private int size;
+
+	// Interning tables
+	private final Map<Long, Integer> constantIds = new HashMap<>();
+	private final Map<String, Integer> variableIds = new LinkedHashMap<>();
+	private final Map<Long, Integer> operatorIds = new HashMap<>();
+	private String[] variableNames = new String[8];
+
+	/**
+	 * Adds an expression to the DAG, reusing every node it shares with expressions added before.
+	 *
+	 * @param expression The compiled expression.
+	 * @return The id of the root node of the expression.
+	 * @throws IllegalArgumentException If the expression uses {@code and}, {@code or} or {@code if}, whose operands
+	 *                                  are not all evaluated while a schedule evaluates every node.
+	 */
+	public int add(CompiledExpression expression) {
+		if (expression.branching) {
+			throw new IllegalArgumentException("Expressions with and, or or if cannot be added to a DAG.");
+		}
+		int[] stack = new int[Math.max(1, expression.maxStack())];
+		int top = -1;
+
+		for (int instruction : expression.code) {
+			int opcode = instruction & CompiledExpression.OPCODE_MASK;
+			int operand = instruction >>> CompiledExpression.OPERAND_SHIFT;
+			switch (opcode) {
+				case CompiledExpression.PUSH -> stack[++top] = constant(expression.constants[operand]);
+				case CompiledExpression.LOAD -> stack[++top] = variable(expression.variables[operand]);
+				case CompiledExpression.DUPLICATE -> {
+					stack[top + 1] = stack[top];
+					top++;
+				}
+				case CompiledExpression.CALL1 -> stack[top] = operator(instruction, stack[top], stack[top]);
+				default -> {
+					int right = stack[top--];
+					stack[top] = operator(instruction, stack[top], right);
+				}
+			}
+		}
+
+		return stack[0];
+	}
+
+	/**
+	 * Adds an infix expression to the DAG.
+	 *
+	 * @param expression The infix expression.
+	 * @return The id of the root node of the expression.
+	 * @throws IllegalArgumentException If the expression is not a valid infix expression, or uses {@code and},
+	 *                                  {@code or} or {@code if}.
+	 */
+	public int addInfix(String expression) {
+		return add(CompiledExpression.fromInfix(expression));
+	}
+
+	/**
+	 * Returns the node for a constant, creating it if needed.
+	 *
+	 * @param value The constant value.
+	 * @return The node id.
+	 */
+	int constant(double value) {
+		Long key = Double.doubleToRawLongBits(value);
+		Integer id = constantIds.get(key);
+		if (id == null) {
+			id = newNode(CONSTANT, 0, 0, value);
+			constantIds.put(key, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the node for a variable, creating it if needed.
+	 *
+	 * @param name The variable name.
+	 * @return The node id.
+	 */
+	int variable(String name) {
+		Integer id = variableIds.get(name);
+		if (id == null) {
+			int index = variableIds.size();
+			if (index == variableNames.length) {
+				variableNames = Arrays.copyOf(variableNames, index * 2);
+			}
+			variableNames[index] = name;
+			id = newNode(VARIABLE, index, 0, 0);
+			variableIds.put(name, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the node applying an operator or function to its operand nodes, creating it if needed.
+	 *
+	 * @param instruction The operator or call instruction.
+	 * @param left        The id of the left operand, or of the argument of a one-argument function.
+	 * @param right       The id of the right operand; the argument again for a one-argument function.
+	 * @return The node id.
+	 */
+	int operator(int instruction, int left, int right) {
+		// + and * are commutative, so order their operands canonically
+		if ((instruction == CompiledExpression.ADD || instruction == CompiledExpression.MULTIPLY) && left > right) {
+			int swap = left;
+			left = right;
+			right = swap;
+		}
+
+		// The built-in opcodes equal their registry ids, so the registry id (one byte) identifies the operation
+		int operation = instruction <= CompiledExpression.POWER ? instruction : instruction >>> CompiledExpression.OPERAND_SHIFT;
+		Long key = ((long) operation << 56) | ((long) left << 28) | right;
+		Integer id = operatorIds.get(key);
+		if (id == null) {
+			id = newNode(instruction, left, right, 0);
+			operatorIds.put(key, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Appends a node to the parallel arrays.
+	 *
+	 * @param kind  The node kind or operator instruction.
+	 * @param left  The left operand id, or the variable index.
+	 * @param right The right operand id.
+	 * @param value The constant value.
+	 * @return The id of the new node.
+	 */
+	private int newNode(int kind, int left, int right, double value) {
+		if (size == (1 << 28)) {
+			throw new IllegalStateException("Expression DAG is full.");
+		}
+		if (size == kinds.length) {
+			int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			lefts = Arrays.copyOf(lefts, capacity);
+			rights = Arrays.copyOf(rights, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		kinds[size] = kind;
+		lefts[size] = left;
+		rights[size] = right;
+		values[size] = value;
+		return size++;
+	}
+
+	/**
+	 * @return The number of distinct nodes in the DAG.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The names of the variables in the DAG, in order of first appearance.
+	 */
+	public String[] variables() {
+		return Arrays.copyOf(variableNames, variableIds.size());
+	}
+
+	/**
+	 * @param node The node id.
+	 * @return The kind of the node: {@link #CONSTANT}, {@link #VARIABLE}, or the instruction of its operator.
+	 */
+	int kind(int node) {
+		return kinds[node];
+	}
+
+	/**
+	 * @param node The id of an operator node.
+	 * @return The id of its left operand; for a variable node, its index in {@link #variables()}.
+	 */
+	int left(int node) {
+		return lefts[node];
+	}
+
+	/**
+	 * @param node The id of an operator node.
+	 * @return The id of its right operand.
+	 */
+	int right(int node) {
+		return rights[node];
+	}
+
+	/**
+	 * @param node The id of a constant node.
+	 * @return The value of the constant.
+	 */
+	double value(int node) {
+		return values[node];
+	}
+
+	/**
+	 * Creates a schedule evaluating the given root nodes. Only the nodes they depend on are evaluated.
+	 *
+	 * @param roots The ids of the root nodes.
+	 * @return The schedule.
+	 */
+	public Schedule schedule(int... roots) {
+		return new Schedule(this, roots);
+	}
+
+	/**
+	 * Evaluates the nodes reachable from a set of roots in dependency order, computing each node once.
+	 * Variable values are passed in the order of {@link #variables()}.
+	 *
+	 * <p>Instances are not thread-safe because they own their node value buffer.</p>
+	 */
+	public static final class Schedule {
+
+		// Steps in dependency order: each computes one node into the slot with the same index
+		private final int[] kinds;
+		private final int[] lefts;
+		private final int[] rights;
+		private final double[] constants;
+		private final int[] rootSlots;
+		private final double[] slots;
+
+		/**
+		 * Orders the nodes reachable from the roots so every node comes after its operands.
+		 *
+		 * @param dag   The DAG.
+		 * @param roots The ids of the root nodes.
+		 */
+		private Schedule(ExpressionDag dag, int[] roots) {
+			int[] slotOf = new int[dag.size];
+			Arrays.fill(slotOf, -1);
+			int[] order = new int[dag.size];
+			int count = 0;
+
+			// Iterative post-order walk; a node is scheduled once both of its operands are
+			int[] stack = new int[dag.size * 2 + 1];
+			for (int root : roots) {
+				int top = -1;
+				stack[++top] = root;
+				while (top >= 0) {
+					int node = stack[top];
+					if (slotOf[node] >= 0) {
+						top--;
+						continue;
+					}
+					int kind = dag.kinds[node];
+					if (kind >= 0) {
+						int left = dag.lefts[node];
+						int right = dag.rights[node];
+						if (slotOf[left] < 0) {
+							stack[++top] = left;
+							continue;
+						}
+						if (slotOf[right] < 0) {
+							stack[++top] = right;
+							continue;
+						}
+					}
+					top--;
+					slotOf[node] = count;
+					order[count++] = node;
+				}
+			}
+
+			this.kinds = new int[count];
+			this.lefts = new int[count];
+			this.rights = new int[count];
+			this.constants = new double[count];
+			for (int step = 0; step < count; step++) {
+				int node = order[step];
+				int kind = dag.kinds[node];
+				kinds[step] = kind;
+				if (kind == CONSTANT) {
+					constants[step] = dag.values[node];
+				} else if (kind == VARIABLE) {
+					lefts[step] = dag.lefts[node];
+				} else {
+					lefts[step] = slotOf[dag.lefts[node]];
+					rights[step] = slotOf[dag.rights[node]];
+				}
+			}
+
+			this.rootSlots = new int[roots.length];
+			for (int i = 0; i < roots.length; i++) {
+				rootSlots[i] = slotOf[roots[i]];
+			}
+			this.slots = new double[count];
+		}
+
+		/**
+		 * Evaluates every root.
+		 *
+		 * @param values  The variable values, in the order of the DAG's variables.
+		 * @param results The array receiving one result per root, in the order the roots were given.
+		 * @throws ArithmeticException If division by zero is attempted.
+		 */
+		public void evaluate(double[] values, double[] results) {
+			run(values);
+			for (int i = 0; i < rootSlots.length; i++) {
+				results[i] = slots[rootSlots[i]];
+			}
+		}
+
+		/**
+		 * Evaluates the first root.
+		 *
+		 * @param values The variable values, in the order of the DAG's variables.
+		 * @return The result of the first root.
+		 * @throws ArithmeticException If division by zero is attempted.
+		 */
+		public double evaluate(double[] values) {
+			run(values);
+			return slots[rootSlots[0]];
+		}
+
+		/**
+		 * Computes every scheduled node into its slot.
+		 *
+		 * @param values The variable values.
+		 */
+		private void run(double[] values) {
+			double[] slots = this.slots;
+			for (int step = 0; step < kinds.length; step++) {
+				slots[step] = switch (kinds[step]) {
+					case CONSTANT -> constants[step];
+					case VARIABLE -> values[lefts[step]];
+					case CompiledExpression.ADD -> slots[lefts[step]] + slots[rights[step]];
+					case CompiledExpression.SUBTRACT -> slots[lefts[step]] - slots[rights[step]];
+					case CompiledExpression.MULTIPLY -> slots[lefts[step]] * slots[rights[step]];
+					case CompiledExpression.DIVIDE -> ExpressionUtils.divide(slots[lefts[step]], slots[rights[step]]);
+					case CompiledExpression.POWER -> Math.pow(slots[lefts[step]], slots[rights[step]]);
+					default -> CompiledExpression.call(kinds[step], slots[lefts[step]], slots[rights[step]]);
+				};
+			}
+		}
+
+		/**
+		 * @return The number of nodes evaluated per evaluation.
+		 */
+		public int size() {
+			return kinds.length;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package evaluator;
+
+/**
+ * A compiled expression turned into straight-line Java bytecode by the {@link BytecodeGenerator}.
+ */
+interface ExpressionFunction {
+
+	/**
+	 * Evaluates the expression.
+	 *
+	 * @param values The variable values, indexed by slot.
+	 * @return The result of the evaluation.
+	 * @throws ArithmeticException If division by zero is attempted.
+	 */
+	double evaluate(double[] values);
+}
@@ -0,0 +1,340 @@
+package evaluator;
+
+import utils.ExpressionUtils;
+import utils.OperatorRegistry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An optimization pass over the RPN program of a compiled expression. It produces an equivalent
+ * but shorter program by:
+ * <ul>
+ *     <li>folding operators and function calls whose operands are all constants, e.g. {@code (60 * 60 * 24) * x}
+ *     or {@code sqrt(2) * x},</li>
+ *     <li>removing identity operations: {@code x + 0}, {@code 0 + x}, {@code x - 0}, {@code x * 1},
+ *     {@code 1 * x}, {@code x / 1} and {@code x ^ 1},</li>
+ *     <li>reducing {@code x ^ 2} to {@code x * x}.</li>
+ * </ul>
+ * Divisions by a constant zero, and any other constant operation that throws, are left in place so they still
+ * fail at evaluation time.
+ * Removing an added zero can turn a result of -0.0 into 0.0; no other result changes.
+ * Programs with jumps, compiled from {@code and}, {@code or} and {@code if}, are returned unchanged.
+ */
+public final class ExpressionOptimizer {
+
+	/**
+	 * The optimized expression together with a report of what the pass changed.
+	 *
+	 * @param expression          The optimized expression.
+	 * @param instructionsBefore  The number of instructions before optimization.
+	 * @param instructionsAfter   The number of instructions after optimization.
+	 * @param operationsBefore    The number of arithmetic operations before optimization.
+	 * @param operationsAfter     The number of arithmetic operations after optimization.
+	 * @param constantsFolded     The number of operations computed at compile time.
+	 * @param identitiesRemoved   The number of identity operations removed.
+	 * @param strengthReductions  The number of operations replaced by cheaper ones.
+	 */
+	public record Result(CompiledExpression expression, int instructionsBefore, int instructionsAfter,
+						 int operationsBefore, int operationsAfter,
+						 int constantsFolded, int identitiesRemoved, int strengthReductions) {
+
+		/**
+		 * @return The number of arithmetic operations removed from each evaluation.
+		 */
+		public int operationsRemoved() {
+			return operationsBefore - operationsAfter;
+		}
+
+		@Override
+		public String toString() {
+			return "Removed " + operationsRemoved() + " of " + operationsBefore + " operations (" + constantsFolded + " folded, "
+					+ identitiesRemoved + " identities, " + strengthReductions + " strength-reduced); "
+					+ instructionsBefore + " -> " + instructionsAfter + " instructions.";
+		}
+	}
+
+	// The program being built: opcodes, and the constant value of each PUSH
+	private int[] code;
+	private double[] values;
+	private int length;
+
+	// The symbolic operand stack: where each entry's instructions start, and whether it is a constant
+	private final int[] entryStarts;
+	private final boolean[] entryConstant;
+	private int top = -1;
+
+	private int folded;
+	private int identities;
+	private int reductions;
+
+	private ExpressionOptimizer(int capacity, int maxStack) {
+		this.code = new int[capacity];
+		this.values = new double[capacity];
+		this.entryStarts = new int[maxStack + 1];
+		this.entryConstant = new boolean[maxStack + 1];
+	}
+
+	/**
+	 * Optimizes a compiled expression.
+	 *
+	 * @param expression The expression to optimize.
+	 * @return The optimized expression and a report of the changes.
+	 */
+	public static Result optimize(CompiledExpression expression) {
+		if (expression.branching) {
+			// Folding works on the operand stack of a straight-line program
+			int operations = countOperations(expression.code);
+			return new Result(expression, expression.code.length, expression.code.length, operations, operations, 0, 0, 0);
+		}
+		ExpressionOptimizer optimizer = new ExpressionOptimizer(expression.code.length + 1, expression.maxStack());
+		for (int instruction : expression.code) {
+			optimizer.accept(instruction, expression.constants);
+		}
+		CompiledExpression optimized = optimizer.build(expression.variables);
+
+		return new Result(optimized, expression.code.length, optimized.code.length,
+				countOperations(expression.code), countOperations(optimized.code),
+				optimizer.folded, optimizer.identities, optimizer.reductions);
+	}
+
+	/**
+	 * Processes one instruction of the original program.
+	 *
+	 * @param instruction The instruction.
+	 * @param constants   The constant pool of the original program.
+	 */
+	private void accept(int instruction, double[] constants) {
+		int opcode = instruction & CompiledExpression.OPCODE_MASK;
+		int operand = instruction >>> CompiledExpression.OPERAND_SHIFT;
+
+		switch (opcode) {
+			case CompiledExpression.PUSH -> pushConstant(constants[operand]);
+			case CompiledExpression.LOAD -> {
+				entryStarts[++top] = length;
+				entryConstant[top] = false;
+				emit(instruction, 0);
+			}
+			case CompiledExpression.DUPLICATE -> {
+				if (entryConstant[top]) {
+					pushConstant(values[entryStarts[top]]);
+					return;
+				}
+				entryStarts[top + 1] = length;
+				entryConstant[top + 1] = false;
+				top++;
+				emit(instruction, 0);
+			}
+			case CompiledExpression.CALL1 -> unary(instruction);
+			default -> binary(instruction);
+		}
+	}
+
+	/**
+	 * Processes a one-argument function call applied to the topmost entry.
+	 *
+	 * @param instruction The call instruction.
+	 */
+	private void unary(int instruction) {
+		if (entryConstant[top]) {
+			int id = instruction >>> CompiledExpression.OPERAND_SHIFT;
+			double value;
+			try {
+				value = OperatorRegistry.apply(id, values[entryStarts[top]]);
+			} catch (ArithmeticException e) {
+				emit(instruction, 0); // Leave it to fail at evaluation time
+				entryConstant[top] = false;
+				return;
+			}
+			length = entryStarts[top--];
+			pushConstant(value);
+			folded++;
+			return;
+		}
+		emit(instruction, 0);
+	}
+
+	/**
+	 * Processes a binary operator or two-argument function call applied to the two topmost entries.
+	 *
+	 * @param instruction The operator or call instruction.
+	 */
+	private void binary(int instruction) {
+		int opcode = instruction & CompiledExpression.OPCODE_MASK;
+		int right = top--;
+		int left = top;
+		boolean leftConstant = entryConstant[left];
+		boolean rightConstant = entryConstant[right];
+		double a = leftConstant ? values[entryStarts[left]] : 0;
+		double b = rightConstant ? values[entryStarts[right]] : 0;
+
+		// Constant folding, unless the operation throws and so has to fail at evaluation time
+		if (leftConstant && rightConstant && !(opcode == CompiledExpression.DIVIDE && b == 0)) {
+			try {
+				double value = apply(instruction, a, b);
+				length = entryStarts[left];
+				top--;
+				pushConstant(value);
+				folded++;
+				return;
+			} catch (ArithmeticException e) {
+				// Fall through and emit the operation
+			}
+		}
+
+		// Identity elimination with the constant on the right: drop the constant and the operator
+		if (rightConstant && isRightIdentity(opcode, b)) {
+			length = entryStarts[right];
+			identities++;
+			return;
+		}
+
+		// Identity elimination with the constant on the left: drop the constant, keep the right operand
+		if (leftConstant && isLeftIdentity(opcode, a)) {
+			int start = entryStarts[left];
+			int rightStart = entryStarts[right];
+			System.arraycopy(code, rightStart, code, start, length - rightStart);
+			System.arraycopy(values, rightStart, values, start, length - rightStart);
+			length -= rightStart - start;
+			entryConstant[left] = false;
+			identities++;
+			return;
+		}
+
+		// Strength reduction: x ^ 2 becomes x * x
+		if (rightConstant && opcode == CompiledExpression.POWER && b == 2) {
+			length = entryStarts[right];
+			emit(CompiledExpression.DUPLICATE, 0);
+			emit(CompiledExpression.MULTIPLY, 0);
+			entryConstant[left] = false;
+			reductions++;
+			return;
+		}
+
+		emit(instruction, 0);
+		entryConstant[left] = false;
+	}
+
+	/**
+	 * Pushes a constant entry.
+	 *
+	 * @param value The constant value.
+	 */
+	private void pushConstant(double value) {
+		entryStarts[++top] = length;
+		entryConstant[top] = true;
+		emit(CompiledExpression.PUSH, value);
+	}
+
+	/**
+	 * Appends an instruction to the program being built.
+	 *
+	 * @param instruction The instruction; PUSH operands are resolved when the program is built.
+	 * @param value       The constant value of a PUSH instruction.
+	 */
+	private void emit(int instruction, double value) {
+		if (length == code.length) {
+			code = Arrays.copyOf(code, length * 2);
+			values = Arrays.copyOf(values, length * 2);
+		}
+		code[length] = instruction;
+		values[length] = value;
+		length++;
+	}
+
+	/**
+	 * Builds the optimized expression, giving it a fresh constant pool without duplicates.
+	 *
+	 * @param variables The variable names of the original expression.
+	 * @return The optimized expression.
+	 */
+	private CompiledExpression build(String[] variables) {
+		int[] program = Arrays.copyOf(code, length);
+		double[] constants = new double[length];
+		Map<Long, Integer> pool = new HashMap<>();
+
+		for (int i = 0; i < length; i++) {
+			if ((program[i] & CompiledExpression.OPCODE_MASK) == CompiledExpression.PUSH) {
+				long bits = Double.doubleToRawLongBits(values[i]);
+				Integer index = pool.get(bits);
+				if (index == null) {
+					index = pool.size();
+					pool.put(bits, index);
+					constants[index] = values[i];
+				}
+				program[i] = CompiledExpression.PUSH | (index << CompiledExpression.OPERAND_SHIFT);
+			}
+		}
+
+		return new CompiledExpression(program, Arrays.copyOf(constants, pool.size()), variables,
+				CompiledExpression.maxStack(program));
+	}
+
+	/**
+	 * @param opcode The operator opcode.
+	 * @param value  The constant right operand.
+	 * @return True if applying the operator with this right operand returns the left operand unchanged.
+	 */
+	private static boolean isRightIdentity(int opcode, double value) {
+		return switch (opcode) {
+			case CompiledExpression.ADD, CompiledExpression.SUBTRACT -> value == 0;
+			case CompiledExpression.MULTIPLY, CompiledExpression.DIVIDE, CompiledExpression.POWER -> value == 1;
+			default -> false;
+		};
+	}
+
+	/**
+	 * @param opcode The operator opcode.
+	 * @param value  The constant left operand.
+	 * @return True if applying the operator with this left operand returns the right operand unchanged.
+	 */
+	private static boolean isLeftIdentity(int opcode, double value) {
+		return switch (opcode) {
+			case CompiledExpression.ADD -> value == 0;
+			case CompiledExpression.MULTIPLY -> value == 1;
+			default -> false;
+		};
+	}
+
+	/**
+	 * Computes an operator or call at compile time, exactly as the interpreter would.
+	 *
+	 * @param instruction The operator or call instruction.
+	 * @param a           The first operand.
+	 * @param b           The second operand.
+	 * @return The result.
+	 * @throws ArithmeticException If the operation fails.
+	 */
+	private static double apply(int instruction, double a, double b) {
+		int opcode = instruction & CompiledExpression.OPCODE_MASK;
+		return switch (opcode) {
+			case CompiledExpression.ADD -> a + b;
+			case CompiledExpression.SUBTRACT -> a - b;
+			case CompiledExpression.MULTIPLY -> a * b;
+			case CompiledExpression.DIVIDE -> ExpressionUtils.divide(a, b);
+			case CompiledExpression.POWER -> Math.pow(a, b);
+			case CompiledExpression.CALL2 -> OperatorRegistry.apply(instruction >>> CompiledExpression.OPERAND_SHIFT, a, b);
+			default -> throw new IllegalStateException("Unknown opcode: " + opcode);
+		};
+	}
+
+	/**
+	 * Counts the arithmetic operations of a program, i.e. the instructions that are not
+	 * loads, constants, duplications or jumps.
+	 *
+	 * @param program The program.
+	 * @return The number of arithmetic operations.
+	 */
+	private static int countOperations(int[] program) {
+		int count = 0;
+		for (int instruction : program) {
+			int opcode = instruction & CompiledExpression.OPCODE_MASK;
+			if (opcode != CompiledExpression.PUSH && opcode != CompiledExpression.LOAD && opcode != CompiledExpression.DUPLICATE
+					&& !CompiledExpression.isJump(opcode)) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -1,9 +1,20 @@
 package evaluator;
 
-import java.util.Stack;
+import metrics.EvaluatorMetrics;
+import metrics.Operation;
+import utils.DoubleStack;
+import utils.Notation;
+import utils.OperatorRegistry;
+import utils.TokenStream;
+import utils.TokenReader;
+import utils.Tokenizer;
+import utils.UnboundVariableException;
 
-import utils.Checker;
-import utils.ExpressionUtils;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
 
 /**
  * A utility class for evaluating postfix expressions.
@@ -19,33 +30,87 @@ public class PostfixEvaluation {
 	 * @throws IllegalArgumentException If the expression is null, empty, or invalid.
 	 */
 	public static double evaluate(String expression) {
-		// Validate the expression
-		Checker.isNullOrEmpty(expression);
+		if (!EvaluatorMetrics.enabled()) {
+			return evaluate(Tokenizer.tokenize(expression, Notation.POSTFIX));
+		}
+		long start = System.nanoTime();
+		try {
+			TokenStream tokens = Tokenizer.tokenize(expression, Notation.POSTFIX);
+			EvaluatorMetrics.tokens(Operation.POSTFIX_EVALUATION, tokens.size());
+			double result = evaluate(tokens);
+			EvaluatorMetrics.success(Operation.POSTFIX_EVALUATION, start);
+			return result;
+		} catch (RuntimeException e) {
+			EvaluatorMetrics.failure(Operation.POSTFIX_EVALUATION, start, e);
+			throw e;
+		}
+	}
 
-		// Check if the expression is a valid postfix expression
-		if (!Checker.isValidPostfix(expression)) {
-			throw new IllegalArgumentException("Invalid postfix expression.");
+	/**
+	 * Evaluates a postfix expression exactly, using long arithmetic while values are integers that fit
+	 * and BigDecimal rounded with the given context otherwise.
+	 *
+	 * @param expression The postfix expression to evaluate.
+	 * @param context    The precision and rounding for values that are not longs.
+	 * @return The exact result of the evaluation.
+	 * @throws IllegalArgumentException If the expression is null, empty, or invalid.
+	 * @see ExactEvaluation
+	 */
+	public static BigDecimal evaluate(String expression, MathContext context) {
+		return ExactEvaluation.evaluatePostfix(expression, context);
+	}
+
+	/**
+	 * Evaluates an expression encoded by {@link ExpressionCodec} without parsing any text.
+	 * The encoding holds compiled instructions, so it can come from an expression in any notation.
+	 *
+	 * @param buffer The buffer holding the encoded expression, read from its position.
+	 * @return The result of the evaluation as a double.
+	 * @throws IllegalArgumentException If the buffer does not hold a valid encoded expression.
+	 */
+	public static double evaluate(ByteBuffer buffer) {
+		return ExpressionCodec.evaluate(buffer);
+	}
+
+	/**
+	 * Evaluates a tokenized postfix expression and returns the result.
+	 * Expressions with {@code and}, {@code or} or {@code if} are compiled first, so that only the operands
+	 * they need are computed.
+	 *
+	 * @param tokens The postfix token stream to evaluate.
+	 * @return The result of the evaluation as a double.
+	 * @throws IllegalArgumentException If the token stream is not a postfix expression.
+	 */
+	public static double evaluate(TokenStream tokens) {
+		tokens.requireNotation(Notation.POSTFIX);
+		if (tokens.hasLazyOperators()) {
+			return CompiledExpression.evaluateConstant(tokens);
 		}
 
 		// Stack to hold operands during evaluation
-		Stack<Double> stack = new Stack<>();
-
-		// Split the expression into tokens (numbers and operators)
-		String[] tokens = expression.split("\\s+");
+		DoubleStack stack = new DoubleStack(16);
 
 		// Process each token in the expression
-		for (String token : tokens) {
-			if (token.isEmpty()) continue; // Skip empty tokens
-
+		for (int i = 0; i < tokens.size(); i++) {
 			// If the token is a number, push it onto the stack
-			if (ExpressionUtils.isNumber(token)) {
-				stack.push(Double.parseDouble(token));
+			if (tokens.kind(i) == TokenStream.NUMBER) {
+				stack.push(tokens.value(i));
+			}
+			// Variables need values, which only a CompiledExpression can bind
+			else if (tokens.kind(i) == TokenStream.VARIABLE) {
+				throw new UnboundVariableException(tokens.text(i));
 			}
-			// If the token is an operator, perform the operation
-			else if (ExpressionUtils.isOperator(token.charAt(0))) {
-				double secondOperand = stack.pop(); // Pop the second operand
-				double firstOperand = stack.pop();  // Pop the first operand
-				double result = ExpressionUtils.applyOperator(firstOperand, token.charAt(0), secondOperand); // Apply the operator
+			// Otherwise the token is an operator or function, so perform the operation
+			else {
+				int operator = tokens.operator(i);
+				double result;
+				if (OperatorRegistry.arity(operator) == 1) {
+					result = OperatorRegistry.apply(operator, stack.pop()); // Apply the function to its argument
+				} else {
+					double secondOperand = stack.pop(); // Pop the second operand
+					double firstOperand = stack.pop();  // Pop the first operand
+					result = OperatorRegistry.apply(operator, firstOperand, secondOperand); // Apply the operator
+				}
 				stack.push(result); // Push the result back onto the stack
 			}
 		}
@@ -53,4 +118,56 @@ public class PostfixEvaluation {
 		// The final result is the only remaining value on the stack
 		return stack.pop();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Evaluates a postfix expression read from a reader, one token at a time.
+	 * Memory use is bounded by the number of operands waiting for an operator, not by the length of the input.
+	 *
+	 * @param in The reader holding the postfix expression. It is not closed.
+	 * @return The result of the evaluation as a double.
+	 * @throws IOException              If reading fails.
+	 * @throws IllegalArgumentException If the expression is empty or invalid.
+	 */
+	public static double evaluate(Reader in) throws IOException {
+		return evaluate(TokenReader.of(in, Notation.POSTFIX));
+	}
+
+	/**
+	 * Evaluates the postfix expression of a token reader, one token at a time.
+	 * The operands of {@code and}, {@code or} and {@code if} have all been computed by the time the operator
+	 * is read, so this path is not lazy: a division by zero in an untaken branch still throws.
+	 *
+	 * @param tokens The postfix token reader.
+	 * @return The result of the evaluation as a double.
+	 * @throws IOException              If reading fails.
+	 * @throws IllegalArgumentException If the expression is empty or invalid.
+	 */
+	public static double evaluate(TokenReader tokens) throws IOException {
+		tokens.requireNotation(Notation.POSTFIX);
+
+		// Stack to hold operands during evaluation
+		DoubleStack stack = new DoubleStack(16);
+
+		int kind;
+		while ((kind = tokens.next()) != TokenReader.END) {
+			if (kind == TokenStream.NUMBER) {
+				stack.push(tokens.value());
+			} else if (kind == TokenStream.VARIABLE) {
+				throw new UnboundVariableException(tokens.text().toString());
+			} else if (OperatorRegistry.arity(tokens.operator()) == 1) {
+				stack.push(OperatorRegistry.apply(tokens.operator(), stack.pop()));
+			} else if (OperatorRegistry.arity(tokens.operator()) == 3) {
+				double otherwise = stack.pop();
+				double then = stack.pop();
+				stack.push(stack.pop() != 0 ? then : otherwise); // if(condition, then, otherwise)
+			} else {
+				double secondOperand = stack.pop();
+				double firstOperand = stack.pop();
+				stack.push(OperatorRegistry.apply(tokens.operator(), firstOperand, secondOperand));
+			}
+		}
+
+		// The reader has checked that exactly one value is left
+		return stack.pop();
+	}
+}
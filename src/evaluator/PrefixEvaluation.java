@@ -1,9 +1,21 @@
 package evaluator;
 
-import java.util.Stack;
+import metrics.EvaluatorMetrics;
+import metrics.Operation;
+import utils.DoubleStack;
+import utils.IntStack;
+import utils.Notation;
+import utils.OperatorRegistry;
+import utils.TokenStream;
+import utils.TokenReader;
+import utils.Tokenizer;
+import utils.UnboundVariableException;
 
-import utils.Checker;
-import utils.ExpressionUtils;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
 
 /**
  * A utility class for evaluating prefix expressions.
@@ -11,6 +23,13 @@ import utils.ExpressionUtils;
  */
 public class PrefixEvaluation {
 
+	// The states of a waiting operator: no operand yet, the first of two operands on the operand stack, the next
+	// operand is its result, or the next operand is its result and the one after it is skipped
+	private static final int WAITING = 0;
+	private static final int HAVE_FIRST = 1;
+	private static final int PASS = 2;
+	private static final int PASS_AND_SKIP = 3;
+
 	/**
 	 * Evaluates a prefix expression and returns the result.
 	 *
@@ -19,53 +38,203 @@ public class PrefixEvaluation {
 	 * @throws IllegalArgumentException If the expression is null, empty, invalid, or contains unsupported tokens.
 	 */
 	public static double evaluate(String expression) {
-		// Validate the expression
-		Checker.isNullOrEmpty(expression);
-
-		// Check if the expression is a valid prefix expression
-		if (!Checker.isValidPrefix(expression)) {
-			throw new IllegalArgumentException("Invalid prefix expression.");
+		if (!EvaluatorMetrics.enabled()) {
+			return evaluate(Tokenizer.tokenize(expression, Notation.PREFIX));
 		}
+		long start = System.nanoTime();
+		try {
+			TokenStream tokens = Tokenizer.tokenize(expression, Notation.PREFIX);
+			EvaluatorMetrics.tokens(Operation.PREFIX_EVALUATION, tokens.size());
+			double result = evaluate(tokens);
+			EvaluatorMetrics.success(Operation.PREFIX_EVALUATION, start);
+			return result;
+		} catch (RuntimeException e) {
+			EvaluatorMetrics.failure(Operation.PREFIX_EVALUATION, start, e);
+			throw e;
+		}
+	}
 
-		// Stack to hold operands during evaluation
-		Stack<Double> stack = new Stack<>();
+	/**
+	 * Evaluates a prefix expression exactly, using long arithmetic while values are integers that fit
+	 * and BigDecimal rounded with the given context otherwise.
+	 *
+	 * @param expression The prefix expression to evaluate.
+	 * @param context    The precision and rounding for values that are not longs.
+	 * @return The exact result of the evaluation.
+	 * @throws IllegalArgumentException If the expression is null, empty, or invalid.
+	 * @see ExactEvaluation
+	 */
+	public static BigDecimal evaluate(String expression, MathContext context) {
+		return ExactEvaluation.evaluatePrefix(expression, context);
+	}
 
-		// Split the expression into tokens (numbers and operators)
-		String[] tokens = expression.split("\\s+");
+	/**
+	 * Evaluates an expression encoded by {@link ExpressionCodec} without parsing any text.
+	 * The encoding holds compiled instructions, so it can come from an expression in any notation.
+	 *
+	 * @param buffer The buffer holding the encoded expression, read from its position.
+	 * @return The result of the evaluation as a double.
+	 * @throws IllegalArgumentException If the buffer does not hold a valid encoded expression.
+	 */
+	public static double evaluate(ByteBuffer buffer) {
+		return ExpressionCodec.evaluate(buffer);
+	}
 
-		// Process each token in the expression in reverse order
-		for (int i = tokens.length - 1; i >= 0; i--) {
-			String token = tokens[i];
+	/**
+	 * Evaluates a tokenized prefix expression and returns the result.
+	 * Expressions with {@code and}, {@code or} or {@code if} are compiled first, so that only the operands
+	 * they need are computed.
+	 *
+	 * @param tokens The prefix token stream to evaluate.
+	 * @return The result of the evaluation as a double.
+	 * @throws IllegalArgumentException If the token stream is not a prefix expression.
+	 */
+	public static double evaluate(TokenStream tokens) {
+		tokens.requireNotation(Notation.PREFIX);
+		if (tokens.hasLazyOperators()) {
+			return CompiledExpression.evaluateConstant(tokens);
+		}
 
-			if (token.isEmpty()) continue; // Skip empty tokens
+		// Stack to hold operands during evaluation
+		DoubleStack stack = new DoubleStack(16);
 
+		// Process each token in the expression in reverse order
+		for (int i = tokens.size() - 1; i >= 0; i--) {
 			// If the token is a number, push it onto the stack
-			if (ExpressionUtils.isNumber(token)) {
-				stack.push(Double.parseDouble(token));
+			if (tokens.kind(i) == TokenStream.NUMBER) {
+				stack.push(tokens.value(i));
 			}
-			// If the token is an operator, perform the operation
-			else if (ExpressionUtils.isOperator(token.charAt(0))) {
-				// Ensure there are enough operands on the stack
-				if (stack.size() < 2) {
-					throw new IllegalArgumentException("Invalid prefix expression: not enough operands for operator " + token);
-				}
-				double firstOperand = stack.pop(); // Pop the first operand
-				double secondOperand = stack.pop(); // Pop the second operand
-				double result = ExpressionUtils.applyOperator(firstOperand, token.charAt(0), secondOperand); // Apply the operator
-				stack.push(result); // Push the result back onto the stack
+			// Variables need values, which only a CompiledExpression can bind
+			else if (tokens.kind(i) == TokenStream.VARIABLE) {
+				throw new UnboundVariableException(tokens.text(i));
 			}
-			// If the token is neither a number nor an operator, throw an exception
+			// Otherwise the token is an operator or function, so perform the operation
 			else {
-				throw new IllegalArgumentException("Invalid token in expression: " + token);
+				int operator = tokens.operator(i);
+				double result;
+				if (OperatorRegistry.arity(operator) == 1) {
+					result = OperatorRegistry.apply(operator, stack.pop()); // Apply the function to its argument
+				} else {
+					double firstOperand = stack.pop(); // Pop the first operand
+					double secondOperand = stack.pop(); // Pop the second operand
+					result = OperatorRegistry.apply(operator, firstOperand, secondOperand); // Apply the operator
+				}
+				stack.push(result); // Push the result back onto the stack
 			}
 		}
 
-		// Ensure there is exactly one value left on the stack (the final result)
-		if (stack.size() != 1) {
-			throw new IllegalArgumentException("Invalid prefix expression: too many operands.");
-		}
-
 		// The final result is the only remaining value on the stack
 		return stack.pop();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Evaluates a prefix expression read from a reader, one token at a time.
+	 * Operators wait on a stack until their operands arrive, so memory use is bounded by the depth
+	 * of the expression tree rather than the length of the input.
+	 *
+	 * @param in The reader holding the prefix expression. It is not closed.
+	 * @return The result of the evaluation as a double.
+	 * @throws IOException              If reading fails.
+	 * @throws IllegalArgumentException If the expression is empty or invalid.
+	 */
+	public static double evaluate(Reader in) throws IOException {
+		return evaluate(TokenReader.of(in, Notation.PREFIX));
+	}
+
+	/**
+	 * Evaluates the prefix expression of a token reader in a single forward pass.
+	 * The operator comes before its operands, so {@code and}, {@code or} and {@code if} read past the operand
+	 * they do not need without computing it.
+	 *
+	 * @param tokens The prefix token reader.
+	 * @return The result of the evaluation as a double.
+	 * @throws IOException              If reading fails.
+	 * @throws IllegalArgumentException If the expression is empty or invalid.
+	 */
+	public static double evaluate(TokenReader tokens) throws IOException {
+		tokens.requireNotation(Notation.PREFIX);
+
+		// Operators and functions waiting for operands, stored as their registry ids shifted left by two
+		// above their state
+		IntStack operators = new IntStack(16);
+		DoubleStack firstOperands = new DoubleStack(16);
+		double result = 0;
+
+		int kind;
+		while ((kind = tokens.next()) != TokenReader.END) {
+			if (kind == TokenStream.OPERATOR || kind == TokenStream.FUNCTION) {
+				operators.push(tokens.operator() << 2 | WAITING);
+				continue;
+			}
+			if (kind == TokenStream.VARIABLE) {
+				throw new UnboundVariableException(tokens.text().toString());
+			}
+
+			// A complete operand either fills the first slot of the innermost operator or completes it
+			double value = tokens.value();
+			while (!operators.isEmpty()) {
+				int operator = operators.peek() >>> 2;
+				int state = operators.peek() & 3;
+				if (state == PASS) {
+					operators.pop(); // The operand is the result
+				} else if (state == PASS_AND_SKIP) {
+					operators.pop(); // The then-branch is the result, so the else-branch is never computed
+					skip(tokens);
+				} else if (OperatorRegistry.arity(operator) == 1) {
+					operators.pop();
+					value = OperatorRegistry.apply(operator, value);
+				} else if (operator == OperatorRegistry.IF) {
+					operators.pop();
+					if (value != 0) {
+						operators.push(operator << 2 | PASS_AND_SKIP);
+					} else {
+						skip(tokens);
+						operators.push(operator << 2 | PASS);
+					}
+					break;
+				} else if (operator == OperatorRegistry.AND || operator == OperatorRegistry.OR) {
+					operators.pop();
+					if ((value == 0) == (operator == OperatorRegistry.AND)) {
+						skip(tokens); // The first operand decides, and is the result
+					} else {
+						operators.push(operator << 2 | PASS);
+						break;
+					}
+				} else if (state == HAVE_FIRST) {
+					operators.pop();
+					value = OperatorRegistry.apply(operator, firstOperands.pop(), value);
+				} else {
+					operators.push(operators.pop() | HAVE_FIRST);
+					firstOperands.push(value);
+					break;
+				}
+			}
+			if (operators.isEmpty()) {
+				result = value;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Reads past one complete operand of a prefix expression without computing it.
+	 *
+	 * @param tokens The prefix token reader, positioned before the operand.
+	 * @throws IOException              If reading fails.
+	 * @throws IllegalArgumentException If the expression is invalid or has a variable.
+	 */
+	private static void skip(TokenReader tokens) throws IOException {
+		int open = 1; // Operands still to be read
+		while (open > 0) {
+			int kind = tokens.next();
+			if (kind == TokenStream.OPERATOR || kind == TokenStream.FUNCTION) {
+				open += OperatorRegistry.arity(tokens.operator()) - 1;
+			} else if (kind == TokenStream.VARIABLE) {
+				throw new UnboundVariableException(tokens.text().toString());
+			} else {
+				open--;
+			}
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package main;
+
+import converter.InfixToPostfixConverter;
+import converter.InfixToPrefixConverter;
+import evaluator.CompiledExpression;
+import evaluator.PostfixEvaluation;
+import evaluator.PrefixEvaluation;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * A non-interactive batch mode that reads one expression per line and streams one result per line.
+ * Input and output are buffered and processed line by line, so memory use stays constant
+ * regardless of the size of the input. With more than one thread, lines are processed in parallel
+ * by a {@link ParallelBatchPipeline} and results are still written in input order.
+ *
+ * <pre>
+ * java -cp bin main.EvaluatorMain --batch [--from=infix|postfix|prefix] [--to=value|postfix|prefix]
+ *                                 [--input=FILE] [--output=FILE] [--threads=N] [--chunk-size=N]
+ * </pre>
+ */
+public class BatchEvaluator {
+
+	// Size of the input and output buffers
+	static final int BUFFER_SIZE = 1 << 16;
+
+	// Prefix written in place of a result when a line cannot be processed
+	static final String ERROR_PREFIX = "ERROR: ";
+
+	static final String USAGE = "Usage: java -cp bin main.EvaluatorMain --batch [--from=infix|postfix|prefix]"
+			+ " [--to=value|postfix|prefix] [--input=FILE] [--output=FILE] [--threads=N] [--chunk-size=N]";
+
+	// Number of lines handed to a worker at a time
+	static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	private String from = "infix";
+	private String to = "value";
+	private Path input;
+	private Path output;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Runs the batch mode with the given command-line arguments.
+	 *
+	 * @param args The command-line arguments, starting with --batch.
+	 */
+	public static void main(String[] args) {
+		try {
+			BatchEvaluator batch = new BatchEvaluator();
+			batch.parseArguments(args);
+			batch.run();
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the batch options from the command-line arguments.
+	 *
+	 * @param args The command-line arguments.
+	 * @throws IllegalArgumentException If an argument is unknown.
+	 */
+	void parseArguments(String[] args) {
+		for (String arg : args) {
+			if (arg.equals("--batch")) {
+				continue;
+			}
+			int separator = arg.indexOf('=');
+			String name = separator < 0 ? arg : arg.substring(0, separator);
+			String value = separator < 0 ? "" : arg.substring(separator + 1);
+
+			switch (name) {
+				case "--from" -> from = value.toLowerCase();
+				case "--to" -> to = value.toLowerCase();
+				case "--input" -> input = Path.of(value);
+				case "--output" -> output = Path.of(value);
+				case "--threads" -> threads = parseCount(name, value);
+				case "--chunk-size" -> chunkSize = parseCount(name, value);
+				default -> throw new IllegalArgumentException("Unknown option: " + name);
+			}
+		}
+	}
+
+	/**
+	 * Parses the value of a numeric option.
+	 *
+	 * @param name  The option name.
+	 * @param value The option value.
+	 * @return The positive number given as the value.
+	 * @throws IllegalArgumentException If the value is not a positive number.
+	 */
+	private static int parseCount(String name, String value) {
+		try {
+			int count = Integer.parseInt(value);
+			if (count > 0) {
+				return count;
+			}
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw new IllegalArgumentException("Option " + name + " needs a positive number.");
+	}
+
+	/**
+	 * Processes every line of the input and writes one result line per input line.
+	 *
+	 * @throws IOException If the input cannot be read or the output cannot be written.
+	 */
+	void run() throws IOException {
+		Function<String, String> operation = operation(from, to);
+
+		try (BufferedReader reader = new BufferedReader(openInput(), BUFFER_SIZE);
+			 Writer writer = new BufferedWriter(openOutput(), BUFFER_SIZE)) {
+			if (threads > 1) {
+				new ParallelBatchPipeline(threads, chunkSize).process(reader, writer, operation);
+			} else {
+				process(reader, writer, operation);
+			}
+		}
+	}
+
+	/**
+	 * Streams the lines of the reader through the operation into the writer.
+	 *
+	 * @param reader    The source of expressions, one per line.
+	 * @param writer    The destination of results, one per line.
+	 * @param operation The conversion or evaluation to apply to each line.
+	 * @throws IOException If the input cannot be read or the output cannot be written.
+	 */
+	void process(BufferedReader reader, Writer writer, Function<String, String> operation) throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			writer.write(apply(operation, line));
+			writer.write('\n');
+		}
+	}
+
+	/**
+	 * Applies the operation to one line, turning failures into an error line.
+	 * Blank lines produce blank results so output lines stay aligned with input lines.
+	 *
+	 * @param operation The conversion or evaluation to apply.
+	 * @param line      The input line.
+	 * @return The result line.
+	 */
+	static String apply(Function<String, String> operation, String line) {
+		if (line.isBlank()) {
+			return "";
+		}
+		try {
+			return operation.apply(line);
+		} catch (IllegalArgumentException | ArithmeticException e) {
+			return ERROR_PREFIX + e.getMessage();
+		}
+	}
+
+	/**
+	 * Selects the operation that turns one input line into one result line.
+	 *
+	 * @param from The notation of the input expressions.
+	 * @param to   "value" to evaluate, or the notation to convert infix expressions to.
+	 * @return The operation to apply to each line.
+	 * @throws IllegalArgumentException If the combination of notations is not supported.
+	 */
+	static Function<String, String> operation(String from, String to) {
+		return switch (from + "->" + to) {
+			case "infix->value" -> line -> Double.toString(CompiledExpression.fromInfix(line).evaluate());
+			case "postfix->value" -> line -> Double.toString(PostfixEvaluation.evaluate(line));
+			case "prefix->value" -> line -> Double.toString(PrefixEvaluation.evaluate(line));
+			case "infix->postfix" -> InfixToPostfixConverter::convert;
+			case "infix->prefix" -> InfixToPrefixConverter::convert;
+			default -> throw new IllegalArgumentException("Unsupported batch operation: " + from + " to " + to + ".");
+		};
+	}
+
+	/**
+	 * @return A reader over the input file, or over standard input if no file was given.
+	 * @throws IOException If the input file cannot be opened.
+	 */
+	private Reader openInput() throws IOException {
+		if (input == null) {
+			return new InputStreamReader(System.in, StandardCharsets.UTF_8);
+		}
+		return Files.newBufferedReader(input, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return A writer to the output file, or to standard output if no file was given.
+	 * @throws IOException If the output file cannot be created.
+	 */
+	private Writer openOutput() throws IOException {
+		if (output == null) {
+			return new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+		}
+		return Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+	}
+}
@@ -4,8 +4,12 @@ import converter.InfixToPostfixConverter;
 import converter.InfixToPrefixConverter;
 import evaluator.PostfixEvaluation;
 import evaluator.PrefixEvaluation;
-import utils.Checker;
+import server.EvaluationServer;
+import utils.Notation;
+import utils.TokenStream;
+import utils.Tokenizer;
 
+import java.io.IOException;
 import java.util.Scanner;
 import java.util.function.Function;
 
@@ -37,9 +41,20 @@ public class EvaluatorMain {
 	/**
 	 * The main method that starts the application.
 	 *
-	 * @param args Command-line arguments (not used).
+	 * @param args Command-line arguments; pass --batch to process expressions non-interactively,
+	 *             or --serve to run the HTTP evaluation service.
+	 * @throws IOException If the HTTP service cannot bind its port.
 	 */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("--batch")) {
+			BatchEvaluator.main(args);
+			return;
+		}
+		if (args.length > 0 && args[0].equals("--serve")) {
+			EvaluationServer.main(args);
+			return;
+		}
+
 		Scanner scanner = new Scanner(System.in);
 		EvaluatorMain evaluator = new EvaluatorMain();
 
@@ -153,21 +168,16 @@ public class EvaluatorMain {
 	 * @param to       The target notation (e.g., "postfix").
 	 * @param converter The function to perform the conversion.
 	 */
-	private void handleConversion(Scanner scanner, String from, String to, Function<String, String> converter) {
+	private void handleConversion(Scanner scanner, String from, String to, Function<TokenStream, String> converter) {
 		System.out.print(CYAN + BOLD + "Enter the " + from + " expression: " + RESET);
 		String expression = scanner.nextLine().trim();
 
 		try {
-			if (from.equals("infix")) {
-				Checker.isValidCharacters(expression);
-			} else if (to.equals("postfix") && !Checker.isValidPostfix(expression)) {
-				throw new IllegalArgumentException("Invalid postfix expression.");
-			} else if (to.equals("prefix") && !Checker.isValidPrefix(expression)) {
-				throw new IllegalArgumentException("Invalid prefix expression.");
-			}
+			// Tokenize once; the tokenizer validates the expression in the same pass
+			TokenStream tokens = Tokenizer.tokenize(expression, Notation.valueOf(from.toUpperCase()));
 
 			showProgressBar("Converting " + from + " to " + to + "...");
-			String result = converter.apply(expression);
+			String result = converter.apply(tokens);
 			System.out.println(GREEN + BOLD + to.substring(0, 1).toUpperCase() + to.substring(1) + " Expression: " + RESET + result);
 		} catch (IllegalArgumentException e) {
 			System.out.println(RED + BOLD + e.getMessage() + RESET);
@@ -181,21 +191,16 @@ public class EvaluatorMain {
 	 * @param type     The type of expression (e.g., "postfix").
 	 * @param evaluator The function to perform the evaluation.
 	 */
-	private void handleEvaluation(Scanner scanner, String type, Function<String, Double> evaluator) {
+	private void handleEvaluation(Scanner scanner, String type, Function<TokenStream, Double> evaluator) {
 		System.out.print(CYAN + BOLD + "Enter the " + type + " expression: " + RESET);
 		String expression = scanner.nextLine().trim();
 
 		try {
-			Checker.isValidCharacters(expression);
-
-			if (type.equals("postfix") && !Checker.isValidPostfix(expression)) {
-				throw new IllegalArgumentException("Invalid postfix expression.");
-			} else if (type.equals("prefix") && !Checker.isValidPrefix(expression)) {
-				throw new IllegalArgumentException("Invalid prefix expression.");
-			}
+			// Tokenize once; the tokenizer validates the expression in the same pass
+			TokenStream tokens = Tokenizer.tokenize(expression, Notation.valueOf(type.toUpperCase()));
 
 			showProgressBar("Evaluating " + type + " expression...");
-			double result = evaluator.apply(expression);
+			double result = evaluator.apply(tokens);
 			System.out.println(GREEN + BOLD + "Result: " + RESET + result);
 		} catch (IllegalArgumentException e) {
 			System.out.println(RED + BOLD + e.getMessage() + RESET);
@@ -0,0 +1,137 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Processes batch input on several cores while keeping the output in input order.
+ * Lines are read in chunks and each chunk is processed on a work-stealing pool.
+ * Pending chunks are kept in submission order and written as soon as the oldest one is done,
+ * which acts as a reorder buffer. At most a fixed number of chunks are in flight at a time,
+ * so reading blocks while the workers catch up and memory use stays bounded.
+ */
+public class ParallelBatchPipeline {
+
+	private final int threads;
+	private final int chunkSize;
+	private final int maxChunksInFlight;
+
+	/**
+	 * Creates a pipeline.
+	 *
+	 * @param threads   The number of worker threads.
+	 * @param chunkSize The number of lines processed by one task.
+	 * @throws IllegalArgumentException If the thread count or the chunk size is not positive.
+	 */
+	public ParallelBatchPipeline(int threads, int chunkSize) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Thread count must be positive.");
+		}
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive.");
+		}
+		this.threads = threads;
+		this.chunkSize = chunkSize;
+		this.maxChunksInFlight = threads * 4; // Enough queued work to keep every worker busy
+	}
+
+	/**
+	 * Streams the lines of the reader through the operation into the writer, in input order.
+	 *
+	 * @param reader    The source of expressions, one per line.
+	 * @param writer    The destination of results, one per line.
+	 * @param operation The conversion or evaluation to apply to each line.
+	 * @throws IOException If the input cannot be read or the output cannot be written.
+	 */
+	public void process(BufferedReader reader, Writer writer, Function<String, String> operation) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		ArrayDeque<Future<String[]>> inFlight = new ArrayDeque<>(maxChunksInFlight);
+
+		try {
+			String[] chunk;
+			while ((chunk = readChunk(reader)) != null) {
+				// Back-pressure: wait for the oldest chunk before reading more
+				if (inFlight.size() == maxChunksInFlight) {
+					write(inFlight.poll(), writer);
+				}
+				String[] lines = chunk;
+				inFlight.add(pool.submit(() -> processChunk(lines, operation)));
+			}
+
+			// Write the remaining chunks in submission order
+			while (!inFlight.isEmpty()) {
+				write(inFlight.poll(), writer);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads up to one chunk of lines.
+	 *
+	 * @param reader The source of expressions.
+	 * @return The lines read, or null at the end of the input.
+	 * @throws IOException If the input cannot be read.
+	 */
+	private String[] readChunk(BufferedReader reader) throws IOException {
+		String[] lines = new String[chunkSize];
+		int count = 0;
+		String line;
+		while (count < chunkSize && (line = reader.readLine()) != null) {
+			lines[count++] = line;
+		}
+		if (count == 0) {
+			return null;
+		}
+		return count == chunkSize ? lines : Arrays.copyOf(lines, count);
+	}
+
+	/**
+	 * Applies the operation to every line of a chunk, replacing each line with its result.
+	 *
+	 * @param lines     The lines of the chunk.
+	 * @param operation The conversion or evaluation to apply.
+	 * @return The results, in the same order as the lines.
+	 */
+	private static String[] processChunk(String[] lines, Function<String, String> operation) {
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = BatchEvaluator.apply(operation, lines[i]);
+		}
+		return lines;
+	}
+
+	/**
+	 * Waits for a chunk to finish and writes its results.
+	 *
+	 * @param pending The chunk being processed.
+	 * @param writer  The destination of results.
+	 * @throws IOException If the output cannot be written or the thread is interrupted.
+	 */
+	private static void write(Future<String[]> pending, Writer writer) throws IOException {
+		String[] results;
+		try {
+			results = pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Batch processing was interrupted.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw new IOException(e.getCause());
+		}
+
+		for (String result : results) {
+			writer.write(result);
+			writer.write('\n');
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event emitted for every instrumented call while metrics are enabled and the
+ * event is enabled in the recording.
+ */
+@Name("mathexpr.Evaluation")
+@Label("Expression Operation")
+@Category("Math Expression Converter")
+@Description("A conversion or evaluation of one expression")
+@StackTrace(false)
+final class EvaluationEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Latency")
+	@Timespan(Timespan.NANOSECONDS)
+	long latency;
+
+	@Label("Failure")
+	String failure;
+}
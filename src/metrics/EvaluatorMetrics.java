@@ -0,0 +1,289 @@
+package metrics;
+
+import converter.ConversionCache;
+import converter.InfixToPostfixConverter;
+import converter.InfixToPrefixConverter;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Built-in instrumentation for the conversion and evaluation entry points.
+ * While enabled, every call records its latency in a {@link LatencyHistogram}, counts its tokens and,
+ * on failure, the kind of failure, and emits an {@link EvaluationEvent} to Flight Recorder.
+ * While disabled, an entry point pays for one volatile read.
+ *
+ * <p>Metrics start disabled unless the {@code evaluator.metrics} system property is {@code true}.
+ * Enabling them registers an MXBean named {@value #OBJECT_NAME}.</p>
+ */
+public final class EvaluatorMetrics implements EvaluatorMetricsMXBean {
+
+	public static final String OBJECT_NAME = "MathExpressionConverter:type=EvaluatorMetrics";
+
+	private static final Operation[] OPERATIONS = Operation.values();
+	private static final Failure[] FAILURES = Failure.values();
+
+	private static final LatencyHistogram[] LATENCIES = new LatencyHistogram[OPERATIONS.length];
+	private static final LongAdder[] TOKENS = new LongAdder[OPERATIONS.length];
+	private static final LongAdder[] FAILURE_COUNTS = new LongAdder[FAILURES.length];
+
+	private static final EvaluatorMetrics INSTANCE = new EvaluatorMetrics();
+
+	private static volatile boolean enabled;
+	private static boolean registered;
+
+	static {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			LATENCIES[i] = new LatencyHistogram();
+			TOKENS[i] = new LongAdder();
+		}
+		for (int i = 0; i < FAILURES.length; i++) {
+			FAILURE_COUNTS[i] = new LongAdder();
+		}
+		if (Boolean.getBoolean("evaluator.metrics")) {
+			enable();
+		}
+	}
+
+	/**
+	 * Instances only exist as the MXBean.
+	 */
+	private EvaluatorMetrics() {
+	}
+
+	/**
+	 * @return Whether calls are being recorded. Entry points check this before doing any other work.
+	 */
+	public static boolean enabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts recording calls and registers the MXBean with the platform MBean server if needed.
+	 */
+	public static synchronized void enable() {
+		if (!registered) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+			} catch (JMException e) {
+				// Another copy of the classes already registered the name; recording still works
+			}
+			registered = true;
+		}
+		enabled = true;
+	}
+
+	/**
+	 * Stops recording calls. Recorded values are kept.
+	 */
+	public static void disable() {
+		enabled = false;
+	}
+
+	/**
+	 * Counts the tokens read by an operation.
+	 *
+	 * @param operation The operation.
+	 * @param count     The number of tokens.
+	 */
+	public static void tokens(Operation operation, int count) {
+		TOKENS[operation.ordinal()].add(count);
+	}
+
+	/**
+	 * Records a successful call.
+	 *
+	 * @param operation The operation.
+	 * @param start     The {@link System#nanoTime()} at the start of the call.
+	 */
+	public static void success(Operation operation, long start) {
+		long latency = System.nanoTime() - start;
+		LATENCIES[operation.ordinal()].record(latency);
+		emit(operation, latency, null);
+	}
+
+	/**
+	 * Records a failed call.
+	 *
+	 * @param operation The operation.
+	 * @param start     The {@link System#nanoTime()} at the start of the call.
+	 * @param exception The exception the call is about to throw.
+	 */
+	public static void failure(Operation operation, long start, RuntimeException exception) {
+		long latency = System.nanoTime() - start;
+		Failure failure = Failure.of(exception);
+		LATENCIES[operation.ordinal()].record(latency);
+		FAILURE_COUNTS[failure.ordinal()].increment();
+		emit(operation, latency, failure);
+	}
+
+	/**
+	 * Commits a Flight Recorder event if the event is enabled in a running recording.
+	 *
+	 * @param operation The operation.
+	 * @param latency   The latency of the call in nanoseconds.
+	 * @param failure   The kind of failure, or null for a successful call.
+	 */
+	private static void emit(Operation operation, long latency, Failure failure) {
+		EvaluationEvent event = new EvaluationEvent();
+		if (event.isEnabled()) {
+			event.operation = operation.name();
+			event.latency = latency;
+			event.failure = failure == null ? null : failure.name();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Returns the latency histogram of an operation.
+	 *
+	 * @param operation The operation.
+	 * @return The live histogram.
+	 */
+	public static LatencyHistogram latency(Operation operation) {
+		return LATENCIES[operation.ordinal()];
+	}
+
+	/**
+	 * Returns how many calls failed with a kind of failure.
+	 *
+	 * @param failure The kind of failure.
+	 * @return The number of failed calls.
+	 */
+	public static long failures(Failure failure) {
+		return FAILURE_COUNTS[failure.ordinal()].sum();
+	}
+
+	/**
+	 * Returns how many tokens an operation has read.
+	 *
+	 * @param operation The operation.
+	 * @return The number of tokens.
+	 */
+	public static long tokens(Operation operation) {
+		return TOKENS[operation.ordinal()].sum();
+	}
+
+	/**
+	 * @return The MXBean exposing these metrics.
+	 */
+	public static EvaluatorMetricsMXBean mxBean() {
+		return INSTANCE;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		if (enabled) {
+			enable();
+		} else {
+			disable();
+		}
+	}
+
+	@Override
+	public Map<String, Long> getCalls() {
+		return perOperation(operation -> latency(operation).count());
+	}
+
+	@Override
+	public Map<String, Long> getFailures() {
+		Map<String, Long> failures = new LinkedHashMap<>();
+		for (Failure failure : FAILURES) {
+			failures.put(failure.name(), failures(failure));
+		}
+		return failures;
+	}
+
+	@Override
+	public long getDivisionsByZero() {
+		return failures(Failure.DIVISION_BY_ZERO);
+	}
+
+	@Override
+	public Map<String, Long> getTokens() {
+		return perOperation(EvaluatorMetrics::tokens);
+	}
+
+	@Override
+	public Map<String, Double> getMeanLatencyNanos() {
+		Map<String, Double> means = new LinkedHashMap<>();
+		for (Operation operation : OPERATIONS) {
+			means.put(operation.name(), latency(operation).mean());
+		}
+		return means;
+	}
+
+	@Override
+	public Map<String, Long> getMedianLatencyNanos() {
+		return perOperation(operation -> latency(operation).valueAtPercentile(50));
+	}
+
+	@Override
+	public Map<String, Long> getP99LatencyNanos() {
+		return perOperation(operation -> latency(operation).valueAtPercentile(99));
+	}
+
+	@Override
+	public Map<String, Long> getMaxLatencyNanos() {
+		return perOperation(operation -> latency(operation).max());
+	}
+
+	@Override
+	public Map<String, Double> getCacheHitRates() {
+		Map<String, Double> rates = new LinkedHashMap<>();
+		putHitRate(rates, Operation.INFIX_TO_POSTFIX, InfixToPostfixConverter.getCache());
+		putHitRate(rates, Operation.INFIX_TO_PREFIX, InfixToPrefixConverter.getCache());
+		return rates;
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			LATENCIES[i].reset();
+			TOKENS[i].reset();
+		}
+		for (LongAdder count : FAILURE_COUNTS) {
+			count.reset();
+		}
+	}
+
+	/**
+	 * Collects one value per operation.
+	 *
+	 * @param value The value of an operation.
+	 * @return The values keyed by operation name.
+	 */
+	private static Map<String, Long> perOperation(ToLongFunction<Operation> value) {
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (Operation operation : OPERATIONS) {
+			values.put(operation.name(), value.applyAsLong(operation));
+		}
+		return values;
+	}
+
+	/**
+	 * Adds the hit rate of a cache, if one is installed and has been used.
+	 *
+	 * @param rates     The rates being collected.
+	 * @param operation The operation the cache belongs to.
+	 * @param cache     The cache, or null.
+	 */
+	private static void putHitRate(Map<String, Double> rates, Operation operation, ConversionCache cache) {
+		if (cache == null) {
+			return;
+		}
+		long hits = cache.hits();
+		long lookups = hits + cache.misses();
+		rates.put(operation.name(), lookups == 0 ? 0 : (double) hits / lookups);
+	}
+}
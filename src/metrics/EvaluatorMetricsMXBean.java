@@ -0,0 +1,69 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link EvaluatorMetrics}. Maps are keyed by {@link Operation} or {@link Failure} name.
+ */
+public interface EvaluatorMetricsMXBean {
+
+	/**
+	 * @return Whether calls are being recorded.
+	 */
+	boolean isEnabled();
+
+	/**
+	 * @param enabled Whether calls should be recorded.
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * @return The number of calls per operation, successful or not.
+	 */
+	Map<String, Long> getCalls();
+
+	/**
+	 * @return The number of failed calls per kind of failure.
+	 */
+	Map<String, Long> getFailures();
+
+	/**
+	 * @return The number of division-by-zero failures.
+	 */
+	long getDivisionsByZero();
+
+	/**
+	 * @return The number of tokens read per operation.
+	 */
+	Map<String, Long> getTokens();
+
+	/**
+	 * @return The mean latency per operation, in nanoseconds.
+	 */
+	Map<String, Double> getMeanLatencyNanos();
+
+	/**
+	 * @return The median latency per operation, in nanoseconds.
+	 */
+	Map<String, Long> getMedianLatencyNanos();
+
+	/**
+	 * @return The 99th percentile latency per operation, in nanoseconds.
+	 */
+	Map<String, Long> getP99LatencyNanos();
+
+	/**
+	 * @return The largest latency per operation, in nanoseconds.
+	 */
+	Map<String, Long> getMaxLatencyNanos();
+
+	/**
+	 * @return The hit rate of the installed conversion caches, keyed by operation; absent when no cache is installed.
+	 */
+	Map<String, Double> getCacheHitRates();
+
+	/**
+	 * Clears every counter and histogram.
+	 */
+	void reset();
+}
@@ -0,0 +1,43 @@
+package metrics;
+
+import utils.DivisionByZeroException;
+import utils.InvalidExpressionException;
+import utils.UnboundVariableException;
+
+/**
+ * The kinds of failure counted by {@link EvaluatorMetrics}, recognized from the types of the exceptions the
+ * tokenizer, converters and evaluators throw.
+ */
+public enum Failure {
+	NULL_OR_EMPTY,
+	UNBALANCED_PARENTHESES,
+	UNSUPPORTED_CHARACTER,
+	INVALID_EXPRESSION,
+	UNBOUND_VARIABLE,
+	DIVISION_BY_ZERO,
+	OTHER;
+
+	/**
+	 * Classifies an exception thrown by an entry point.
+	 *
+	 * @param exception The exception.
+	 * @return The kind of failure.
+	 */
+	public static Failure of(RuntimeException exception) {
+		if (exception instanceof InvalidExpressionException invalid) {
+			return switch (invalid.error()) {
+				case EMPTY -> NULL_OR_EMPTY;
+				case UNBALANCED_PARENTHESES -> UNBALANCED_PARENTHESES;
+				case UNSUPPORTED_CHARACTER -> UNSUPPORTED_CHARACTER;
+				default -> INVALID_EXPRESSION;
+			};
+		}
+		if (exception instanceof UnboundVariableException) {
+			return UNBOUND_VARIABLE;
+		}
+		if (exception instanceof DivisionByZeroException) {
+			return DIVISION_BY_ZERO;
+		}
+		return OTHER;
+	}
+}
@@ -0,0 +1,140 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds with log-linear buckets, in the style of HdrHistogram.
+ * Every power of two is split into {@value #SUB_BUCKETS} equal buckets, so any recorded value is reported
+ * within about 6% of its true value, and recording is a single atomic increment.
+ */
+public final class LatencyHistogram {
+
+	// Sub-buckets per power of two, as a power of two
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one latency.
+	 *
+	 * @param nanos The latency in nanoseconds; negative values are recorded as 0.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(bucketOf(value));
+		total.add(value);
+
+		// Only a new maximum pays for a compare-and-set
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * @return The number of recorded values.
+	 */
+	public long count() {
+		long count = 0;
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+			count += counts.get(bucket);
+		}
+		return count;
+	}
+
+	/**
+	 * @return The mean of the recorded values, or 0 if there are none.
+	 */
+	public double mean() {
+		long count = count();
+		return count == 0 ? 0 : (double) total.sum() / count;
+	}
+
+	/**
+	 * @return The largest recorded value, or 0 if there are none.
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value below which the given percentage of recorded values fall.
+	 *
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return The upper bound of the bucket holding the percentile, or 0 if nothing was recorded.
+	 * @throws IllegalArgumentException If the percentile is outside 0 to 100.
+	 */
+	public long valueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+		}
+
+		// Copy the counts first so the rank and the walk see the same values
+		long[] snapshot = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+			snapshot[bucket] = counts.get(bucket);
+			count += snapshot[bucket];
+		}
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+			seen += snapshot[bucket];
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(bucket), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Clears every recorded value. Values recorded concurrently with a reset may be partly kept.
+	 */
+	public void reset() {
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+			counts.set(bucket, 0);
+		}
+		total.reset();
+		max.set(0);
+	}
+
+	/**
+	 * Maps a value to its bucket. Values below {@value #SUB_BUCKETS} get a bucket each; larger values
+	 * share a bucket with the values that agree in their {@value #SUB_BUCKET_BITS} bits after the leading one.
+	 *
+	 * @param value The non-negative value.
+	 * @return The bucket index.
+	 */
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Returns the largest value that maps to a bucket.
+	 *
+	 * @param bucket The bucket index.
+	 * @return The largest value in the bucket.
+	 */
+	static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+		long lower = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,11 @@
+package metrics;
+
+/**
+ * The instrumented entry points.
+ */
+public enum Operation {
+	INFIX_TO_POSTFIX,
+	INFIX_TO_PREFIX,
+	POSTFIX_EVALUATION,
+	PREFIX_EVALUATION
+}
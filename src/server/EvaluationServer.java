@@ -0,0 +1,365 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import converter.InfixToPostfixConverter;
+import converter.InfixToPrefixConverter;
+import evaluator.CompiledExpression;
+import evaluator.PostfixEvaluation;
+import evaluator.PrefixEvaluation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+/**
+ * A persistent HTTP service for converting and evaluating expressions, built on the JDK's HTTP server.
+ * Every request runs on its own virtual thread, and connections are kept alive between requests.
+ * It listens on the loopback address unless another address is given, and answers bodies larger than
+ * the configured maximum with 413 without reading them.
+ *
+ * <p>Endpoints (all POST):</p>
+ * <ul>
+ *     <li>/convert/postfix and /convert/prefix convert infix expressions,</li>
+ *     <li>/evaluate/infix, /evaluate/postfix and /evaluate/prefix evaluate expressions.</li>
+ * </ul>
+ *
+ * <p>A request body is either a JSON array of expression strings (or a single string), answered with a
+ * JSON array, or, with Content-Type application/x-ndjson or text/plain, one expression per line,
+ * answered with one JSON object per line. Each answer is {"result": ...} or {"error": "..."}.</p>
+ */
+public class EvaluationServer {
+
+	static final int DEFAULT_PORT = 8080;
+
+	// Largest request body read, in bytes
+	static final int DEFAULT_MAX_BODY_BYTES = 1 << 24;
+
+	static final String USAGE = "Usage: java -cp bin main.EvaluatorMain --serve [--port=PORT] [--host=ADDRESS] [--max-body=BYTES]";
+
+	private static final String NDJSON = "application/x-ndjson";
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final int maxBodyBytes;
+
+	/**
+	 * Creates a server bound to the given address. The server does not accept requests until started.
+	 *
+	 * @param address      The address to listen on; port 0 picks a free port.
+	 * @param maxBodyBytes The largest request body accepted, in bytes.
+	 * @throws IOException If the address cannot be bound.
+	 */
+	private EvaluationServer(InetSocketAddress address, int maxBodyBytes) throws IOException {
+		this.maxBodyBytes = maxBodyBytes;
+		this.server = HttpServer.create(address, 0);
+		this.executor = Executors.newVirtualThreadPerTaskExecutor();
+		server.setExecutor(executor);
+
+		register("/convert/postfix", (expression, out) -> Json.appendString(out, InfixToPostfixConverter.convert(expression)));
+		register("/convert/prefix", (expression, out) -> Json.appendString(out, InfixToPrefixConverter.convert(expression)));
+		register("/evaluate/infix", (expression, out) -> Json.appendNumber(out, CompiledExpression.fromInfix(expression).evaluate()));
+		register("/evaluate/postfix", (expression, out) -> Json.appendNumber(out, PostfixEvaluation.evaluate(expression)));
+		register("/evaluate/prefix", (expression, out) -> Json.appendNumber(out, PrefixEvaluation.evaluate(expression)));
+	}
+
+	/**
+	 * Starts a server on the loopback address, so only local clients can reach it.
+	 *
+	 * @param port The port to listen on; 0 picks a free port.
+	 * @return The running server.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public static EvaluationServer start(int port) throws IOException {
+		return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/**
+	 * Starts a server on the given address with the default body limit.
+	 *
+	 * @param address The address to listen on; port 0 picks a free port.
+	 * @return The running server.
+	 * @throws IOException If the address cannot be bound.
+	 */
+	public static EvaluationServer start(InetSocketAddress address) throws IOException {
+		return start(address, DEFAULT_MAX_BODY_BYTES);
+	}
+
+	/**
+	 * Starts a server on the given address.
+	 *
+	 * @param address      The address to listen on; port 0 picks a free port.
+	 * @param maxBodyBytes The largest request body accepted, in bytes; larger bodies are answered with 413.
+	 * @return The running server.
+	 * @throws IOException              If the address cannot be bound.
+	 * @throws IllegalArgumentException If the body limit is not positive or too large for an array.
+	 */
+	public static EvaluationServer start(InetSocketAddress address, int maxBodyBytes) throws IOException {
+		if (maxBodyBytes <= 0 || maxBodyBytes > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Maximum body size must be between 1 and " + (Integer.MAX_VALUE - 8) + " bytes.");
+		}
+		EvaluationServer evaluationServer = new EvaluationServer(address, maxBodyBytes);
+		evaluationServer.server.start();
+		return evaluationServer;
+	}
+
+	/**
+	 * Runs the server until the process is stopped, or prints the usage if an argument is not valid.
+	 *
+	 * @param args The command-line arguments, starting with --serve and optionally including --port=PORT,
+	 *             --host=ADDRESS and --max-body=BYTES.
+	 * @throws IOException If the address cannot be bound.
+	 */
+	public static void main(String[] args) throws IOException {
+		InetAddress host = InetAddress.getLoopbackAddress();
+		int port = DEFAULT_PORT;
+		int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+		try {
+			for (String arg : args) {
+				if (arg.equals("--serve")) {
+					continue;
+				}
+				int separator = arg.indexOf('=');
+				String name = separator < 0 ? arg : arg.substring(0, separator);
+				String value = separator < 0 ? "" : arg.substring(separator + 1);
+
+				switch (name) {
+					case "--port" -> port = parseNumber(name, value, 0, 65535);
+					case "--host" -> host = parseHost(value);
+					case "--max-body" -> maxBodyBytes = parseNumber(name, value, 1, Integer.MAX_VALUE - 8);
+					default -> throw new IllegalArgumentException("Unknown option: " + name);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return;
+		}
+
+		EvaluationServer evaluationServer = start(new InetSocketAddress(host, port), maxBodyBytes);
+		System.out.println("Listening on " + evaluationServer.address().getAddress().getHostAddress()
+				+ " port " + evaluationServer.port() + ".");
+	}
+
+	/**
+	 * Parses the value of a numeric option.
+	 *
+	 * @param name    The option name.
+	 * @param value   The option value.
+	 * @param minimum The smallest allowed value.
+	 * @param maximum The largest allowed value.
+	 * @return The number given as the value.
+	 * @throws IllegalArgumentException If the value is not a number in the allowed range.
+	 */
+	private static int parseNumber(String name, String value, int minimum, int maximum) {
+		try {
+			int number = Integer.parseInt(value);
+			if (number >= minimum && number <= maximum) {
+				return number;
+			}
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw new IllegalArgumentException("Option " + name + " needs a number from " + minimum + " to " + maximum + ".");
+	}
+
+	/**
+	 * Parses the address to listen on.
+	 *
+	 * @param value An IP address or host name, e.g. 0.0.0.0 for every interface.
+	 * @return The address.
+	 * @throws IllegalArgumentException If the address cannot be resolved.
+	 */
+	private static InetAddress parseHost(String value) {
+		try {
+			return InetAddress.getByName(value);
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException("Unknown host: " + value);
+		}
+	}
+
+	/**
+	 * @return The address the server is listening on.
+	 */
+	public InetSocketAddress address() {
+		return server.getAddress();
+	}
+
+	/**
+	 * @return The port the server is listening on.
+	 */
+	public int port() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops accepting requests, waits briefly for running requests to finish, and releases the port.
+	 */
+	public void stop() {
+		server.stop(1);
+		executor.shutdown();
+	}
+
+	/**
+	 * Registers an endpoint that applies an operation to every expression of a request.
+	 *
+	 * @param path      The path of the endpoint.
+	 * @param operation Writes the JSON result for one expression; throws for invalid expressions.
+	 */
+	private void register(String path, BiConsumer<String, StringBuilder> operation) {
+		server.createContext(path, exchange -> {
+			try (exchange) {
+				handle(exchange, operation, maxBodyBytes);
+			}
+		});
+	}
+
+	/**
+	 * Handles one request: reads the batch of expressions, applies the operation to each, and responds.
+	 *
+	 * @param exchange     The HTTP exchange.
+	 * @param operation    Writes the JSON result for one expression.
+	 * @param maxBodyBytes The largest request body accepted, in bytes.
+	 * @throws IOException If the request cannot be read or the response cannot be written.
+	 */
+	private static void handle(HttpExchange exchange, BiConsumer<String, StringBuilder> operation, int maxBodyBytes) throws IOException {
+		if (!exchange.getRequestMethod().equals("POST")) {
+			exchange.getResponseHeaders().set("Allow", "POST");
+			respond(exchange, 405, "application/json", "{\"error\":\"Only POST is supported.\"}");
+			return;
+		}
+
+		byte[] bytes = readBody(exchange, maxBodyBytes);
+		if (bytes == null) {
+			// The rest of the body is never read, so the connection cannot carry another request
+			exchange.getResponseHeaders().set("Connection", "close");
+			respond(exchange, 413, "application/json", "{\"error\":\"Request body is larger than " + maxBodyBytes + " bytes.\"}");
+			return;
+		}
+		String body = new String(bytes, StandardCharsets.UTF_8);
+		String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		boolean lineDelimited = contentType != null && (contentType.startsWith(NDJSON) || contentType.startsWith("text/plain"));
+
+		// Sized for a typical answer; capped so bodies near the limit neither overflow the capacity nor reserve it all up front
+		StringBuilder response = new StringBuilder(Math.min(body.length(), 1 << 16) * 2 + 16);
+		if (lineDelimited) {
+			for (String line : body.split("\n")) {
+				if (line.isBlank()) {
+					continue;
+				}
+				appendAnswer(response, expressionOf(line), operation);
+				response.append('\n');
+			}
+			respond(exchange, 200, NDJSON, response.toString());
+			return;
+		}
+
+		List<String> expressions;
+		try {
+			expressions = Json.parseStrings(body);
+		} catch (IllegalArgumentException e) {
+			StringBuilder error = new StringBuilder("{\"error\":");
+			Json.appendString(error, e.getMessage());
+			respond(exchange, 400, "application/json", error.append('}').toString());
+			return;
+		}
+
+		response.append('[');
+		for (int i = 0; i < expressions.size(); i++) {
+			if (i > 0) {
+				response.append(',');
+			}
+			appendAnswer(response, expressions.get(i), operation);
+		}
+		respond(exchange, 200, "application/json", response.append(']').toString());
+	}
+
+	/**
+	 * Reads a request body of at most the given size. A declared length over the limit is rejected before
+	 * anything is read, and a body without a declared length is read until it passes the limit.
+	 *
+	 * @param exchange     The HTTP exchange.
+	 * @param maxBodyBytes The largest body accepted, in bytes.
+	 * @return The body, or null if it is larger than the limit.
+	 * @throws IOException If the body cannot be read.
+	 */
+	private static byte[] readBody(HttpExchange exchange, int maxBodyBytes) throws IOException {
+		String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (declared != null) {
+			try {
+				if (Long.parseLong(declared.strip()) > maxBodyBytes) {
+					return null;
+				}
+			} catch (NumberFormatException e) {
+				// A malformed length is treated like a missing one
+			}
+		}
+		InputStream in = exchange.getRequestBody();
+		byte[] body = in.readNBytes(maxBodyBytes + 1);
+		return body.length > maxBodyBytes ? null : body;
+	}
+
+	/**
+	 * Reads the expression of one NDJSON line, which is either a JSON string or bare text.
+	 *
+	 * @param line The line.
+	 * @return The expression.
+	 */
+	private static String expressionOf(String line) {
+		String trimmed = line.strip();
+		if (trimmed.startsWith("\"")) {
+			try {
+				return Json.parseString(trimmed, new int[1]);
+			} catch (IllegalArgumentException e) {
+				return trimmed;
+			}
+		}
+		return trimmed;
+	}
+
+	/**
+	 * Appends the answer for one expression: its result, or the error it failed with.
+	 *
+	 * @param response   The response being built.
+	 * @param expression The expression.
+	 * @param operation  Writes the JSON result for the expression.
+	 */
+	private static void appendAnswer(StringBuilder response, String expression, BiConsumer<String, StringBuilder> operation) {
+		int start = response.length();
+		response.append("{\"result\":");
+		try {
+			operation.accept(expression, response);
+		} catch (IllegalArgumentException | ArithmeticException e) {
+			response.setLength(start);
+			response.append("{\"error\":");
+			Json.appendString(response, e.getMessage());
+		}
+		response.append('}');
+	}
+
+	/**
+	 * Sends a complete response with a known length, which keeps the connection alive.
+	 *
+	 * @param exchange    The HTTP exchange.
+	 * @param status      The HTTP status code.
+	 * @param contentType The content type of the body.
+	 * @param body        The response body.
+	 * @throws IOException If the response cannot be written.
+	 */
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The small subset of JSON the evaluation server needs: reading strings and arrays of strings,
+ * and writing quoted strings and numbers.
+ */
+final class Json {
+
+	private Json() {
+	}
+
+	/**
+	 * Parses a JSON array of strings, or a single JSON string.
+	 *
+	 * @param text The JSON text.
+	 * @return The strings, in order.
+	 * @throws IllegalArgumentException If the text is not an array of strings or a string.
+	 */
+	static List<String> parseStrings(String text) {
+		List<String> strings = new ArrayList<>();
+		int[] position = {skipWhitespace(text, 0)};
+
+		if (position[0] < text.length() && text.charAt(position[0]) == '[') {
+			position[0] = skipWhitespace(text, position[0] + 1);
+			if (position[0] < text.length() && text.charAt(position[0]) == ']') {
+				position[0]++;
+			} else {
+				while (true) {
+					strings.add(parseString(text, position));
+					position[0] = skipWhitespace(text, position[0]);
+					if (position[0] >= text.length()) {
+						throw malformed();
+					}
+					char ch = text.charAt(position[0]++);
+					if (ch == ']') {
+						break;
+					}
+					if (ch != ',') {
+						throw malformed();
+					}
+				}
+			}
+		} else {
+			strings.add(parseString(text, position));
+		}
+
+		if (skipWhitespace(text, position[0]) != text.length()) {
+			throw malformed();
+		}
+		return strings;
+	}
+
+	/**
+	 * Parses the JSON string starting at the given position, skipping leading whitespace.
+	 *
+	 * @param text     The JSON text.
+	 * @param position A one-element array holding the position; advanced past the closing quote.
+	 * @return The unescaped string.
+	 * @throws IllegalArgumentException If no well-formed string starts at the position.
+	 */
+	static String parseString(String text, int[] position) {
+		int i = skipWhitespace(text, position[0]);
+		if (i >= text.length() || text.charAt(i) != '"') {
+			throw malformed();
+		}
+		i++;
+
+		StringBuilder value = new StringBuilder();
+		while (i < text.length()) {
+			char ch = text.charAt(i++);
+			if (ch == '"') {
+				position[0] = i;
+				return value.toString();
+			}
+			if (ch != '\\') {
+				value.append(ch);
+				continue;
+			}
+			if (i >= text.length()) {
+				break;
+			}
+			char escaped = text.charAt(i++);
+			switch (escaped) {
+				case '"', '\\', '/' -> value.append(escaped);
+				case 'b' -> value.append('\b');
+				case 'f' -> value.append('\f');
+				case 'n' -> value.append('\n');
+				case 'r' -> value.append('\r');
+				case 't' -> value.append('\t');
+				case 'u' -> {
+					if (i + 4 > text.length()) {
+						throw malformed();
+					}
+					try {
+						value.append((char) Integer.parseInt(text, i, i + 4, 16));
+					} catch (NumberFormatException e) {
+						throw malformed();
+					}
+					i += 4;
+				}
+				default -> throw malformed();
+			}
+		}
+		throw malformed();
+	}
+
+	/**
+	 * Appends a string as a quoted, escaped JSON string.
+	 *
+	 * @param builder The builder to append to.
+	 * @param value   The string to quote.
+	 */
+	static void appendString(StringBuilder builder, String value) {
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			switch (ch) {
+				case '"' -> builder.append("\\\"");
+				case '\\' -> builder.append("\\\\");
+				case '\n' -> builder.append("\\n");
+				case '\r' -> builder.append("\\r");
+				case '\t' -> builder.append("\\t");
+				default -> {
+					if (ch < 0x20) {
+						builder.append(String.format("\\u%04x", (int) ch));
+					} else {
+						builder.append(ch);
+					}
+				}
+			}
+		}
+		builder.append('"');
+	}
+
+	/**
+	 * Appends a number. NaN and the infinities have no JSON representation and are written as strings.
+	 *
+	 * @param builder The builder to append to.
+	 * @param value   The number to append.
+	 */
+	static void appendNumber(StringBuilder builder, double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			appendString(builder, Double.toString(value));
+		} else {
+			builder.append(value);
+		}
+	}
+
+	/**
+	 * @param text  The JSON text.
+	 * @param start The position to start from.
+	 * @return The position of the first non-whitespace character at or after the start.
+	 */
+	private static int skipWhitespace(String text, int start) {
+		int i = start;
+		while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return The exception thrown for malformed JSON.
+	 */
+	private static IllegalArgumentException malformed() {
+		return new IllegalArgumentException("Malformed JSON request body.");
+	}
+}
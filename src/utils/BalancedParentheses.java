@@ -1,7 +1,5 @@
 package utils;
 
-import java.util.Stack;
-
 /**
  * A utility class for checking if an expression has balanced parentheses.
  * This class provides a method to determine whether the parentheses in a given expression
@@ -16,32 +14,34 @@ public class BalancedParentheses {
 	 * @return True if the parentheses are balanced, otherwise false.
 	 */
 	public static boolean isBalanced(String expression) {
-		// Stack to keep track of opening parentheses
-		Stack<Character> stack = new Stack<>();
+		// Number of opening parentheses that have not been closed yet
+		int depth = 0;
 
 		// Iterate through each character in the expression
-		for (char ch : expression.toCharArray()) {
+		for (int i = 0; i < expression.length(); i++) {
+			char ch = expression.charAt(i);
+
 			// Skip digits, alphabetic characters, and spaces
 			if (Character.isDigit(ch) || Character.isAlphabetic(ch) || ch == ' ') {
 				continue;
 			}
 
-			// If the character is an opening parenthesis, push it onto the stack
+			// If the character is an opening parenthesis, go one level deeper
 			if (ch == '(') {
-				stack.push(ch);
+				depth++;
 			}
 			// If the character is a closing parenthesis, check for a matching opening parenthesis
 			else if (ch == ')') {
-				// If the stack is empty, there is no matching opening parenthesis
-				if (stack.isEmpty()) {
+				// If the depth is zero, there is no matching opening parenthesis
+				if (depth == 0) {
 					return false;
 				}
-				// Pop the matching opening parenthesis from the stack
-				stack.pop();
+				// Close the matching opening parenthesis
+				depth--;
 			}
 		}
 
-		// If the stack is empty, all parentheses are balanced
-		return stack.isEmpty();
+		// If the depth is back to zero, all parentheses are balanced
+		return depth == 0;
 	}
 }
\ No newline at end of file
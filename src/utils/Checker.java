@@ -15,7 +15,7 @@ public class Checker {
 	 */
 	public static void isNullOrEmpty(String expression) {
 		if (expression == null || expression.trim().isEmpty()) {
-			throw new IllegalArgumentException("Expression cannot be null or empty.");
+			throw new InvalidExpressionException(ValidationError.EMPTY, "Expression cannot be null or empty.");
 		}
 	}
 
@@ -27,21 +27,23 @@ public class Checker {
 	 */
 	public static void isBalancedParentheses(String expression) {
 		if (!BalancedParentheses.isBalanced(expression)) {
-			throw new IllegalArgumentException("Error: Unbalanced parentheses in expression!");
+			throw new InvalidExpressionException(ValidationError.UNBALANCED_PARENTHESES, "Error: Unbalanced parentheses in expression!");
 		}
 	}
 
 	/**
-	 * Checks if the given expression contains only valid characters (digits, operators, parentheses, and spaces).
+	 * Checks if the given expression contains only valid characters (digits, decimal points, variable and
+	 * function names, operators, parentheses, commas, and spaces).
 	 *
 	 * @param expression The expression to check.
 	 * @throws IllegalArgumentException If the expression contains unsupported characters.
 	 */
 	public static void isValidCharacters(String expression) {
-		for (char ch : expression.toCharArray()) {
-			if (!Character.isDigit(ch) && !ExpressionUtils.isOperator(ch)
-					&& ch != '(' && ch != ')' && !Character.isWhitespace(ch)) {
-				throw new IllegalArgumentException("Error: Unsupported character '" + ch + "' in expression. Only numbers and operators are allowed.");
+		for (int i = 0; i < expression.length(); i++) {
+			char ch = expression.charAt(i);
+			if (!Tokenizer.isIdentifierPart(ch) && ch != '.' && !OperatorRegistry.isOperatorCharacter(ch)
+					&& ch != '(' && ch != ')' && ch != ',' && !Character.isWhitespace(ch)) {
+				throw new InvalidExpressionException(ValidationError.UNSUPPORTED_CHARACTER, "Error: Unsupported character '" + ch + "' in expression. Only numbers, variables and operators are allowed.");
 			}
 		}
 	}
@@ -53,26 +55,7 @@ public class Checker {
 	 * @return True if the expression is a valid prefix expression, otherwise false.
 	 */
 	public static boolean isValidPrefix(String expression) {
-		int operandCount = 0;
-		String[] tokens = expression.split("\\s+");
-
-		// Process tokens in reverse order
-		for (int i = tokens.length - 1; i >= 0; i--) {
-			String token = tokens[i];
-			if (token.isEmpty()) continue;
-
-			if (ExpressionUtils.isNumber(token)) {
-				operandCount++;
-			} else if (ExpressionUtils.isOperator(token.charAt(0))) {
-				if (operandCount < 2) {
-					return false;
-				}
-				operandCount--;
-			}
-		}
-
-		// A valid prefix expression should have exactly one operand left
-		return operandCount == 1;
+		return isValid(expression, Notation.PREFIX);
 	}
 
 	/**
@@ -82,24 +65,27 @@ public class Checker {
 	 * @return True if the expression is a valid postfix expression, otherwise false.
 	 */
 	public static boolean isValidPostfix(String expression) {
-		int operandCount = 0;
-		String[] tokens = expression.split("\\s+");
-
-		// Process tokens in order
-		for (String token : tokens) {
-			if (token.isEmpty()) continue;
+		return isValid(expression, Notation.POSTFIX);
+	}
 
-			if (ExpressionUtils.isNumber(token)) {
-				operandCount++;
-			} else if (ExpressionUtils.isOperator(token.charAt(0))) {
-				if (operandCount < 2) {
-					return false;
-				}
-				operandCount--;
-			}
-		}
+	/**
+	 * Checks if the given expression is a valid infix expression.
+	 *
+	 * @param expression The expression to check.
+	 * @return True if the expression is a valid infix expression, otherwise false.
+	 */
+	public static boolean isValidInfix(String expression) {
+		return isValid(expression, Notation.INFIX);
+	}
 
-		// A valid postfix expression should have exactly one operand left
-		return operandCount == 1;
+	/**
+	 * Checks if the given expression is valid in the given notation, stopping at the first offending character.
+	 *
+	 * @param expression The expression to check.
+	 * @param notation   The notation the expression should be written in.
+	 * @return True if the expression is valid in the notation, otherwise false.
+	 */
+	private static boolean isValid(String expression, Notation notation) {
+		return Validator.isValid(expression, notation);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package utils;
+
+/**
+ * Thrown when a division or remainder has a zero divisor.
+ */
+public class DivisionByZeroException extends ArithmeticException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates the exception with the standard message.
+	 */
+	public DivisionByZeroException() {
+		super("Division by zero is not allowed.");
+	}
+}
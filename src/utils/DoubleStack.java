@@ -0,0 +1,84 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * An unsynchronized stack of primitive doubles.
+ * Unlike {@code java.util.Stack<Double>}, pushing a value neither boxes it nor takes a lock.
+ * Callers create one stack per call rather than sharing one per thread, so an evaluation nested inside
+ * another on the same thread, as a custom function may start, cannot disturb the outer one, and the
+ * memory is released as soon as the call returns.
+ */
+public final class DoubleStack {
+
+	private double[] elements;
+	private int size;
+
+	/**
+	 * Creates an empty stack.
+	 *
+	 * @param capacity The initial capacity of the stack.
+	 */
+	public DoubleStack(int capacity) {
+		this.elements = new double[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Pushes a value onto the stack, growing it when needed.
+	 *
+	 * @param value The value to push.
+	 */
+	public void push(double value) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size * 2);
+		}
+		elements[size++] = value;
+	}
+
+	/**
+	 * Removes and returns the top value of the stack.
+	 *
+	 * @return The top value.
+	 * @throws IllegalStateException If the stack is empty.
+	 */
+	public double pop() {
+		if (size == 0) {
+			throw new IllegalStateException("Stack is empty.");
+		}
+		return elements[--size];
+	}
+
+	/**
+	 * Returns the top value of the stack without removing it.
+	 *
+	 * @return The top value.
+	 * @throws IllegalStateException If the stack is empty.
+	 */
+	public double peek() {
+		if (size == 0) {
+			throw new IllegalStateException("Stack is empty.");
+		}
+		return elements[size - 1];
+	}
+
+	/**
+	 * @return The number of values on the stack.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return True if the stack holds no values, otherwise false.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all values from the stack, keeping its capacity.
+	 */
+	public void clear() {
+		size = 0;
+	}
+}
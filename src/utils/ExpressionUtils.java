@@ -7,6 +7,15 @@ package utils;
  */
 public class ExpressionUtils {
 
+	// Largest mantissa (2^53) that a double represents exactly
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	// Powers of ten that a double represents exactly
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
 	/**
 	 * Checks if the given token is a valid number (integer or decimal).
 	 *
@@ -14,17 +23,105 @@ public class ExpressionUtils {
 	 * @return True if the token is a valid number, otherwise false.
 	 */
 	public static boolean isNumber(String token) {
-		return token.matches("-?\\d+(\\.\\d+)?");
+		return scanNumber(token, 0, token.length()) == token.length();
+	}
+
+	/**
+	 * Scans the number literal (an optional '-', digits, and an optional '.' followed by digits)
+	 * starting at the given index, without creating any substrings.
+	 *
+	 * @param text  The text to scan.
+	 * @param start The index where the literal should start.
+	 * @param end   The index after the last character that may be scanned.
+	 * @return The index after the last character of the literal, or -1 if no literal starts at the index.
+	 */
+	public static int scanNumber(CharSequence text, int start, int end) {
+		int i = start;
+		if (i < end && text.charAt(i) == '-') {
+			i++;
+		}
+
+		int digitsStart = i;
+		while (i < end && isDigit(text.charAt(i))) {
+			i++;
+		}
+		if (i == digitsStart) {
+			return -1;
+		}
+
+		// A decimal point is only part of the literal when digits follow it
+		if (i + 1 < end && text.charAt(i) == '.' && isDigit(text.charAt(i + 1))) {
+			i += 2;
+			while (i < end && isDigit(text.charAt(i))) {
+				i++;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Converts a number literal previously recognized by {@link #scanNumber} to a double.
+	 * Literals with up to 15 significant digits are converted directly from the characters;
+	 * longer literals fall back to {@link Double#parseDouble} to keep the result correctly rounded.
+	 *
+	 * @param text  The text holding the literal.
+	 * @param start The index of the first character of the literal.
+	 * @param end   The index after the last character of the literal.
+	 * @return The value of the literal.
+	 */
+	public static double parseNumber(CharSequence text, int start, int end) {
+		int i = start;
+		boolean negative = text.charAt(i) == '-';
+		if (negative) {
+			i++;
+		}
+
+		long mantissa = 0;
+		int fractionDigits = 0;
+		boolean fraction = false;
+		for (; i < end; i++) {
+			char ch = text.charAt(i);
+			if (ch == '.') {
+				fraction = true;
+				continue;
+			}
+			if (mantissa >= MAX_EXACT_MANTISSA / 10) {
+				// Too many digits to convert exactly; let the JDK round it
+				return Double.parseDouble(text.subSequence(start, end).toString());
+			}
+			mantissa = mantissa * 10 + (ch - '0');
+			if (fraction) {
+				fractionDigits++;
+			}
+		}
+
+		if (fractionDigits >= POWERS_OF_TEN.length) {
+			return Double.parseDouble(text.subSequence(start, end).toString());
+		}
+
+		// Both the mantissa and the power of ten are exact doubles, so one division rounds correctly
+		double value = fractionDigits == 0 ? mantissa : mantissa / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Checks if the given character is an ASCII digit.
+	 *
+	 * @param ch The character to check.
+	 * @return True if the character is between '0' and '9', otherwise false.
+	 */
+	public static boolean isDigit(char ch) {
+		return ch >= '0' && ch <= '9';
 	}
 
 	/**
-	 * Checks if the given character is a valid operator (+, -, *, /, ^).
+	 * Checks if the given character is a registered operator (+, -, *, /, ^, % or a custom one).
 	 *
 	 * @param element The character to check.
 	 * @return True if the character is a valid operator, otherwise false.
 	 */
 	public static boolean isOperator(char element) {
-		return element == '+' || element == '-' || element == '*' || element == '/' || element == '^';
+		return OperatorRegistry.operatorId(element) != 0;
 	}
 
 	/**
@@ -38,33 +135,35 @@ public class ExpressionUtils {
 	 * @throws IllegalArgumentException If the operator is unknown.
 	 */
 	public static double applyOperator(double first, char operator, double second) {
-		return switch (operator) {
-			case '+' -> first + second;
-			case '-' -> first - second;
-			case '*' -> first * second;
-			case '/' -> {
-				if (second == 0) {
-					throw new ArithmeticException("Division by zero is not allowed.");
-				}
-				yield first / second;
-			}
-			case '^' -> Math.pow(first, second);
-			default -> throw new IllegalArgumentException("Unknown operator: " + operator);
-		};
+		int id = OperatorRegistry.operatorId(operator);
+		if (id == 0) {
+			throw new IllegalArgumentException("Unknown operator: " + operator);
+		}
+		return OperatorRegistry.apply(id, first, second);
+	}
+
+	/**
+	 * Divides the first operand by the second.
+	 *
+	 * @param first  The dividend.
+	 * @param second The divisor.
+	 * @return The quotient.
+	 * @throws ArithmeticException If the divisor is zero.
+	 */
+	public static double divide(double first, double second) {
+		if (second == 0) {
+			throw new DivisionByZeroException();
+		}
+		return first / second;
 	}
 
 	/**
 	 * Returns the priority of the given operator.
 	 *
 	 * @param ch The operator character.
-	 * @return The priority of the operator (1 for + and -, 2 for * and /, 3 for ^, 0 for unknown).
+	 * @return The priority of the operator (1 for + and -, 2 for *, / and %, 3 for ^, 0 for unknown).
 	 */
 	public static int priority(char ch) {
-		return switch (ch) {
-			case '+', '-' -> 1;
-			case '*', '/' -> 2;
-			case '^' -> 3;
-			default -> 0;
-		};
+		return OperatorRegistry.precedence(OperatorRegistry.operatorId(ch));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * An unsynchronized stack of primitive ints.
+ * Unlike {@code java.util.Stack<Integer>}, pushing a value neither boxes it nor takes a lock.
+ * Each conversion or traversal creates its own instance, which lives only as long as the call.
+ */
+public final class IntStack {
+
+	private int[] elements;
+	private int size;
+
+	/**
+	 * Creates an empty stack.
+	 *
+	 * @param capacity The initial capacity of the stack.
+	 */
+	public IntStack(int capacity) {
+		this.elements = new int[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Pushes a value onto the stack, growing it when needed.
+	 *
+	 * @param value The value to push.
+	 */
+	public void push(int value) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size * 2);
+		}
+		elements[size++] = value;
+	}
+
+	/**
+	 * Removes and returns the top value of the stack.
+	 *
+	 * @return The top value.
+	 * @throws IllegalStateException If the stack is empty.
+	 */
+	public int pop() {
+		if (size == 0) {
+			throw new IllegalStateException("Stack is empty.");
+		}
+		return elements[--size];
+	}
+
+	/**
+	 * Returns the top value of the stack without removing it.
+	 *
+	 * @return The top value.
+	 * @throws IllegalStateException If the stack is empty.
+	 */
+	public int peek() {
+		if (size == 0) {
+			throw new IllegalStateException("Stack is empty.");
+		}
+		return elements[size - 1];
+	}
+
+	/**
+	 * @return The number of values on the stack.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return True if the stack holds no values, otherwise false.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all values from the stack, keeping its capacity.
+	 */
+	public void clear() {
+		size = 0;
+	}
+}
@@ -0,0 +1,30 @@
+package utils;
+
+/**
+ * Thrown when an expression is not valid in its notation. It carries the same {@link ValidationError} the
+ * {@link Validator} would report, so callers can tell the kinds of problem apart without reading the message.
+ */
+public class InvalidExpressionException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ValidationError error;
+
+	/**
+	 * Creates an exception for a problem found while reading an expression.
+	 *
+	 * @param error   The kind of problem.
+	 * @param message The message.
+	 */
+	public InvalidExpressionException(ValidationError error, String message) {
+		super(message);
+		this.error = error;
+	}
+
+	/**
+	 * @return The kind of problem.
+	 */
+	public ValidationError error() {
+		return error;
+	}
+}
@@ -0,0 +1,161 @@
+package utils;
+
+/**
+ * The lexing rules shared by the {@link Tokenizer}, the {@link TokenReader} and the {@link Validator}.
+ * It finds where the token at an index ends and what kind of token it is, then feeds it to a {@link SyntaxState}.
+ * Finding a token never changes the state, so a caller that only holds part of its input can look at the same
+ * token again once more of the input is available.
+ */
+final class Lexer {
+
+	// Kinds besides those of TokenStream: a unary plus, which changes nothing and is dropped, and a character no token starts with
+	static final byte UNARY_PLUS = 8;
+	static final byte UNSUPPORTED = 9;
+
+	private final SyntaxState state;
+	private boolean separated = true; // Whether whitespace, or the start of the input, came before the next token
+
+	// The token found by the last call to scan
+	byte kind;
+	int id; // The registry id of an operator or function, NEGATE for a unary minus, otherwise 0
+	int end;
+
+	/**
+	 * Creates a lexer for an expression written in the given notation.
+	 *
+	 * @param notation The notation.
+	 */
+	Lexer(Notation notation) {
+		this.state = new SyntaxState(notation);
+	}
+
+	/**
+	 * Prepares the lexer for a new expression.
+	 *
+	 * @param notation The notation of the expression.
+	 */
+	void reset(Notation notation) {
+		state.reset(notation);
+		separated = true;
+	}
+
+	/**
+	 * Skips the whitespace between tokens.
+	 *
+	 * @param text  The text being scanned.
+	 * @param index The index to start at.
+	 * @param limit The index after the last available character.
+	 * @return The index of the next token, or the limit if only whitespace is left.
+	 */
+	int skip(CharSequence text, int index, int limit) {
+		while (index < limit && Character.isWhitespace(text.charAt(index))) {
+			index++;
+			separated = true;
+		}
+		return index;
+	}
+
+	/**
+	 * Finds the token starting at an index and records its kind, id and end. Numbers (with a leading '-' in postfix
+	 * and prefix) and names span several characters, and so do operators such as {@code <=}; other tokens are one
+	 * character. Deciding where a token ends looks at most one character past it, so the result is final once that
+	 * character is available or the input has ended.
+	 *
+	 * @param text  The text being scanned.
+	 * @param index The index of the first character of the token, which is not whitespace.
+	 * @param limit The index after the last available character.
+	 */
+	void scan(CharSequence text, int index, int limit) {
+		char ch = text.charAt(index);
+		id = 0;
+		if (isNumberStart(text, index, limit)) {
+			kind = TokenStream.NUMBER;
+			end = ExpressionUtils.scanNumber(text, index, limit);
+		} else if (Tokenizer.isIdentifierStart(ch)) {
+			end = index + 1;
+			while (end < limit && Tokenizer.isIdentifierPart(text.charAt(end))) {
+				end++;
+			}
+
+			// Word operators and registered function names take precedence over variables
+			if ((id = OperatorRegistry.operatorId(text, index, end)) != 0) {
+				kind = TokenStream.OPERATOR;
+			} else if ((id = OperatorRegistry.functionId(text, index, end)) != 0) {
+				kind = TokenStream.FUNCTION;
+			} else {
+				kind = TokenStream.VARIABLE;
+			}
+		} else {
+			end = index + 1;
+
+			// Two-character operators such as <= take precedence over their first character
+			int pair = end < limit ? OperatorRegistry.operatorId(ch, text.charAt(end)) : 0;
+			if (pair != 0) {
+				kind = TokenStream.OPERATOR;
+				id = pair;
+				end++;
+			} else if (ch == '-' && state.expectsSign()) {
+				kind = TokenStream.UNARY_MINUS;
+				id = OperatorRegistry.NEGATE;
+			} else if (ch == '+' && state.expectsSign()) {
+				kind = UNARY_PLUS;
+			} else if ((id = OperatorRegistry.operatorId(ch)) != 0) {
+				kind = TokenStream.OPERATOR;
+			} else if (ch == '(') {
+				kind = TokenStream.LEFT_PARENTHESIS;
+			} else if (ch == ')') {
+				kind = TokenStream.RIGHT_PARENTHESIS;
+			} else if (ch == ',') {
+				kind = TokenStream.COMMA;
+			} else {
+				kind = UNSUPPORTED;
+			}
+		}
+	}
+
+	/**
+	 * Feeds the token found by {@link #scan} to the syntax state.
+	 *
+	 * @return Null, or the problem with the token.
+	 */
+	ValidationError accept() {
+		separated = false;
+		return switch (kind) {
+			case TokenStream.NUMBER, TokenStream.VARIABLE -> state.operand();
+			case TokenStream.OPERATOR -> state.operator(2);
+			case TokenStream.FUNCTION -> state.function(OperatorRegistry.arity(id));
+			case TokenStream.UNARY_MINUS, UNARY_PLUS -> state.sign();
+			case TokenStream.LEFT_PARENTHESIS -> state.open();
+			case TokenStream.RIGHT_PARENTHESIS -> state.close();
+			case TokenStream.COMMA -> state.comma();
+			default -> ValidationError.UNSUPPORTED_CHARACTER;
+		};
+	}
+
+	/**
+	 * Checks that the expression is complete once the input has ended.
+	 *
+	 * @return Null, or the problem with the expression.
+	 */
+	ValidationError finish() {
+		return state.finish();
+	}
+
+	/**
+	 * Checks whether a number literal starts at the given index. In postfix and prefix notation a '-'
+	 * that starts a token and is directly followed by a digit begins a negative literal.
+	 *
+	 * @param text  The text being scanned.
+	 * @param index The index to check.
+	 * @param limit The index after the last available character.
+	 * @return True if a number literal starts at the index, otherwise false.
+	 */
+	private boolean isNumberStart(CharSequence text, int index, int limit) {
+		char ch = text.charAt(index);
+		if (ExpressionUtils.isDigit(ch)) {
+			return true;
+		}
+		return ch == '-' && state.notation() != Notation.INFIX && separated
+				&& index + 1 < limit && ExpressionUtils.isDigit(text.charAt(index + 1));
+	}
+}
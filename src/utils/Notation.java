@@ -0,0 +1,22 @@
+package utils;
+
+/**
+ * The notations a mathematical expression can be written in.
+ */
+public enum Notation {
+
+	/**
+	 * Operators are written between operands (e.g., 2 + 3).
+	 */
+	INFIX,
+
+	/**
+	 * Operators are written after operands (e.g., 2 3 +).
+	 */
+	POSTFIX,
+
+	/**
+	 * Operators are written before operands (e.g., + 2 3).
+	 */
+	PREFIX
+}
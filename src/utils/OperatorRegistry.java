@@ -0,0 +1,541 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The registry of operators and functions every tokenizer, converter and evaluator dispatches through.
+ * Each entry has an id, an arity, a precedence, an associativity and an implementation. Entries are compiled
+ * into dense tables indexed by id, plus tables from operator characters and character pairs to ids and a hash
+ * table of names, so looking up or applying an operator or function is an array access rather than a chain of
+ * string comparisons, and registered functions are dispatched exactly like the built-in ones.
+ *
+ * <p>Operators are written between their operands in infix notation and are always binary. Registered operators
+ * are single characters; the built-in comparisons {@code < <= > >= == !=} return 1 for true and 0 for false,
+ * and the built-in {@code and} and {@code or} are words.
+ * Functions are named, take one or two arguments (three for the built-in {@code if}), and are written
+ * {@code name(a, b)} in infix notation and as a plain name in postfix and prefix notation, so a function name
+ * cannot also be used as a variable.
+ * Implementations must be pure: the optimizer computes calls with constant arguments at compile time.</p>
+ *
+ * <p>{@code and}, {@code or} and the three-argument {@code if(condition, then, else)} are lazy (see {@link #isLazy}):
+ * zero is false and anything else is true, {@code a and b} is {@code a} if it is false and {@code b} otherwise,
+ * {@code a or b} is {@code a} if it is true and {@code b} otherwise, and compiled expressions never evaluate
+ * the operand that is not needed.</p>
+ *
+ * <p>In infix notation a '-' where an operand is expected is a unary minus, which applies {@code neg}. It binds
+ * tighter than * and / but not tighter than ^, so {@code -2^2} is -4 and {@code 2*-3} is -6; a unary '+' is
+ * ignored.</p>
+ *
+ * <p>The built-in entries keep fixed ids. Other entries get the next free id when they are registered, and ids
+ * are never reused, so compiled expressions stay valid while new entries are added.</p>
+ */
+public final class OperatorRegistry {
+
+	/**
+	 * How operators of equal precedence group.
+	 */
+	public enum Associativity {
+		LEFT,
+		RIGHT
+	}
+
+	// Ids of the built-in entries; + - * / ^ match the opcodes of compiled expressions
+	public static final int ADD = 1;
+	public static final int SUBTRACT = 2;
+	public static final int MULTIPLY = 3;
+	public static final int DIVIDE = 4;
+	public static final int POWER = 5;
+	public static final int MODULO = 6;
+	public static final int NEGATE = 7;
+	public static final int SQRT = 8;
+	public static final int MIN = 9;
+	public static final int MAX = 10;
+	public static final int LESS = 11;
+	public static final int LESS_EQUAL = 12;
+	public static final int GREATER = 13;
+	public static final int GREATER_EQUAL = 14;
+	public static final int EQUAL = 15;
+	public static final int NOT_EQUAL = 16;
+	public static final int AND = 17;
+	public static final int OR = 18;
+	public static final int IF = 19;
+
+	// Ids fit in one byte, which keeps them cheap to store in tokens, instructions and DAG keys
+	public static final int CAPACITY = 256;
+
+	// Characters that already mean something else and cannot become operators
+	private static final String RESERVED = "().,_";
+
+	// Open addressing with at most half of the slots used, so probe chains stay short
+	private static final int NAME_SLOTS = 2 * CAPACITY;
+
+	/**
+	 * The compiled dispatch tables. A new instance replaces the old one on every registration,
+	 * so readers never see a partially registered entry.
+	 */
+	private static final class Tables {
+		final int[] operatorIds = new int[128];
+		final boolean[] operatorCharacters = new boolean[128];
+		final byte[] pairIds = new byte[128 * 128]; // Operators written as two characters, indexed by first * 128 + second
+		final byte[] nameIds = new byte[NAME_SLOTS]; // Every name, at the first free slot from its hash
+		String[] names = new String[1];
+		char[] symbols = new char[1];
+		int[] arities = new int[1];
+		int[] precedences = new int[1];
+		boolean[] rightAssociative = new boolean[1];
+		DoubleUnaryOperator[] unary = new DoubleUnaryOperator[1];
+		DoubleBinaryOperator[] binary = new DoubleBinaryOperator[1];
+		int size = 1; // Id 0 means "no operator"
+
+		/**
+		 * Copies the tables with room for one more entry.
+		 *
+		 * @return The copy.
+		 */
+		Tables grow() {
+			Tables copy = new Tables();
+			System.arraycopy(operatorIds, 0, copy.operatorIds, 0, operatorIds.length);
+			System.arraycopy(operatorCharacters, 0, copy.operatorCharacters, 0, operatorCharacters.length);
+			System.arraycopy(pairIds, 0, copy.pairIds, 0, pairIds.length);
+			System.arraycopy(nameIds, 0, copy.nameIds, 0, nameIds.length);
+			copy.names = Arrays.copyOf(names, size + 1);
+			copy.symbols = Arrays.copyOf(symbols, size + 1);
+			copy.arities = Arrays.copyOf(arities, size + 1);
+			copy.precedences = Arrays.copyOf(precedences, size + 1);
+			copy.rightAssociative = Arrays.copyOf(rightAssociative, size + 1);
+			copy.unary = Arrays.copyOf(unary, size + 1);
+			copy.binary = Arrays.copyOf(binary, size + 1);
+			copy.size = size;
+			return copy;
+		}
+	}
+
+	private static volatile Tables tables = new Tables();
+
+	static {
+		registerOperator('+', 1, Associativity.LEFT, (a, b) -> a + b);
+		registerOperator('-', 1, Associativity.LEFT, (a, b) -> a - b);
+		registerOperator('*', 2, Associativity.LEFT, (a, b) -> a * b);
+		registerOperator('/', 2, Associativity.LEFT, ExpressionUtils::divide);
+		registerOperator('^', 3, Associativity.RIGHT, Math::pow);
+		registerOperator('%', 2, Associativity.LEFT, OperatorRegistry::remainder);
+		tables = add("neg", 1, 3, Associativity.RIGHT, a -> -a, null); // Also written as a unary '-' in infix
+		registerFunction("sqrt", Math::sqrt);
+		registerFunction("min", Math::min);
+		registerFunction("max", Math::max);
+
+		// Comparisons bind looser than every arithmetic operator, and the logical operators looser still
+		tables = addOperator("<", 0, Associativity.LEFT, (a, b) -> a < b ? 1 : 0);
+		tables = addOperator("<=", 0, Associativity.LEFT, (a, b) -> a <= b ? 1 : 0);
+		tables = addOperator(">", 0, Associativity.LEFT, (a, b) -> a > b ? 1 : 0);
+		tables = addOperator(">=", 0, Associativity.LEFT, (a, b) -> a >= b ? 1 : 0);
+		tables = addOperator("==", 0, Associativity.LEFT, (a, b) -> a == b ? 1 : 0);
+		tables = addOperator("!=", 0, Associativity.LEFT, (a, b) -> a != b ? 1 : 0);
+		tables = addOperator("and", -1, Associativity.LEFT, (a, b) -> a == 0 ? a : b); // Used where operands are computed eagerly
+		tables = addOperator("or", -2, Associativity.LEFT, (a, b) -> a != 0 ? a : b);
+		tables = add("if", 3, 0, Associativity.LEFT, null, null); // Only ever compiled to jumps
+	}
+
+	private OperatorRegistry() {
+	}
+
+	/**
+	 * Registers a binary operator written as a single character.
+	 *
+	 * @param symbol         The operator character; an ASCII character that is not a letter, digit, whitespace,
+	 *                       parenthesis, '.', ',' or '_'.
+	 * @param precedence     The precedence; operators with higher values bind tighter (+ is 1, * is 2, ^ and unary - are 3,
+	 *                       and the comparisons and logical operators, at 0 and below, bind looser than any registered operator).
+	 * @param associativity  How operators of equal precedence group.
+	 * @param implementation The operation.
+	 * @return The id of the new operator.
+	 * @throws IllegalArgumentException If the character cannot be an operator, is already registered, or the registry is full.
+	 */
+	public static synchronized int registerOperator(char symbol, int precedence, Associativity associativity, DoubleBinaryOperator implementation) {
+		if (symbol >= 128 || Character.isLetterOrDigit(symbol) || Character.isWhitespace(symbol) || RESERVED.indexOf(symbol) >= 0) {
+			throw new IllegalArgumentException("Character '" + symbol + "' cannot be an operator.");
+		}
+		if (precedence < 1) {
+			throw new IllegalArgumentException("Operator precedence must be positive.");
+		}
+		if (tables.operatorIds[symbol] != 0) {
+			throw new IllegalArgumentException("Operator '" + symbol + "' is already registered.");
+		}
+		tables = addOperator(String.valueOf(symbol), precedence, associativity, implementation);
+		return tables.size - 1;
+	}
+
+	/**
+	 * Registers a function of one argument.
+	 *
+	 * @param name           The function name; it follows the rules for variable names.
+	 * @param implementation The function.
+	 * @return The id of the new function.
+	 * @throws IllegalArgumentException If the name is not valid, is already registered, or the registry is full.
+	 */
+	public static synchronized int registerFunction(String name, DoubleUnaryOperator implementation) {
+		tables = add(checkName(name), 1, 0, Associativity.LEFT, implementation, null);
+		return tables.size - 1;
+	}
+
+	/**
+	 * Registers a function of two arguments.
+	 *
+	 * @param name           The function name; it follows the rules for variable names.
+	 * @param implementation The function.
+	 * @return The id of the new function.
+	 * @throws IllegalArgumentException If the name is not valid, is already registered, or the registry is full.
+	 */
+	public static synchronized int registerFunction(String name, DoubleBinaryOperator implementation) {
+		tables = add(checkName(name), 2, 0, Associativity.LEFT, null, implementation);
+		return tables.size - 1;
+	}
+
+	/**
+	 * Creates the tables with one more binary operator.
+	 *
+	 * @param symbol         The characters or word of the operator.
+	 * @param precedence     The precedence.
+	 * @param associativity  How operators of equal precedence group.
+	 * @param implementation The operation.
+	 * @return The new tables.
+	 * @throws IllegalArgumentException If the registry is full.
+	 */
+	private static Tables addOperator(String symbol, int precedence, Associativity associativity, DoubleBinaryOperator implementation) {
+		Tables next = add(symbol, 2, precedence, associativity, null, implementation);
+		next.symbols[next.size - 1] = symbol.charAt(0);
+		if (symbol.length() == 1) {
+			next.operatorIds[symbol.charAt(0)] = next.size - 1;
+		} else if (symbol.length() == 2 && symbol.charAt(0) < 128 && symbol.charAt(1) < 128) {
+			next.pairIds[symbol.charAt(0) * 128 + symbol.charAt(1)] = (byte) (next.size - 1);
+		}
+		if (!Tokenizer.isIdentifierStart(symbol.charAt(0))) {
+			for (int i = 0; i < symbol.length(); i++) {
+				next.operatorCharacters[symbol.charAt(i)] = true;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Creates the tables with one more entry.
+	 *
+	 * @param name          The operator character or function name.
+	 * @param arity         The number of operands.
+	 * @param precedence    The precedence of an operator or of a function also written as a prefix operator, otherwise 0.
+	 * @param associativity The associativity of an operator.
+	 * @param unary         The implementation of a one-argument function, or null.
+	 * @param binary        The implementation of a two-operand entry, or null.
+	 * @return The new tables.
+	 * @throws IllegalArgumentException If the registry is full.
+	 */
+	private static Tables add(String name, int arity, int precedence, Associativity associativity,
+							  DoubleUnaryOperator unary, DoubleBinaryOperator binary) {
+		Tables current = tables;
+		if (current.size == CAPACITY) {
+			throw new IllegalArgumentException("Operator registry is full.");
+		}
+		Tables next = current.grow();
+		int id = next.size++;
+		next.names[id] = name;
+		next.arities[id] = arity;
+		next.precedences[id] = precedence;
+		next.rightAssociative[id] = associativity == Associativity.RIGHT;
+		next.unary[id] = unary;
+		next.binary[id] = binary;
+		int slot = hash(name, 0, name.length());
+		while (next.nameIds[slot] != 0) {
+			slot = (slot + 1) & (NAME_SLOTS - 1);
+		}
+		next.nameIds[slot] = (byte) id;
+		return next;
+	}
+
+	/**
+	 * Checks that a function name is a valid identifier that is not registered yet.
+	 *
+	 * @param name The function name.
+	 * @return The name.
+	 * @throws IllegalArgumentException If the name is not valid or is already registered.
+	 */
+	private static String checkName(String name) {
+		if (name == null || name.isEmpty() || !Tokenizer.isIdentifierStart(name.charAt(0))) {
+			throw new IllegalArgumentException("Invalid function name '" + name + "'.");
+		}
+		for (int i = 1; i < name.length(); i++) {
+			if (!Tokenizer.isIdentifierPart(name.charAt(i))) {
+				throw new IllegalArgumentException("Invalid function name '" + name + "'.");
+			}
+		}
+		if (functionId(name, 0, name.length()) != 0 || operatorId(name, 0, name.length()) != 0) {
+			throw new IllegalArgumentException("Function '" + name + "' is already registered.");
+		}
+		return name;
+	}
+
+	/**
+	 * Looks up an operator by its character.
+	 *
+	 * @param symbol The character.
+	 * @return The id of the operator, or 0 if the character is not an operator.
+	 */
+	public static int operatorId(char symbol) {
+		return symbol < 128 ? tables.operatorIds[symbol] : 0;
+	}
+
+	/**
+	 * Looks up an operator by the characters or word spanning part of a text, such as {@code <=} or {@code and}.
+	 *
+	 * @param text  The text holding the operator.
+	 * @param start The index of the first character of the operator.
+	 * @param end   The index after the last character of the operator.
+	 * @return The id of the operator, or 0 if no operator is written that way.
+	 */
+	public static int operatorId(CharSequence text, int start, int end) {
+		Tables current = tables;
+		int id = find(current, text, start, end);
+		return current.symbols[id] != 0 ? id : 0;
+	}
+
+	/**
+	 * Looks up an operator written as two characters, such as {@code <=}.
+	 *
+	 * @param first  The first character.
+	 * @param second The second character.
+	 * @return The id of the operator, or 0 if no operator is written that way.
+	 */
+	public static int operatorId(char first, char second) {
+		Tables current = tables;
+		if (first >= 128 || second >= 128) {
+			return 0;
+		}
+		return current.pairIds[first * 128 + second] & 0xFF;
+	}
+
+	/**
+	 * @param ch A character.
+	 * @return True if the character is part of an operator written with symbols, otherwise false.
+	 */
+	public static boolean isOperatorCharacter(char ch) {
+		return ch < 128 && tables.operatorCharacters[ch];
+	}
+
+	/**
+	 * Looks up a function by the name spanning part of a text, without creating a substring.
+	 *
+	 * @param text  The text holding the name.
+	 * @param start The index of the first character of the name.
+	 * @param end   The index after the last character of the name.
+	 * @return The id of the function, or 0 if no function has that name.
+	 */
+	public static int functionId(CharSequence text, int start, int end) {
+		Tables current = tables;
+		int id = find(current, text, start, end);
+		return current.symbols[id] == 0 ? id : 0;
+	}
+
+	/**
+	 * Looks up any entry by the name spanning part of a text.
+	 *
+	 * @param current The tables to search.
+	 * @param text    The text holding the name.
+	 * @param start   The index of the first character of the name.
+	 * @param end     The index after the last character of the name.
+	 * @return The id of the entry, or 0 if no entry has that name.
+	 */
+	private static int find(Tables current, CharSequence text, int start, int end) {
+		int length = end - start;
+		for (int slot = hash(text, start, end); ; slot = (slot + 1) & (NAME_SLOTS - 1)) {
+			int id = current.nameIds[slot] & 0xFF;
+			if (id == 0) {
+				return 0;
+			}
+			String name = current.names[id];
+			if (name.length() == length && regionMatches(text, start, name)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Hashes part of a text to a slot of the name table.
+	 *
+	 * @param text  The text.
+	 * @param start The index of the first character.
+	 * @param end   The index after the last character.
+	 * @return The slot.
+	 */
+	private static int hash(CharSequence text, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + text.charAt(i);
+		}
+		hash *= 0x9E3779B1; // Short names differ mostly in the low bits, spread them before masking
+		return (hash ^ hash >>> 16) & (NAME_SLOTS - 1);
+	}
+
+	/**
+	 * Compares part of a text with a name of the same length.
+	 *
+	 * @param text  The text.
+	 * @param start The index where the comparison starts.
+	 * @param name  The name.
+	 * @return True if the characters match, otherwise false.
+	 */
+	private static boolean regionMatches(CharSequence text, int start, String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (text.charAt(start + i) != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param id An id.
+	 * @return True if an operator or function has this id, otherwise false.
+	 */
+	public static boolean isRegistered(int id) {
+		return id > 0 && id < tables.size;
+	}
+
+	/**
+	 * @return The number of ids in use, counting the unused id 0. It grows with every registration, so a change
+	 * means the same text may now tokenize differently.
+	 */
+	public static int size() {
+		return tables.size;
+	}
+
+	/**
+	 * @param id The id of an entry.
+	 * @return True if the entry is a named function, false if it is an operator.
+	 */
+	public static boolean isFunction(int id) {
+		return tables.symbols[id] == 0;
+	}
+
+	/**
+	 * Checks whether an entry only evaluates the operands it needs: {@link #AND}, {@link #OR} and {@link #IF}.
+	 * Compiled expressions turn them into jumps rather than calls.
+	 *
+	 * @param id The id of an entry.
+	 * @return True if the entry is lazy, otherwise false.
+	 */
+	public static boolean isLazy(int id) {
+		return id == AND || id == OR || id == IF;
+	}
+
+	/**
+	 * @param id The id of an entry.
+	 * @return The operator character or function name.
+	 */
+	public static String name(int id) {
+		return tables.names[id];
+	}
+
+	/**
+	 * @param id The id of an entry.
+	 * @return The number of operands: 2 for operators, 1 or 2 for functions, 3 for {@link #IF}.
+	 */
+	public static int arity(int id) {
+		return tables.arities[id];
+	}
+
+	/**
+	 * @param id The id of an operator.
+	 * @return The precedence of the operator, the precedence of a unary minus for {@link #NEGATE}, or 0 for
+	 * any other function.
+	 */
+	public static int precedence(int id) {
+		return tables.precedences[id];
+	}
+
+	/**
+	 * @param id The id of an operator.
+	 * @return True if operators of this precedence group from the right.
+	 */
+	public static boolean isRightAssociative(int id) {
+		return tables.rightAssociative[id];
+	}
+
+	/**
+	 * @param id The id of a one-argument function.
+	 * @return The implementation.
+	 */
+	public static DoubleUnaryOperator unary(int id) {
+		return tables.unary[id];
+	}
+
+	/**
+	 * @param id The id of an operator or two-argument function.
+	 * @return The implementation.
+	 */
+	public static DoubleBinaryOperator binary(int id) {
+		return tables.binary[id];
+	}
+
+	/**
+	 * Applies a one-argument function.
+	 *
+	 * @param id      The id of the function.
+	 * @param operand The argument.
+	 * @return The result.
+	 */
+	public static double apply(int id, double operand) {
+		return tables.unary[id].applyAsDouble(operand);
+	}
+
+	/**
+	 * Applies an operator or two-argument function.
+	 *
+	 * @param id     The id of the entry.
+	 * @param first  The first operand.
+	 * @param second The second operand.
+	 * @return The result.
+	 * @throws ArithmeticException If division by zero is attempted.
+	 */
+	public static double apply(int id, double first, double second) {
+		return tables.binary[id].applyAsDouble(first, second);
+	}
+
+	/**
+	 * Applies a one-argument function, taking the id after the argument as generated bytecode pushes them.
+	 *
+	 * @param operand The argument.
+	 * @param id      The id of the function.
+	 * @return The result.
+	 */
+	public static double call(double operand, int id) {
+		return tables.unary[id].applyAsDouble(operand);
+	}
+
+	/**
+	 * Applies a two-operand entry, taking the id after the operands as generated bytecode pushes them.
+	 *
+	 * @param first  The first operand.
+	 * @param second The second operand.
+	 * @param id     The id of the entry.
+	 * @return The result.
+	 */
+	public static double call(double first, double second, int id) {
+		return tables.binary[id].applyAsDouble(first, second);
+	}
+
+	/**
+	 * Computes the remainder of a division, rejecting a zero divisor like division does.
+	 *
+	 * @param first  The dividend.
+	 * @param second The divisor.
+	 * @return The remainder, with the sign of the dividend.
+	 * @throws ArithmeticException If the divisor is zero.
+	 */
+	private static double remainder(double first, double second) {
+		if (second == 0) {
+			throw new DivisionByZeroException();
+		}
+		return first % second;
+	}
+}
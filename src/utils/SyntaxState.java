@@ -0,0 +1,259 @@
+package utils;
+
+/**
+ * The validation rules shared by the {@link Tokenizer}, the {@link TokenReader} and the {@link Validator}.
+ * The {@link Lexer} feeds it one token at a time, and it reports the first token that cannot appear where it does.
+ * Every method returns null when the token is acceptable, or the kind of problem otherwise.
+ */
+final class SyntaxState {
+
+	private Notation notation;
+
+	private long depth;               // Open parentheses (infix)
+	private boolean expectOperand;    // Whether an operand or '(' must come next (infix)
+	private boolean expectCall;       // Whether the previous token was a function name, which needs '(' next (infix)
+	private long operands;            // Operands on the evaluation stack (postfix)
+	private long openSlots;           // Operands still required to complete the expression (prefix)
+	private boolean empty;
+
+	// Open function calls (infix): the parenthesis depth of each call and the commas it still needs
+	private IntStack callDepths;
+	private IntStack callCommas;
+	private int pendingCommas;
+
+	/**
+	 * Creates a state for an expression written in the given notation.
+	 *
+	 * @param notation The notation.
+	 */
+	SyntaxState(Notation notation) {
+		reset(notation);
+	}
+
+	/**
+	 * Prepares the state for a new expression.
+	 *
+	 * @param notation The notation of the expression.
+	 */
+	void reset(Notation notation) {
+		this.notation = notation;
+		this.depth = 0;
+		this.expectOperand = true;
+		this.expectCall = false;
+		this.operands = 0;
+		this.openSlots = 1;
+		this.empty = true;
+		if (callDepths != null) {
+			callDepths.clear();
+			callCommas.clear();
+		}
+	}
+
+	/**
+	 * @return The notation being checked.
+	 */
+	Notation notation() {
+		return notation;
+	}
+
+	/**
+	 * Accepts a number or variable.
+	 *
+	 * @return Null, or the problem with the operand.
+	 */
+	ValidationError operand() {
+		empty = false;
+		switch (notation) {
+			case INFIX -> {
+				if (!expectOperand || expectCall) {
+					return ValidationError.UNEXPECTED_OPERAND;
+				}
+				expectOperand = false;
+			}
+			case POSTFIX -> operands++;
+			case PREFIX -> {
+				if (openSlots == 0) {
+					return ValidationError.UNEXPECTED_OPERAND;
+				}
+				openSlots--;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks whether a '+' or '-' at the current position is a unary sign rather than a binary operator:
+	 * in infix notation, where an operand is expected.
+	 *
+	 * @return True if a sign here is unary, otherwise false.
+	 */
+	boolean expectsSign() {
+		return notation == Notation.INFIX && expectOperand && !expectCall;
+	}
+
+	/**
+	 * Accepts a unary sign, which leaves an operand still expected.
+	 *
+	 * @return Null, as a sign is accepted wherever {@link #expectsSign()} allows it.
+	 */
+	ValidationError sign() {
+		empty = false;
+		return null;
+	}
+
+	/**
+	 * Accepts an operator or, in postfix and prefix notation, a function name.
+	 *
+	 * @param arity The number of operands it takes.
+	 * @return Null, or the problem with the operator.
+	 */
+	ValidationError operator(int arity) {
+		empty = false;
+		switch (notation) {
+			case INFIX -> {
+				if (expectOperand) {
+					return ValidationError.MISSING_OPERAND;
+				}
+				expectOperand = true;
+			}
+			case POSTFIX -> {
+				if (operands < arity) {
+					return ValidationError.MISSING_OPERAND;
+				}
+				operands -= arity - 1;
+			}
+			case PREFIX -> {
+				if (openSlots == 0) {
+					return ValidationError.UNEXPECTED_OPERAND;
+				}
+				openSlots += arity - 1; // Fills one slot and opens one per operand
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Accepts a function name.
+	 *
+	 * @param arity The number of arguments the function takes.
+	 * @return Null, or the problem with the function name.
+	 */
+	ValidationError function(int arity) {
+		if (notation != Notation.INFIX) {
+			return operator(arity);
+		}
+		empty = false;
+		if (!expectOperand || expectCall) {
+			return ValidationError.UNEXPECTED_OPERAND;
+		}
+		pendingCommas = arity - 1;
+		expectCall = true;
+		return null;
+	}
+
+	/**
+	 * Accepts a '('.
+	 *
+	 * @return Null, or the problem with the parenthesis.
+	 */
+	ValidationError open() {
+		empty = false;
+		if (notation != Notation.INFIX) {
+			return ValidationError.UNEXPECTED_PARENTHESIS;
+		}
+		if (!expectOperand) {
+			return ValidationError.UNEXPECTED_OPERAND;
+		}
+		depth++;
+		if (expectCall) {
+			// Remember which parenthesis closes the call and how many commas it needs
+			if (callDepths == null) {
+				callDepths = new IntStack(8);
+				callCommas = new IntStack(8);
+			}
+			callDepths.push((int) depth);
+			callCommas.push(pendingCommas);
+			expectCall = false;
+		}
+		return null;
+	}
+
+	/**
+	 * Accepts a ')'.
+	 *
+	 * @return Null, or the problem with the parenthesis.
+	 */
+	ValidationError close() {
+		empty = false;
+		if (notation != Notation.INFIX) {
+			return ValidationError.UNEXPECTED_PARENTHESIS;
+		}
+		if (depth == 0) {
+			return ValidationError.UNBALANCED_PARENTHESES;
+		}
+		if (expectOperand) {
+			return ValidationError.MISSING_OPERAND;
+		}
+		if (closesCall()) {
+			if (callCommas.peek() != 0) {
+				return ValidationError.MISSING_OPERAND;
+			}
+			callDepths.pop();
+			callCommas.pop();
+		}
+		depth--;
+		return null;
+	}
+
+	/**
+	 * Accepts a ',' between function arguments.
+	 *
+	 * @return Null, or the problem with the comma.
+	 */
+	ValidationError comma() {
+		empty = false;
+		if (notation != Notation.INFIX) {
+			return ValidationError.UNSUPPORTED_CHARACTER;
+		}
+		if (expectOperand) {
+			return ValidationError.MISSING_OPERAND;
+		}
+		if (!closesCall() || callCommas.peek() == 0) {
+			return ValidationError.UNEXPECTED_OPERAND;
+		}
+		callCommas.push(callCommas.pop() - 1);
+		expectOperand = true;
+		return null;
+	}
+
+	/**
+	 * @return True if the innermost open parenthesis belongs to a function call.
+	 */
+	private boolean closesCall() {
+		return callDepths != null && !callDepths.isEmpty() && callDepths.peek() == (int) depth;
+	}
+
+	/**
+	 * Checks that the expression is complete once the input ends.
+	 *
+	 * @return Null, or the problem with the expression.
+	 */
+	ValidationError finish() {
+		if (empty) {
+			return ValidationError.EMPTY;
+		}
+		return switch (notation) {
+			case INFIX -> {
+				if (expectCall) {
+					yield ValidationError.INCOMPLETE;
+				}
+				if (depth != 0) {
+					yield ValidationError.UNBALANCED_PARENTHESES;
+				}
+				yield expectOperand ? ValidationError.INCOMPLETE : null;
+			}
+			case POSTFIX -> operands == 1 ? null : ValidationError.INCOMPLETE;
+			case PREFIX -> openSlots == 0 ? null : ValidationError.INCOMPLETE;
+		};
+	}
+}
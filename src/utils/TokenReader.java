@@ -0,0 +1,260 @@
+package utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * A pull lexer that reads an expression from a {@link Reader} or a {@link CharSequence} one token at a time.
+ * Unlike the {@link Tokenizer}, it never holds more than a fixed-size window of the input and the current
+ * token, so expressions far larger than memory can be converted and evaluated as they are read.
+ * It recognizes tokens with the same {@link Lexer} as the {@link Tokenizer} while it reads, reporting an
+ * incomplete expression or unbalanced parentheses when the input ends. A token longer than the window
+ * grows it, the way the token text would have to grow anyway.
+ */
+public final class TokenReader {
+
+	// Value returned by next() once the input is exhausted
+	public static final int END = -1;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader reader;
+	private final CharSequence sequence;
+	private final Notation notation;
+
+	private char[] buffer = new char[BUFFER_SIZE];
+	private CharBuffer window = CharBuffer.wrap(buffer); // The buffer as the lexer reads it
+	private int position;
+	private int limit;
+	private int sequenceIndex;
+	private boolean exhausted;
+
+	// The current token
+	private byte kind;
+	private char symbol;
+	private double value;
+	private long offset;
+	private final StringBuilder text = new StringBuilder();
+
+	private int operator;
+
+	private long consumed; // Characters consumed before the buffer window
+
+	private final Lexer lexer;
+
+	/**
+	 * Creates a lexer over a reader or a character sequence; exactly one of them is non-null.
+	 *
+	 * @param reader   The reader to read from.
+	 * @param sequence The characters to read from.
+	 * @param notation The notation the expression is written in.
+	 */
+	private TokenReader(Reader reader, CharSequence sequence, Notation notation) {
+		this.reader = reader;
+		this.sequence = sequence;
+		this.notation = notation;
+		this.lexer = new Lexer(notation);
+	}
+
+	/**
+	 * Creates a lexer that reads an expression from a reader. The reader is not closed.
+	 *
+	 * @param reader   The reader to read from.
+	 * @param notation The notation the expression is written in.
+	 * @return The lexer.
+	 * @throws IllegalArgumentException If the reader is null.
+	 */
+	public static TokenReader of(Reader reader, Notation notation) {
+		if (reader == null) {
+			throw new InvalidExpressionException(ValidationError.EMPTY, "Expression cannot be null or empty.");
+		}
+		return new TokenReader(reader, null, notation);
+	}
+
+	/**
+	 * Creates a lexer that reads an expression from a character sequence without copying it.
+	 *
+	 * @param expression The characters to read from.
+	 * @param notation   The notation the expression is written in.
+	 * @return The lexer.
+	 * @throws IllegalArgumentException If the expression is null.
+	 */
+	public static TokenReader of(CharSequence expression, Notation notation) {
+		if (expression == null) {
+			throw new InvalidExpressionException(ValidationError.EMPTY, "Expression cannot be null or empty.");
+		}
+		return new TokenReader(null, expression, notation);
+	}
+
+	/**
+	 * Reads and validates the next token.
+	 *
+	 * @return The kind of the token (see {@link TokenStream}), or {@link #END} once the whole expression has been read.
+	 * @throws IOException              If the reader fails.
+	 * @throws IllegalArgumentException If the expression is empty, contains unsupported characters,
+	 *                                  has unbalanced parentheses, or is not valid in its notation.
+	 */
+	public int next() throws IOException {
+		while (true) {
+			if (!skipWhitespace()) {
+				Tokenizer.check(lexer.finish(), (char) 0, notation);
+				return END;
+			}
+			scan();
+			Tokenizer.check(lexer.accept(), buffer[position], notation);
+			if (lexer.kind != Lexer.UNARY_PLUS) {
+				break;
+			}
+
+			// A unary plus changes nothing and is skipped like whitespace
+			position = lexer.end;
+		}
+
+		char first = buffer[position];
+		offset = consumed + position;
+		kind = lexer.kind;
+		operator = lexer.id;
+		symbol = kind == TokenStream.NUMBER || Tokenizer.isIdentifierStart(first) ? 0 : first;
+		text.setLength(0);
+		text.append(buffer, position, lexer.end - position);
+		value = kind == TokenStream.NUMBER ? ExpressionUtils.parseNumber(text, 0, text.length()) : 0;
+		position = lexer.end;
+		return kind;
+	}
+
+	/**
+	 * @return The kind of the current token.
+	 */
+	public byte kind() {
+		return kind;
+	}
+
+	/**
+	 * @return The parenthesis, comma or sign character of the current token, the first character of an operator
+	 * written with symbols, or 0 for operands, functions and word operators.
+	 */
+	public char symbol() {
+		return symbol;
+	}
+
+	/**
+	 * @return The {@link OperatorRegistry} id of the current token if it is an operator or function, otherwise 0.
+	 */
+	public int operator() {
+		return operator;
+	}
+
+	/**
+	 * @return The numeric value of the current token if it is a number.
+	 */
+	public double value() {
+		return value;
+	}
+
+	/**
+	 * @return The text of the current token, valid until the next call to {@link #next()}.
+	 */
+	public CharSequence text() {
+		return text;
+	}
+
+	/**
+	 * @return The offset of the current token's first character in the input.
+	 */
+	public long offset() {
+		return offset;
+	}
+
+	/**
+	 * @return The notation the expression is read in.
+	 */
+	public Notation notation() {
+		return notation;
+	}
+
+	/**
+	 * Checks that the expression is read in the notation a caller expects.
+	 *
+	 * @param expected The notation the caller can process.
+	 * @throws IllegalArgumentException If the reader uses a different notation.
+	 */
+	public void requireNotation(Notation expected) {
+		if (notation != expected) {
+			throw new IllegalArgumentException("Expected a " + expected.name().toLowerCase()
+					+ " expression but got a " + notation.name().toLowerCase() + " expression.");
+		}
+	}
+
+	/**
+	 * Skips the whitespace before the next token, reading more input as needed.
+	 *
+	 * @return False if the input ends first, otherwise true.
+	 * @throws IOException If the reader fails.
+	 */
+	private boolean skipWhitespace() throws IOException {
+		while ((position = lexer.skip(window, position, limit)) == limit) {
+			if (!fill()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the token at the current position, reading more input until the character after the token
+	 * is in the buffer or the input ends, so the lexer sees where the token really ends.
+	 *
+	 * @throws IOException If the reader fails.
+	 */
+	private void scan() throws IOException {
+		lexer.scan(window, position, limit);
+		while (lexer.end + 1 >= limit && !exhausted) {
+			fill(); // Moves the token to the front of the buffer even when no input is left
+			lexer.scan(window, position, limit);
+		}
+	}
+
+	/**
+	 * Moves the unread characters to the front of the buffer and reads more input after them.
+	 *
+	 * @return False if the input is exhausted, otherwise true.
+	 * @throws IOException If the reader fails.
+	 */
+	private boolean fill() throws IOException {
+		if (exhausted) {
+			return false;
+		}
+		consumed += position;
+		int remaining = limit - position;
+		if (remaining == buffer.length) {
+			// A single token fills the whole window
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			window = CharBuffer.wrap(buffer);
+		}
+		System.arraycopy(buffer, position, buffer, 0, remaining);
+		position = 0;
+		limit = remaining;
+
+		int read;
+		if (reader != null) {
+			read = reader.read(buffer, limit, buffer.length - limit);
+		} else {
+			read = Math.min(buffer.length - limit, sequence.length() - sequenceIndex);
+			for (int i = 0; i < read; i++) {
+				buffer[limit + i] = sequence.charAt(sequenceIndex + i);
+			}
+			sequenceIndex += read;
+			if (read == 0) {
+				read = -1;
+			}
+		}
+		if (read < 0) {
+			exhausted = true;
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+}
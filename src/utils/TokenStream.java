@@ -0,0 +1,214 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * A compact, array-backed sequence of tokens produced by the {@link Tokenizer}.
+ * Each token has a kind, an operator or parenthesis symbol, a numeric value (for numbers),
+ * and the offsets of its text in the source expression, so no token ever needs its own String.
+ */
+public final class TokenStream {
+
+	// Token kinds
+	public static final byte NUMBER = 0;
+	public static final byte OPERATOR = 1;
+	public static final byte LEFT_PARENTHESIS = 2;
+	public static final byte RIGHT_PARENTHESIS = 3;
+	public static final byte VARIABLE = 4;
+	public static final byte FUNCTION = 5;
+	public static final byte COMMA = 6;
+	public static final byte UNARY_MINUS = 7;
+
+	private final String source;
+	private final Notation notation;
+
+	private byte[] kinds;
+	private char[] symbols;
+	private double[] values;
+	private int[] starts;
+	private int[] ends;
+	private int size;
+	private boolean lazy;
+
+	/**
+	 * Creates an empty token stream for the given source expression.
+	 *
+	 * @param source   The expression the tokens are read from.
+	 * @param notation The notation the expression is written in.
+	 * @param capacity The initial number of tokens the stream can hold.
+	 */
+	TokenStream(String source, Notation notation, int capacity) {
+		this.source = source;
+		this.notation = notation;
+		this.kinds = new byte[capacity];
+		this.symbols = new char[capacity];
+		this.values = new double[capacity];
+		this.starts = new int[capacity];
+		this.ends = new int[capacity];
+	}
+
+	/**
+	 * Appends a token to the stream, growing the backing arrays when needed.
+	 *
+	 * @param kind   The token kind.
+	 * @param symbol The registry id of an operator or function, the parenthesis, comma or sign character, or 0 for operands.
+	 * @param value  The numeric value (0 for non-numbers).
+	 * @param start  The index of the first character of the token in the source.
+	 * @param end    The index after the last character of the token in the source.
+	 */
+	void add(byte kind, char symbol, double value, int start, int end) {
+		if (size == kinds.length) {
+			int capacity = Math.max(8, size * 2);
+			kinds = Arrays.copyOf(kinds, capacity);
+			symbols = Arrays.copyOf(symbols, capacity);
+			values = Arrays.copyOf(values, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+		}
+		kinds[size] = kind;
+		symbols[size] = symbol;
+		values[size] = value;
+		starts[size] = start;
+		ends[size] = end;
+		size++;
+		if ((kind == OPERATOR || kind == FUNCTION) && OperatorRegistry.isLazy(symbol)) {
+			lazy = true;
+		}
+	}
+
+	/**
+	 * @return The expression the tokens were read from.
+	 */
+	public String source() {
+		return source;
+	}
+
+	/**
+	 * @return The notation the expression was validated against.
+	 */
+	public Notation notation() {
+		return notation;
+	}
+
+	/**
+	 * @return The number of tokens in the stream.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index The token index.
+	 * @return The kind of the token ({@link #NUMBER}, {@link #VARIABLE}, {@link #OPERATOR}, {@link #UNARY_MINUS},
+	 * {@link #FUNCTION}, {@link #LEFT_PARENTHESIS}, {@link #RIGHT_PARENTHESIS} or {@link #COMMA}).
+	 */
+	public byte kind(int index) {
+		return kinds[index];
+	}
+
+	/**
+	 * @param index The token index.
+	 * @return True if the token is a number or a variable, otherwise false.
+	 */
+	public boolean isOperand(int index) {
+		return kinds[index] == NUMBER || kinds[index] == VARIABLE;
+	}
+
+	/**
+	 * @param index The token index.
+	 * @return The parenthesis, comma or sign character of the token, the first character of an operator,
+	 * or 0 for operands and functions.
+	 */
+	public char symbol(int index) {
+		return switch (kinds[index]) {
+			case FUNCTION -> 0;
+			case OPERATOR -> OperatorRegistry.name(symbols[index]).charAt(0);
+			default -> symbols[index];
+		};
+	}
+
+	/**
+	 * @param index The token index.
+	 * @return The {@link OperatorRegistry} id of an operator or function token; {@link OperatorRegistry#NEGATE} for a unary minus.
+	 */
+	public int operator(int index) {
+		return switch (kinds[index]) {
+			case OPERATOR, FUNCTION -> symbols[index];
+			case UNARY_MINUS -> OperatorRegistry.NEGATE;
+			default -> 0;
+		};
+	}
+
+	/**
+	 * @return True if the stream uses {@code and}, {@code or} or {@code if}, whose operands are only evaluated
+	 * when needed (see {@link OperatorRegistry#isLazy}), otherwise false.
+	 */
+	public boolean hasLazyOperators() {
+		return lazy;
+	}
+
+	/**
+	 * @param index The token index.
+	 * @return True if the token is a binary operator or a unary minus, otherwise false.
+	 */
+	public boolean isOperator(int index) {
+		return kinds[index] == OPERATOR || kinds[index] == UNARY_MINUS;
+	}
+
+	/**
+	 * @param index The token index.
+	 * @return The numeric value of a number token.
+	 */
+	public double value(int index) {
+		return values[index];
+	}
+
+	/**
+	 * @param index The token index.
+	 * @return The index of the first character of the token in the source expression.
+	 */
+	public int start(int index) {
+		return starts[index];
+	}
+
+	/**
+	 * @param index The token index.
+	 * @return The index after the last character of the token in the source expression.
+	 */
+	public int end(int index) {
+		return ends[index];
+	}
+
+	/**
+	 * Returns the source text of a token, such as the name of a variable.
+	 *
+	 * @param index The token index.
+	 * @return The text of the token.
+	 */
+	public String text(int index) {
+		return source.substring(starts[index], ends[index]);
+	}
+
+	/**
+	 * Appends the source text of a token to the given builder without creating a substring.
+	 *
+	 * @param index   The token index.
+	 * @param builder The builder to append to.
+	 */
+	public void appendText(int index, StringBuilder builder) {
+		builder.append(source, starts[index], ends[index]);
+	}
+
+	/**
+	 * Ensures the stream was validated as the given notation.
+	 *
+	 * @param expected The notation the caller requires.
+	 * @throws IllegalArgumentException If the stream holds a different notation.
+	 */
+	public void requireNotation(Notation expected) {
+		if (notation != expected) {
+			throw new IllegalArgumentException("Expected a " + expected.name().toLowerCase() + " expression but got a "
+					+ notation.name().toLowerCase() + " expression.");
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package utils;
+
+/**
+ * A single-pass lexer for infix, postfix and prefix expressions made of numbers, named variables,
+ * operators, function calls and parentheses. In infix notation a '+' or '-' where an operand is expected
+ * is a unary sign.
+ * The tokenizer scans the input exactly once and, during that same scan, checks that every character
+ * is supported, that parentheses are balanced, and that every operator and function has the operands it needs.
+ * Tokens are recognized by the {@link Lexer} the other lexers share, and operators and function names are looked
+ * up in the {@link OperatorRegistry}.
+ * Converters and evaluators consume the resulting {@link TokenStream} instead of re-reading the string.
+ */
+public final class Tokenizer {
+
+	private Tokenizer() {
+	}
+
+	/**
+	 * Scans and validates an expression written in the given notation.
+	 *
+	 * @param expression The expression to tokenize.
+	 * @param notation   The notation the expression is written in.
+	 * @return The validated token stream.
+	 * @throws IllegalArgumentException If the expression is null, empty, contains unsupported characters,
+	 *                                  has unbalanced parentheses, or is not valid in the given notation.
+	 */
+	public static TokenStream tokenize(String expression, Notation notation) {
+		if (expression == null) {
+			throw new InvalidExpressionException(ValidationError.EMPTY, "Expression cannot be null or empty.");
+		}
+
+		int length = expression.length();
+		TokenStream tokens = new TokenStream(expression, notation, Math.min(length, 16) + 1);
+		Lexer lexer = new Lexer(notation);
+
+		int i = lexer.skip(expression, 0, length);
+		while (i < length) {
+			char ch = expression.charAt(i);
+			lexer.scan(expression, i, length);
+			check(lexer.accept(), ch, notation);
+			int end = lexer.end;
+			switch (lexer.kind) {
+				case TokenStream.NUMBER -> tokens.add(TokenStream.NUMBER, (char) 0, ExpressionUtils.parseNumber(expression, i, end), i, end);
+				case TokenStream.VARIABLE -> tokens.add(TokenStream.VARIABLE, (char) 0, 0, i, end);
+				case TokenStream.OPERATOR, TokenStream.FUNCTION -> tokens.add(lexer.kind, (char) lexer.id, 0, i, end);
+				case Lexer.UNARY_PLUS -> {
+					// A unary plus changes nothing and is dropped
+				}
+				default -> tokens.add(lexer.kind, ch, 0, i, end);
+			}
+			i = lexer.skip(expression, end, length);
+		}
+
+		// Check that the expression is complete
+		check(lexer.finish(), (char) 0, notation);
+		return tokens;
+	}
+
+	/**
+	 * Checks whether a character can start a variable name.
+	 *
+	 * @param ch The character to check.
+	 * @return True if the character is a letter or '_', otherwise false.
+	 */
+	static boolean isIdentifierStart(char ch) {
+		return Character.isLetter(ch) || ch == '_';
+	}
+
+	/**
+	 * Checks whether a character can continue a variable name.
+	 *
+	 * @param ch The character to check.
+	 * @return True if the character is a letter, an ASCII digit or '_', otherwise false.
+	 */
+	static boolean isIdentifierPart(char ch) {
+		return Character.isLetter(ch) || ExpressionUtils.isDigit(ch) || ch == '_';
+	}
+
+	/**
+	 * Throws the exception for a problem found while scanning, if there is one.
+	 *
+	 * @param error     The problem, or null if the token was accepted.
+	 * @param character The offending character, or 0 if the input ended too early.
+	 * @param notation  The notation of the expression.
+	 * @throws IllegalArgumentException If there is a problem.
+	 */
+	static void check(ValidationError error, char character, Notation notation) {
+		if (error != null) {
+			throw new InvalidExpressionException(error, ValidationResult.message(error, character, notation));
+		}
+	}
+}
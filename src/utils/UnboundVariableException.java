@@ -0,0 +1,28 @@
+package utils;
+
+/**
+ * Thrown when an expression is evaluated without a value for one of its variables.
+ */
+public class UnboundVariableException extends IllegalArgumentException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String variable;
+
+	/**
+	 * Creates an exception for a variable that has no value.
+	 *
+	 * @param variable The name of the variable.
+	 */
+	public UnboundVariableException(String variable) {
+		super("Variable '" + variable + "' has no value.");
+		this.variable = variable;
+	}
+
+	/**
+	 * @return The name of the variable.
+	 */
+	public String variable() {
+		return variable;
+	}
+}
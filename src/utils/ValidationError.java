@@ -0,0 +1,21 @@
+package utils;
+
+/**
+ * The kinds of problem the {@link Validator} reports.
+ */
+public enum ValidationError {
+	/** The expression is null or holds only whitespace. */
+	EMPTY,
+	/** A character is not part of any token. */
+	UNSUPPORTED_CHARACTER,
+	/** A ')' has no matching '(', or the input ends with a '(' still open. */
+	UNBALANCED_PARENTHESES,
+	/** An operator, ')' or ',' appears where an operand is needed, or an operator or function has too few operands. */
+	MISSING_OPERAND,
+	/** An operand or '(' appears where an operator is needed, a call has too many arguments, or a prefix expression has operands left over. */
+	UNEXPECTED_OPERAND,
+	/** A parenthesis appears in a postfix or prefix expression. */
+	UNEXPECTED_PARENTHESIS,
+	/** The input ends before the expression is complete, or a postfix expression leaves several values. */
+	INCOMPLETE
+}
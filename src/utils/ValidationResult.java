@@ -0,0 +1,141 @@
+package utils;
+
+/**
+ * The outcome of a {@link Validator} run: either valid, or the kind and offset of the first problem.
+ * A result is meant to be reused across many validations, so rejecting an expression allocates nothing;
+ * the message is only built if {@link #message()} is called.
+ */
+public final class ValidationResult {
+
+	private static final ThreadLocal<ValidationResult> LOCAL = ThreadLocal.withInitial(ValidationResult::new);
+
+	private ValidationError error;
+	private int offset;
+	private char character;
+	private Notation notation;
+	private Lexer lexer;
+
+	/**
+	 * Creates a result to be filled in by {@link Validator#validate}. It reads as valid until then.
+	 */
+	public ValidationResult() {
+	}
+
+	/**
+	 * Returns the result owned by the current thread. It must not be kept after the calling method returns.
+	 *
+	 * @return The current thread's result.
+	 */
+	public static ValidationResult local() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Returns the lexer reused by every validation into this result, reset for a new expression.
+	 *
+	 * @param notation The notation of the expression.
+	 * @return The reset lexer.
+	 */
+	Lexer lexer(Notation notation) {
+		if (lexer == null) {
+			lexer = new Lexer(notation);
+		} else {
+			lexer.reset(notation);
+		}
+		return lexer;
+	}
+
+	/**
+	 * Marks the result as valid.
+	 *
+	 * @param notation The notation that was checked.
+	 */
+	void succeed(Notation notation) {
+		this.error = null;
+		this.offset = -1;
+		this.character = 0;
+		this.notation = notation;
+	}
+
+	/**
+	 * Records the first problem of an expression.
+	 *
+	 * @param error     The kind of problem.
+	 * @param offset    The index of the offending character, or the length of the input if it ended too early.
+	 * @param character The offending character, or 0 if the input ended too early.
+	 * @param notation  The notation that was checked.
+	 * @return False, for use as the result of a validation.
+	 */
+	boolean fail(ValidationError error, int offset, char character, Notation notation) {
+		this.error = error;
+		this.offset = offset;
+		this.character = character;
+		this.notation = notation;
+		return false;
+	}
+
+	/**
+	 * @return True if the last validated expression was valid, otherwise false.
+	 */
+	public boolean isValid() {
+		return error == null;
+	}
+
+	/**
+	 * @return The kind of problem found, or null if the expression was valid.
+	 */
+	public ValidationError error() {
+		return error;
+	}
+
+	/**
+	 * @return The index of the offending character, the length of the input if it ended too early, or -1 if valid.
+	 */
+	public int offset() {
+		return offset;
+	}
+
+	/**
+	 * @return The offending character, or 0 if the input ended too early or was valid.
+	 */
+	public char character() {
+		return character;
+	}
+
+	/**
+	 * Builds the message the {@link Tokenizer} would have thrown for the same problem.
+	 *
+	 * @return The message, or null if the expression was valid.
+	 */
+	public String message() {
+		if (error == null) {
+			return null;
+		}
+		return message(error, character, notation);
+	}
+
+	/**
+	 * Builds the message the {@link Tokenizer} throws for a problem.
+	 *
+	 * @param error     The kind of problem.
+	 * @param character The offending character, or 0 if the input ended too early.
+	 * @param notation  The notation that was checked.
+	 * @return The message.
+	 */
+	static String message(ValidationError error, char character, Notation notation) {
+		return switch (error) {
+			case EMPTY -> "Expression cannot be null or empty.";
+			case UNSUPPORTED_CHARACTER -> "Error: Unsupported character '" + character + "' in expression. Only numbers, variables and operators are allowed.";
+			case UNBALANCED_PARENTHESES -> "Error: Unbalanced parentheses in expression!";
+			default -> "Invalid " + notation.name().toLowerCase() + " expression.";
+		};
+	}
+
+	/**
+	 * @return A description of the result, with the position of the problem if there is one.
+	 */
+	@Override
+	public String toString() {
+		return error == null ? "valid" : error + " at offset " + offset;
+	}
+}
@@ -0,0 +1,59 @@
+package utils;
+
+/**
+ * A validation engine that checks an expression in one pass without building tokens, numbers or exceptions.
+ * It applies the same rules as the {@link Tokenizer}, through the same {@link Lexer}, but stops at the first
+ * offending character and reports it through a reusable {@link ValidationResult}, so rejecting malformed input
+ * is never more expensive than accepting valid input.
+ */
+public final class Validator {
+
+	private Validator() {
+	}
+
+	/**
+	 * Checks whether an expression is valid in a notation, using the current thread's result.
+	 *
+	 * @param expression The expression to check.
+	 * @param notation   The notation the expression should be written in.
+	 * @return True if the expression is valid, otherwise false.
+	 */
+	public static boolean isValid(CharSequence expression, Notation notation) {
+		return validate(expression, notation, ValidationResult.local());
+	}
+
+	/**
+	 * Checks whether an expression is valid in a notation and records the first problem in the result.
+	 *
+	 * @param expression The expression to check.
+	 * @param notation   The notation the expression should be written in.
+	 * @param result     The result to fill in.
+	 * @return True if the expression is valid, otherwise false.
+	 */
+	public static boolean validate(CharSequence expression, Notation notation, ValidationResult result) {
+		if (expression == null) {
+			return result.fail(ValidationError.EMPTY, 0, (char) 0, notation);
+		}
+
+		int length = expression.length();
+		Lexer lexer = result.lexer(notation);
+
+		int i = lexer.skip(expression, 0, length);
+		while (i < length) {
+			lexer.scan(expression, i, length);
+			ValidationError error = lexer.accept();
+			if (error != null) {
+				return result.fail(error, i, expression.charAt(i), notation);
+			}
+			i = lexer.skip(expression, lexer.end, length);
+		}
+
+		// Check that the expression is complete
+		ValidationError error = lexer.finish();
+		boolean complete = error == null || result.fail(error, length, (char) 0, notation);
+		if (complete) {
+			result.succeed(notation);
+		}
+		return complete;
+	}
+}